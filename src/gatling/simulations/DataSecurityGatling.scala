@@ -14,12 +14,15 @@
  * limitations under the License.
  */
 import java.nio.ByteBuffer
-import java.util.concurrent.CompletableFuture
+import java.time.Duration
+import java.util.Optional
+import java.util.concurrent.{CompletableFuture, ForkJoinPool}
 
 import scala.compat.java8.FutureConverters._
 import scala.concurrent.ExecutionContext.Implicits._
 import scala.concurrent.Future
 import scala.concurrent.duration._
+import scala.util.Random
 
 import io.gatling.commons.stats.{KO, OK}
 import io.gatling.commons.validation._
@@ -28,27 +31,114 @@ import io.gatling.core.action.Action
 import io.gatling.core.action.builder.ActionBuilder
 import io.gatling.core.feeder.Feeder
 import io.gatling.core.stats.StatsEngine
-import io.gatling.core.structure.{ScenarioBuilder, ScenarioContext}
+import io.gatling.core.structure.{ChainBuilder, PopulationBuilder, ScenarioContext}
+import org.scalacheck.{Arbitrary, Gen}
 import software.amazon.awssdk.services.iam.model.Role
 import uk.acmelabs.datasecurity.api._
+import uk.acmelabs.datasecurity.aws.api.model.DataKey
+import uk.acmelabs.datasecurity.aws.client.{AdmissionControlledKMS, GradientLimiter, KeyManagementService, LocalKMS}
 import uk.acmelabs.datasecurity.consumer.{ConsumerConfig, DataConsumer}
 import uk.acmelabs.datasecurity.producer.{DataProducer, ProducerConfig}
-import uk.acmelabs.datasecurity.{IAMSetup, TestSetup}
+import uk.acmelabs.datasecurity.{ExecutionStrategy, IAMSetup, TestSetup}
 
 final case class ValidationException(error: String*) extends Exception
 
+/**
+ * Payloads of a given size (or, for the arbitrary bucket, of ScalaCheck generated sizes).
+ */
+final case class PayloadBucket(name: String, gen: Gen[ByteBuffer])
+
+object PayloadBucket {
+  val arbitrary: PayloadBucket = PayloadBucket("arbitrary", ByteBufferGen.genByteBuffer)
+
+  def ofSize(size: Int): PayloadBucket =
+    PayloadBucket(
+      s"${size}B",
+      Arbitrary.arbLong.arbitrary.map { seed =>
+        val bytes = new Array[Byte](size)
+        new Random(seed).nextBytes(bytes)
+        ByteBuffer.wrap(bytes)
+      }
+    )
+}
+
+/**
+ * Load test parameters, read from system properties:
+ * - kmsBackend: aws (the default, AWS KMS or localstack) or local (an in-process LocalKMS)
+ * - localKmsMedianLatencyMillis: median (log-normal) LocalKMS response latency
+ * - payloadSizes: comma separated payload sizes in bytes (by default, payloads have arbitrary sizes)
+ * - workload: ramp (the default), open (constant arrival rate) or closed (constant concurrency)
+ * - cores: number of crypto threads (by default, crypto runs on the default executor)
+ */
+object LoadTestConfig {
+  val kmsBackend: String = System.getProperty("kmsBackend", "aws")
+  val workload: String = System.getProperty("workload", "ramp")
+  val payloadBuckets: Seq[PayloadBucket] = {
+    val sizes = System.getProperty("payloadSizes", "").split(",").map(_.trim).filter(_.nonEmpty)
+
+    if (sizes.isEmpty) Seq(PayloadBucket.arbitrary) else sizes.map(size => PayloadBucket.ofSize(size.toInt)).toSeq
+  }
+  val cores: Option[Int] = Option(Integer.getInteger("cores")).map(_.intValue)
+
+  lazy val iamSetup: IAMSetup = TestSetup.iamSetup
+
+  lazy val localKMS: Option[LocalKMS] =
+    kmsBackend match {
+      case "local" =>
+        val medianLatency = Integer.getInteger("localKmsMedianLatencyMillis", 0)
+        val latency =
+          if (medianLatency > 0) {
+            LocalKMS.Latency.logNormal(Duration.ofMillis(medianLatency.longValue), 0.5)
+          } else {
+            LocalKMS.Latency.none()
+          }
+
+        Some(new LocalKMS(ForkJoinPool.commonPool(), latency, Double.PositiveInfinity, 0))
+      case "aws" =>
+        None
+      case other =>
+        throw new IllegalArgumentException(s"Unknown kmsBackend: $other")
+    }
+
+  lazy val executionStrategy: Option[ExecutionStrategy] =
+    cores.map(threads => ExecutionStrategy.dedicatedCryptoPool(0, threads, ForkJoinPool.commonPool()))
+
+  private lazy val localRole: Role =
+    Role.builder.roleName("load-test").arn("arn:aws:iam::000000000000:role/load-test").build
+
+  lazy val encryptRole: Role = localKMS.fold(iamSetup.encryptRole)(_ => localRole)
+
+  lazy val decryptRole: Role = localKMS.fold(iamSetup.decryptRole)(_ => localRole)
+
+  lazy val kmsMap: Map[CMK, Seq[DataKey]] =
+    localKMS match {
+      case Some(kms) =>
+        Seq
+          .fill(5)(kms.createCMK().join())
+          .map(cmk => cmk -> Seq.fill(3)(kms.generateDataKey(cmk).join()))
+          .toMap
+      case None =>
+        iamSetup.kmsMap
+    }
+
+  def configuration: Map[String, Any] =
+    Map(
+      "kmsBackend" -> kmsBackend,
+      "workload" -> workload,
+      "cores" -> cores.getOrElse(Runtime.getRuntime.availableProcessors)
+    )
+}
+
 object KMSClient {
 
-  import ByteBufferGen._
   import MessageGen._
 
-  val iamSetup: IAMSetup = TestSetup.iamSetup
-  val encryptActionFeeder: Feeder[Any] = {
-    val cmkGen = genCMK(iamSetup.kmsMap)
+  def encryptActionFeeder(bucket: PayloadBucket): Feeder[Any] = {
+    val cmkGen = genCMK(LoadTestConfig.kmsMap)
 
     Iterator.continually(
       for {
-        actualData <- genByteBuffer.sample
+        actualData <- bucket.gen.sample
         cmk <- cmkGen.sample
       } yield {
         Map(
@@ -61,8 +151,12 @@ object KMSClient {
         data
     }
   }
-  val decryptActionFeeder: Feeder[Any] = {
-    val messageGen = genMessage(iamSetup.kmsMap)
+  def decryptActionFeeder(bucket: PayloadBucket): Feeder[Any] = {
+    val messageGen =
+      for {
+        data <- bucket.gen
+        result <- genMessage(LoadTestConfig.kmsMap, Some(data))
+      } yield result
 
     Iterator.continually(
       for {
@@ -79,36 +173,63 @@ object KMSClient {
         data
     }
   }
-  val encryptData: EncryptActionBuilder = {
-    new EncryptActionBuilder(
-      "Encrypt Data",
-      new ProducerConfig {
-        override def encryptRole(): Role = iamSetup.encryptRole
-      }
-    )
-  }
-  val decryptData: DecryptActionBuilder = {
-    new DecryptActionBuilder(
-      "Decrypt Data",
-      new ConsumerConfig {
-        override def decryptRole(): Role = iamSetup.decryptRole
-      }
-    )
-  }
+  val producerConfig: ProducerConfig =
+    new ProducerConfig {
+      override def encryptRole(): Role = LoadTestConfig.encryptRole
+
+      override def kmsConcurrencyLimiter(): Optional[GradientLimiter] = Optional.of(new GradientLimiter(20, 1, 500))
+
+      override def keyManagementService(role: Role): KeyManagementService =
+        LoadTestConfig.localKMS match {
+          case Some(kms) =>
+            kmsConcurrencyLimiter()
+              .map[KeyManagementService](limiter => new AdmissionControlledKMS(kms, limiter, kmsDeadline()))
+              .orElse(kms)
+          case None =>
+            super.keyManagementService(role)
+        }
+
+      override def executionStrategy(): ExecutionStrategy =
+        LoadTestConfig.executionStrategy.getOrElse(super.executionStrategy())
+    }
+  val consumerConfig: ConsumerConfig =
+    new ConsumerConfig {
+      override def decryptRole(): Role = LoadTestConfig.decryptRole
+
+      override def kmsConcurrencyLimiter(): Optional[GradientLimiter] = Optional.of(new GradientLimiter(20, 1, 500))
+
+      override def keyManagementService(role: Role): KeyManagementService =
+        LoadTestConfig.localKMS match {
+          case Some(kms) =>
+            kmsConcurrencyLimiter()
+              .map[KeyManagementService](limiter => new AdmissionControlledKMS(kms, limiter, kmsDeadline()))
+              .orElse(kms)
+          case None =>
+            super.keyManagementService(role)
+        }
+
+      override def executionStrategy(): ExecutionStrategy =
+        LoadTestConfig.executionStrategy.getOrElse(super.executionStrategy())
+    }
+  def encryptData(bucket: PayloadBucket): EncryptActionBuilder =
+    new EncryptActionBuilder(s"Encrypt Data (${bucket.name})", bucket, producerConfig)
+  def decryptData(bucket: PayloadBucket): DecryptActionBuilder =
+    new DecryptActionBuilder(s"Decrypt Data (${bucket.name})", bucket, consumerConfig)
 }
 
-class EncryptActionBuilder(name: String, config: ProducerConfig) extends ActionBuilder {
+class EncryptActionBuilder(name: String, bucket: PayloadBucket, config: ProducerConfig) extends ActionBuilder {
   override def build(ctx: ScenarioContext, next: Action): Action =
-    new EncryptAction(name, ctx.coreComponents.statsEngine, config, next)
+    new EncryptAction(name, bucket, ctx.coreComponents.statsEngine, config, next)
 }
 
-class DecryptActionBuilder(name: String, config: ConsumerConfig) extends ActionBuilder {
+class DecryptActionBuilder(name: String, bucket: PayloadBucket, config: ConsumerConfig) extends ActionBuilder {
   override def build(ctx: ScenarioContext, next: Action): Action =
-    new DecryptAction(name, ctx.coreComponents.statsEngine, config, next)
+    new DecryptAction(name, bucket, ctx.coreComponents.statsEngine, config, next)
 }
 
 class EncryptAction(
                      val name: String,
+                     bucket: PayloadBucket,
                      statsEngine: StatsEngine,
                      config: ProducerConfig,
                      next: Action
@@ -116,6 +237,7 @@ class EncryptAction(
 
   override def execute(session: Session): Unit = {
     val start = System.currentTimeMillis
+    val startNanos = System.nanoTime
     val actualData = session("actualData").validate[ByteBuffer]
     val cmk = session("cmk").validate[CMK]
     val producer =
@@ -129,20 +251,27 @@ class EncryptAction(
     val result: Future[Status] =
       (actualData, cmk) match {
         case (Success(data), Success(key)) =>
-          producer.send(data.value, key.value).toScala.transformWith {
-            case util.Success(_) =>
-              Future {
-                val end = System.currentTimeMillis
-                statsEngine.logResponse(session, name, start, end, OK, None, None)
-                OK
-              }
-            case util.Failure(error) =>
-              Future {
-                val end = System.currentTimeMillis
-                statsEngine.logResponse(session, name, start, end, KO, None, Some(error.getMessage))
-                next ! session
-                KO
-              }
+          val payloadSize = data.value.remaining()
+
+          producer.send(data.value, key.value).toScala.transformWith { outcome =>
+            producer.close()
+            outcome match {
+              case util.Success(_) =>
+                Future {
+                  val end = System.currentTimeMillis
+                  LoadTestSummary.record(name, bucket.name, payloadSize, System.nanoTime - startNanos, OK)
+                  statsEngine.logResponse(session, name, start, end, OK, None, None)
+                  OK
+                }
+              case util.Failure(error) =>
+                Future {
+                  val end = System.currentTimeMillis
+                  LoadTestSummary.record(name, bucket.name, payloadSize, System.nanoTime - startNanos, KO)
+                  statsEngine.logResponse(session, name, start, end, KO, None, Some(error.getMessage))
+                  next ! session
+                  KO
+                }
+            }
           }
         case (Failure(error), Success(_)) =>
           Future.failed(ValidationException(error))
@@ -163,6 +292,7 @@ class EncryptAction(
 
 class DecryptAction(
                      val name: String,
+                     bucket: PayloadBucket,
                      statsEngine: StatsEngine,
                      config: ConsumerConfig,
                      next: Action
@@ -170,6 +300,7 @@ class DecryptAction(
 
   override def execute(session: Session): Unit = {
     val start = System.currentTimeMillis
+    val startNanos = System.nanoTime
     val message = session("message").validate[Message]
     val actualData = session("actualData").validate[ByteBuffer]
     val consumer =
@@ -177,7 +308,9 @@ class DecryptAction(
         (decryptedData: ByteBuffer) => actualData match {
           case Success(expectedData) =>
             CompletableFuture.completedFuture[Void] {
-              next ! session.set("result", (decryptedData, expectedData.value))
+              // Decrypted data is zeroed once this function returns, so a copy is validated
+              val copy = ByteBuffer.allocate(decryptedData.remaining()).put(decryptedData.duplicate()).flip()
+              next ! session.set("result", (copy, expectedData.value))
               null
             }
           case Failure(error) =>
@@ -188,20 +321,27 @@ class DecryptAction(
     val result: Future[Status] = {
       message match {
         case Success(msg) =>
-          consumer.receive(msg.value).toScala.transformWith {
-            case util.Success(_) =>
-              Future {
-                val end = System.currentTimeMillis
-                statsEngine.logResponse(session, name, start, end, OK, None, None)
-                OK
-              }
-            case util.Failure(error) =>
-              Future {
-                val end = System.currentTimeMillis
-                statsEngine.logResponse(session, name, start, end, KO, None, Some(error.getMessage))
-                next ! session
-                KO
-              }
+          val payloadSize = DataConsumer.plaintextSize(msg.value)
+
+          consumer.receive(msg.value).toScala.transformWith { outcome =>
+            consumer.close()
+            outcome match {
+              case util.Success(_) =>
+                Future {
+                  val end = System.currentTimeMillis
+                  LoadTestSummary.record(name, bucket.name, payloadSize, System.nanoTime - startNanos, OK)
+                  statsEngine.logResponse(session, name, start, end, OK, None, None)
+                  OK
+                }
+              case util.Failure(error) =>
+                Future {
+                  val end = System.currentTimeMillis
+                  LoadTestSummary.record(name, bucket.name, payloadSize, System.nanoTime - startNanos, KO)
+                  statsEngine.logResponse(session, name, start, end, KO, None, Some(error.getMessage))
+                  next ! session
+                  KO
+                }
+            }
           }
         case Failure(error) =>
           Future.failed(ValidationException(error))
@@ -218,21 +358,18 @@ class DecryptAction(
 }
 
 object Scenario {
-  val encryptOnly: ScenarioBuilder =
-    scenario("Encrypt Only")
-      .feed(KMSClient.encryptActionFeeder)
-      .exec(KMSClient.encryptData)
-
-  val decryptOnly: ScenarioBuilder =
-    scenario("Decrypt Only")
-      .feed(KMSClient.decryptActionFeeder)
-      .exec(KMSClient.decryptData)
-
-  val encryptAndDecrypt: ScenarioBuilder =
-    scenario("Encrypt and Decrypt")
-      .feed(KMSClient.encryptActionFeeder)
-      .exec(KMSClient.encryptData)
-      .exec(KMSClient.decryptData)
+  def encryptOnly(bucket: PayloadBucket): ChainBuilder =
+    feed(KMSClient.encryptActionFeeder(bucket))
+      .exec(KMSClient.encryptData(bucket))
+
+  def decryptOnly(bucket: PayloadBucket): ChainBuilder =
+    feed(KMSClient.decryptActionFeeder(bucket))
+      .exec(KMSClient.decryptData(bucket))
+
+  def encryptAndDecrypt(bucket: PayloadBucket): ChainBuilder =
+    feed(KMSClient.encryptActionFeeder(bucket))
+      .exec(KMSClient.encryptData(bucket))
+      .exec(KMSClient.decryptData(bucket))
       .exec(session => {
         session("result")
           .validate[(ByteBuffer, ByteBuffer)]
@@ -247,6 +384,7 @@ object Scenario {
 
 trait KMSSimulation extends Simulation {
   val numberOfUsers: Int = Integer.getInteger("numberOfUsers", 350)
+  val usersPerSecond: Double = System.getProperty("usersPerSecond", "50").toDouble
   val simulationDuration: FiniteDuration = Integer.getInteger("simulationDuration", 60).seconds
   val expectedSLA: Seq[Assertion] = Seq(
     validate.successfulRequests.percent.gte(98),
@@ -257,4 +395,47 @@ trait KMSSimulation extends Simulation {
     validate.responseTime.percentile4.lte(350),
     validate.responseTime.max.lte(1000)
   )
+
+  /**
+   * Runs each payload bucket in turn, for simulationDuration, using the configured workload. Open workloads (ramp and
+   * open) start new users at a given rate, whilst closed workloads loop a fixed number of users. Once the simulation
+   * ends, a throughput and latency summary is appended to the load test summary file.
+   */
+  def simulate(name: String, chain: PayloadBucket => ChainBuilder): Unit = {
+    val buckets = LoadTestConfig.payloadBuckets
+    val populations: Seq[PopulationBuilder] =
+      LoadTestConfig.workload match {
+        case "closed" =>
+          Seq(
+            scenario(s"$name (closed)")
+              .exec(buckets.map(bucket => during(simulationDuration)(chain(bucket))): _*)
+              .inject(atOnceUsers(numberOfUsers))
+          )
+        case workload =>
+          val arrivals =
+            workload match {
+              case "ramp" =>
+                rampUsers(numberOfUsers) during simulationDuration
+              case "open" =>
+                constantUsersPerSec(usersPerSecond) during simulationDuration
+              case other =>
+                throw new IllegalArgumentException(s"Unknown workload: $other")
+            }
+
+          buckets.zipWithIndex.map {
+            case (bucket, 0) =>
+              scenario(s"$name (${bucket.name})").exec(chain(bucket)).inject(arrivals)
+            case (bucket, index) =>
+              scenario(s"$name (${bucket.name})")
+                .exec(chain(bucket))
+                .inject(nothingFor(simulationDuration * index), arrivals)
+          }
+      }
+
+    setUp(populations: _*).assertions(expectedSLA: _*)
+
+    after {
+      LoadTestSummary.write(getClass.getSimpleName, LoadTestConfig.configuration)
+    }
+  }
 }
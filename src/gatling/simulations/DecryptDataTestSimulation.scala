@@ -13,10 +13,6 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-import io.gatling.core.Predef._
-
 class DecryptDataTestSimulation extends KMSSimulation {
-  setUp(
-    Scenario.decryptOnly.inject(rampUsers(numberOfUsers) during (simulationDuration))
-  ).assertions(expectedSLA: _*)
+  simulate("Decrypt Only", Scenario.decryptOnly)
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardOpenOption}
+import java.time.Instant
+import java.util.Locale
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.atomic.{AtomicLong, LongAdder}
+
+import scala.collection.JavaConverters._
+
+import io.gatling.commons.stats.{OK, Status}
+import uk.acmelabs.datasecurity.aws.metrics.LatencyHistogram
+
+/**
+ * Throughput and latency of each load test request, summarised as machine readable JSON lines. Each line holds a
+ * request's configuration (simulation, KMS backend, workload, cores and payload bucket), messages/s, messages/s per
+ * core, MB/s and p50/p99/p999 latencies (in milliseconds). Lines are appended to the file named by the summaryFile
+ * system property, so a sweep over several configurations accumulates a single summary.
+ */
+object LoadTestSummary {
+
+  private final class RequestStatistics(val bucket: String) {
+    val latencies = new LatencyHistogram
+    val failures = new LongAdder
+    val bytes = new LongAdder
+    val firstCompletion = new AtomicLong(Long.MaxValue)
+    val lastCompletion = new AtomicLong(Long.MinValue)
+  }
+
+  private val requests = new ConcurrentHashMap[String, RequestStatistics]()
+
+  val summaryFile: Path = Paths.get(System.getProperty("summaryFile", "build/reports/gatling/summary.jsonl"))
+
+  def record(name: String, bucket: String, payloadSize: Long, latencyNanos: Long, status: Status): Unit = {
+    val statistics = requests.computeIfAbsent(name, _ => new RequestStatistics(bucket))
+    val now = System.nanoTime
+
+    statistics.firstCompletion.accumulateAndGet(now - latencyNanos, (first, next) => Math.min(first, next))
+    statistics.lastCompletion.accumulateAndGet(now, (last, next) => Math.max(last, next))
+    if (status == OK) {
+      statistics.latencies.record(latencyNanos)
+      statistics.bytes.add(payloadSize)
+    } else {
+      statistics.failures.increment()
+    }
+  }
+
+  def write(simulation: String, configuration: Map[String, Any]): Unit = {
+    val cores = configuration.get("cores").collect { case count: Int => count }.getOrElse(1)
+    val lines =
+      requests.asScala.toSeq.sortBy(_._1).map {
+        case (name, statistics) =>
+          val elapsedSeconds =
+            Math.max(1L, statistics.lastCompletion.get - statistics.firstCompletion.get).toDouble /
+              TimeUnit.SECONDS.toNanos(1)
+          val messages = statistics.latencies.getCount
+          val fields =
+            Seq(
+              "timestamp" -> Instant.now.toString,
+              "simulation" -> simulation,
+              "request" -> name,
+              "payloadBucket" -> statistics.bucket
+            ) ++ configuration.toSeq.sortBy(_._1) ++ Seq(
+              "messages" -> messages,
+              "failures" -> statistics.failures.sum,
+              "messagesPerSecond" -> messages / elapsedSeconds,
+              "messagesPerSecondPerCore" -> messages / elapsedSeconds / cores,
+              "megabytesPerSecond" -> statistics.bytes.sum / elapsedSeconds / (1024 * 1024),
+              "p50Millis" -> millis(statistics.latencies.getValueAtPercentile(0.5)),
+              "p99Millis" -> millis(statistics.latencies.getValueAtPercentile(0.99)),
+              "p999Millis" -> millis(statistics.latencies.getValueAtPercentile(0.999)),
+              "maxMillis" -> millis(statistics.latencies.getMax)
+            )
+
+          fields.map { case (key, value) => s"${json(key)}:${json(value)}" }.mkString("{", ",", "}")
+      }
+
+    Option(summaryFile.getParent).foreach(Files.createDirectories(_))
+    Files.write(
+      summaryFile,
+      lines.asJava,
+      StandardCharsets.UTF_8,
+      StandardOpenOption.CREATE,
+      StandardOpenOption.APPEND
+    )
+    requests.clear()
+  }
+
+  private def millis(nanos: Long): Double = nanos.toDouble / TimeUnit.MILLISECONDS.toNanos(1)
+
+  private def json(value: Any): String =
+    value match {
+      case number: Double =>
+        String.format(Locale.ROOT, "%.3f", Double.box(number))
+      case number @ (_: Int | _: Long) =>
+        number.toString
+      case other =>
+        other.toString.flatMap {
+          case '"' => "\\\""
+          case '\\' => "\\\\"
+          case char if char < ' ' => "\\u%04x".format(char.toInt)
+          case char => char.toString
+        }.mkString("\"", "", "\"")
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.iam.model.Role;
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.client.KeyManagementService;
+import uk.acmelabs.datasecurity.aws.client.LocalKMS;
+import uk.acmelabs.datasecurity.consumer.ConsumerConfig;
+import uk.acmelabs.datasecurity.consumer.DataConsumer;
+import uk.acmelabs.datasecurity.producer.DataProducer;
+import uk.acmelabs.datasecurity.producer.ProducerConfig;
+
+/**
+ * End to end DataProducer.send to DataConsumer.receive, against an in-process LocalKMS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnvelopeBenchmark {
+
+  private static final Role ROLE =
+    Role.builder().roleName("benchmark").arn("arn:aws:iam::000000000000:role/benchmark").build();
+
+  @Param({"64", "1024", "65536", "1048576"})
+  private int payloadSize;
+
+  @Param({"1", "1000"})
+  private long dataKeyMaxMessages;
+
+  @Param({"pooled", "inline"})
+  private String executionStrategy;
+
+  private KeyManagementService kms;
+  private DataProducer producer;
+  private CMK cmk;
+  private ByteBuffer data;
+
+  @Setup
+  public void setup() {
+    kms = new LocalKMS(ForkJoinPool.commonPool());
+
+    final ExecutionStrategy strategy =
+      "inline".equals(executionStrategy)
+        ? ExecutionStrategy.inline(65536, ForkJoinPool.commonPool())
+        : ExecutionStrategy.pooled(ForkJoinPool.commonPool());
+
+    final DataConsumer consumer =
+      new DataConsumer(
+        plaintext -> CompletableFuture.completedFuture(null),
+        new ConsumerConfig() {
+          @Override
+          public Role decryptRole() {
+            return ROLE;
+          }
+
+          @Override
+          public KeyManagementService keyManagementService(final Role role) {
+            return kms;
+          }
+
+          @Override
+          public ExecutionStrategy executionStrategy() {
+            return strategy;
+          }
+        }
+      );
+    final ProducerConfig producerConfig =
+      new ProducerConfig() {
+        @Override
+        public Role encryptRole() {
+          return ROLE;
+        }
+
+        @Override
+        public KeyManagementService keyManagementService(final Role role) {
+          return kms;
+        }
+
+        @Override
+        public ExecutionStrategy executionStrategy() {
+          return strategy;
+        }
+
+        @Override
+        public long dataKeyMaxMessages() {
+          return dataKeyMaxMessages;
+        }
+      };
+
+    producer = new DataProducer(consumer::receive, producerConfig);
+    cmk = kms.createCMK().join();
+
+    final byte[] bytes = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    data = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  @Benchmark
+  public Void sendAndReceive() {
+    return producer.send(data, cmk).join();
+  }
+}
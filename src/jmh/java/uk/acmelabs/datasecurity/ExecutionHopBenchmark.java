@@ -0,0 +1,93 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Latency of a chain of continuations, as used between the KMS response and message delivery. Comparing hops=0 with
+ * hops=N gives the latency added per thread hop for each execution strategy. The virtual strategy requires JDK 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExecutionHopBenchmark {
+
+  @Param({"inline", "pooled", "cryptoPool", "virtual"})
+  private String strategy;
+
+  @Param({"0", "1", "3"})
+  private int hops;
+
+  private ExecutorService executorService;
+  private Executor executor;
+
+  @Setup
+  public void setup() {
+    switch (strategy) {
+      case "inline":
+        executor = ExecutionStrategy.inline(Long.MAX_VALUE, Runnable::run).cryptoExecutor(0);
+        break;
+      case "pooled":
+        executorService = Executors.newWorkStealingPool();
+        executor = ExecutionStrategy.pooled(executorService).cryptoExecutor(0);
+        break;
+      case "cryptoPool":
+        executorService = ExecutionStrategy.cryptoPool(Runtime.getRuntime().availableProcessors());
+        executor = ExecutionStrategy.inline(0, executorService).cryptoExecutor(1);
+        break;
+      case "virtual":
+        executor = ExecutionStrategy.virtualThreads().cryptoExecutor(1);
+        break;
+      default:
+        throw new IllegalArgumentException(strategy);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+
+  @Benchmark
+  public Long continuations() {
+    final CompletableFuture<Long> source = new CompletableFuture<>();
+    CompletableFuture<Long> result = source;
+
+    for (int hop = 0; hop < hops; hop++) {
+      result = result.thenApplyAsync(value -> value + 1, executor);
+    }
+    source.complete(0L);
+
+    return result.join();
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.api;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the binary message codec with the existing toMap() and toString() representations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageCodecBenchmark {
+
+  @Param({"64", "1024", "65536"})
+  private int payloadSize;
+
+  private Message message;
+  private ByteBuffer encoded;
+  private ByteBuffer target;
+
+  @Setup
+  public void setup() {
+    final byte[] data = new byte[payloadSize];
+    final byte[] dataKey = new byte[184];
+    final byte[] iv = new byte[12];
+    ThreadLocalRandom.current().nextBytes(data);
+    ThreadLocalRandom.current().nextBytes(dataKey);
+    ThreadLocalRandom.current().nextBytes(iv);
+
+    message =
+      new Message(
+        data,
+        dataKey,
+        iv,
+        new CMK(
+          "0d3c5f6e-4b7a-4f2e-9c1d-8a6b5e4f3d2c",
+          "arn:aws:kms:eu-west-1:000000000000:key/0d3c5f6e-4b7a-4f2e-9c1d-8a6b5e4f3d2c"
+        )
+      );
+    encoded = MessageCodec.encode(message);
+    target = ByteBuffer.allocateDirect(MessageCodec.encodedLength(message));
+  }
+
+  @Benchmark
+  public Map<String, Object> toMap() {
+    return message.toMap();
+  }
+
+  @Benchmark
+  public String toText() {
+    return message.toString();
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    return MessageCodec.encode(message);
+  }
+
+  @Benchmark
+  public ByteBuffer encodeInto() {
+    target.clear();
+    MessageCodec.encode(message, target);
+    return target;
+  }
+
+  @Benchmark
+  public ByteBuffer[] encodeGather() {
+    return MessageCodec.encodeGather(message);
+  }
+
+  @Benchmark
+  public Message decode() {
+    return MessageCodec.decode(encoded.duplicate());
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.awssdk.core.SdkBytes;
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * Compares encryption using a pooled cipher context with creating and keying a new Cipher on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CipherContextBenchmark {
+
+  @Param({"64", "1024", "65536"})
+  private int payloadSize;
+
+  private PlaintextDataKey plaintextKey;
+  private ByteBuffer data;
+
+  @Setup
+  public void setup() {
+    final byte[] key = new byte[32];
+    final byte[] bytes = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(key);
+    ThreadLocalRandom.current().nextBytes(bytes);
+
+    plaintextKey = new PlaintextDataKey(SdkBytes.fromByteArray(key));
+    data = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  @TearDown
+  public void tearDown() throws DestroyFailedException {
+    plaintextKey.destroy();
+  }
+
+  @Benchmark
+  public byte[] perCallCipher() throws GeneralSecurityException {
+    final byte[] iv = iv();
+    final byte[] plaintextData = new byte[data.capacity()];
+    final Cipher cipher = Cipher.getInstance(plaintextKey.getAlgorithm());
+    final SecretKeySpec keySpec = new SecretKeySpec(plaintextKey.getEncoded(), "AES");
+
+    cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(plaintextKey.tagLength(), iv));
+    for (int index = 0; index < plaintextData.length; index++) {
+      plaintextData[index] = data.get(index);
+    }
+
+    return cipher.doFinal(plaintextData);
+  }
+
+  @Benchmark
+  public byte[] cipherContext() throws GeneralSecurityException {
+    return new DataKeyEncryptor(plaintextKey, iv()).encrypt(data);
+  }
+
+  private static byte[] iv() {
+    final byte[] iv = new byte[12];
+    ThreadLocalRandom.current().nextBytes(iv);
+    return iv;
+  }
+}
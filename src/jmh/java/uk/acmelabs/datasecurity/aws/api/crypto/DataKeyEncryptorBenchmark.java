@@ -0,0 +1,103 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import javax.security.auth.DestroyFailedException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.awssdk.core.SdkBytes;
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * DataKeyEncryptor encryption and decryption across payload sizes, via both the byte array and ByteBuffer paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataKeyEncryptorBenchmark {
+
+  @Param({"64", "1024", "65536", "1048576", "67108864"})
+  private int payloadSize;
+
+  private PlaintextDataKey plaintextKey;
+  private ByteBuffer data;
+  private ByteBuffer directData;
+  private ByteBuffer encryptedBuffer;
+  private ByteBuffer plaintextBuffer;
+  private byte[] iv;
+  private byte[] encryptedData;
+
+  @Setup
+  public void setup() throws GeneralSecurityException {
+    final byte[] key = new byte[32];
+    final byte[] bytes = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(key);
+    ThreadLocalRandom.current().nextBytes(bytes);
+
+    plaintextKey = new PlaintextDataKey(SdkBytes.fromByteArray(key));
+    data = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    directData = ByteBuffer.allocateDirect(payloadSize).put(bytes).flip();
+    encryptedBuffer = ByteBuffer.allocateDirect(DataKeyEncryptor.encryptedLength(payloadSize));
+    plaintextBuffer = ByteBuffer.allocateDirect(payloadSize);
+
+    final DataKeyEncryptor encryptor = new DataKeyEncryptor(plaintextKey);
+    iv = encryptor.getIV();
+    encryptedData = encryptor.encrypt(data);
+  }
+
+  @TearDown
+  public void tearDown() throws DestroyFailedException {
+    plaintextKey.destroy();
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return new DataKeyEncryptor(plaintextKey).encrypt(data);
+  }
+
+  @Benchmark
+  public ByteBuffer encryptBuffer() throws GeneralSecurityException {
+    encryptedBuffer.clear();
+    new DataKeyEncryptor(plaintextKey).encrypt(directData.duplicate(), encryptedBuffer);
+    return encryptedBuffer;
+  }
+
+  @Benchmark
+  public ByteBuffer decrypt() throws GeneralSecurityException {
+    final ByteBuffer plaintextData = ByteBuffer.allocate(payloadSize);
+    new DataKeyEncryptor(plaintextKey, iv).decrypt(encryptedData, plaintextData);
+    return plaintextData;
+  }
+
+  @Benchmark
+  public ByteBuffer decryptBuffer() throws GeneralSecurityException {
+    plaintextBuffer.clear();
+    new DataKeyEncryptor(plaintextKey, iv).decrypt(ByteBuffer.wrap(encryptedData), plaintextBuffer);
+    return plaintextBuffer;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import software.amazon.awssdk.core.SdkBytes;
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * IV generation throughput, at several thread counts, compared with instantiating a strong SecureRandom per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public abstract class IvGeneratorBenchmark {
+
+  private final IvGenerator random = new RandomIvGenerator();
+  private final IvGenerator counter = new CounterIvGenerator();
+  private PlaintextDataKey plaintextKey;
+
+  @Setup
+  public void setup() {
+    final byte[] key = new byte[32];
+    ThreadLocalRandom.current().nextBytes(key);
+    plaintextKey = new PlaintextDataKey(SdkBytes.fromByteArray(key));
+  }
+
+  @Benchmark
+  public byte[] strongRandom() throws NoSuchAlgorithmException {
+    final byte[] iv = new byte[12];
+    SecureRandom.getInstanceStrong().nextBytes(iv);
+    return iv;
+  }
+
+  @Benchmark
+  public byte[] randomIv() {
+    return random.generate(plaintextKey);
+  }
+
+  @Benchmark
+  public byte[] counterIv() {
+    return counter.generate(plaintextKey);
+  }
+
+  @Threads(1)
+  public static class OneThread extends IvGeneratorBenchmark {
+  }
+
+  @Threads(4)
+  public static class FourThreads extends IvGeneratorBenchmark {
+  }
+
+  @Threads(16)
+  public static class SixteenThreads extends IvGeneratorBenchmark {
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import javax.security.auth.DestroyFailedException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.awssdk.core.SdkBytes;
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * ParallelSegmentCipher encryption and decryption across payload and segment sizes, compared with single operation
+ * (DataKeyEncryptor) encryption. Run with -XX:ActiveProcessorCount (or taskset) to measure scaling with core count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelSegmentCipherBenchmark {
+
+  @Param({"1048576", "16777216", "67108864"})
+  private int payloadSize;
+
+  @Param({"65536", "262144", "1048576"})
+  private int segmentSize;
+
+  private PlaintextDataKey plaintextKey;
+  private ParallelSegmentCipher cipher;
+  private ByteBuffer data;
+  private ByteBuffer encryptedData;
+  private ByteBuffer encryptedBuffer;
+  private ByteBuffer plaintextBuffer;
+
+  @Setup
+  public void setup() throws GeneralSecurityException {
+    final byte[] key = new byte[32];
+    final byte[] bytes = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(key);
+    ThreadLocalRandom.current().nextBytes(bytes);
+
+    plaintextKey = new PlaintextDataKey(SdkBytes.fromByteArray(key));
+    cipher =
+      new ParallelSegmentCipher(
+        plaintextKey,
+        SegmentCipher.generateNoncePrefix(),
+        segmentSize,
+        ForkJoinPool.commonPool()
+      );
+    data = ByteBuffer.allocateDirect(payloadSize).put(bytes).flip();
+    encryptedBuffer = ByteBuffer.allocateDirect(ParallelSegmentCipher.encryptedLength(payloadSize, segmentSize));
+    plaintextBuffer = ByteBuffer.allocateDirect(payloadSize);
+
+    encryptedData = ByteBuffer.allocateDirect(encryptedBuffer.capacity());
+    cipher.encrypt(data.duplicate(), encryptedData);
+    encryptedData.flip();
+  }
+
+  @TearDown
+  public void tearDown() throws DestroyFailedException {
+    plaintextKey.destroy();
+  }
+
+  @Benchmark
+  public ByteBuffer encrypt() throws GeneralSecurityException {
+    encryptedBuffer.clear();
+    cipher.encrypt(data.duplicate(), encryptedBuffer);
+    return encryptedBuffer;
+  }
+
+  @Benchmark
+  public ByteBuffer decrypt() throws GeneralSecurityException {
+    plaintextBuffer.clear();
+    cipher.decrypt(encryptedData.duplicate(), plaintextBuffer);
+    return plaintextBuffer;
+  }
+
+  @Benchmark
+  public ByteBuffer encryptUnsegmented() throws GeneralSecurityException {
+    encryptedBuffer.clear();
+    new DataKeyEncryptor(plaintextKey).encrypt(data.duplicate(), encryptedBuffer);
+    return encryptedBuffer;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.model;
+
+import javax.security.auth.DestroyFailedException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.core.SdkBytes;
+
+/**
+ * PlaintextDataKey lifecycle costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlaintextDataKeyBenchmark {
+
+  private SdkBytes key;
+  private PlaintextDataKey plaintextKey;
+
+  @Setup
+  public void setup() {
+    final byte[] bytes = new byte[32];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    key = SdkBytes.fromByteArray(bytes);
+    plaintextKey = new PlaintextDataKey(key);
+  }
+
+  @Benchmark
+  public PlaintextDataKey createAndDestroy() throws DestroyFailedException {
+    final PlaintextDataKey result = new PlaintextDataKey(key);
+    result.destroy();
+    return result;
+  }
+
+  @Benchmark
+  public byte[] getEncoded() {
+    return plaintextKey.getEncoded();
+  }
+
+  /**
+   * Destruction of a freshly created key (created outside of the measured region).
+   */
+  @State(Scope.Thread)
+  public static class FreshKey {
+    PlaintextDataKey plaintextKey;
+
+    @Setup(Level.Invocation)
+    public void setup(final PlaintextDataKeyBenchmark benchmark) {
+      plaintextKey = new PlaintextDataKey(benchmark.key);
+    }
+  }
+
+  @Benchmark
+  public PlaintextDataKey destroy(final FreshKey fresh) throws DestroyFailedException {
+    fresh.plaintextKey.destroy();
+    return fresh.plaintextKey;
+  }
+}
@@ -23,6 +23,7 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProviderChain;
@@ -36,9 +37,17 @@ import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
 import software.amazon.awssdk.metrics.MetricPublisher;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.iam.model.Role;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
 import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import uk.acmelabs.datasecurity.aws.client.AdmissionControlledKMS;
+import uk.acmelabs.datasecurity.aws.client.CircuitBreaker;
+import uk.acmelabs.datasecurity.aws.client.ClientRegistry;
+import uk.acmelabs.datasecurity.aws.client.GradientLimiter;
+import uk.acmelabs.datasecurity.aws.client.HedgePolicy;
+import uk.acmelabs.datasecurity.aws.client.KMS;
+import uk.acmelabs.datasecurity.aws.client.KeyManagementService;
 import uk.acmelabs.datasecurity.aws.metrics.LoggingMetricPublisher;
 
 public class AwsConfig {
@@ -76,6 +85,89 @@ public class AwsConfig {
     return AwsCredentialsProviderChain.of(stsProvider, defaultProvider);
   }
 
+  /**
+   * Key management service used by producers and consumers. By default, this is AWS KMS, placed behind admission
+   * control when a concurrency limiter is configured - override this (e.g. with a LocalKMS) to run without AWS.
+   *
+   * @param role AWS role that is to be assumed
+   * @return key management service
+   */
+  public KeyManagementService keyManagementService(final Role role) {
+    final KeyManagementService kms = new KMS(role, this);
+
+    return
+      kmsConcurrencyLimiter()
+        .<KeyManagementService>map(limiter -> new AdmissionControlledKMS(kms, limiter, kmsDeadline()))
+        .orElse(kms);
+  }
+
+  /**
+   * Adaptive limit on the number of concurrent KMS calls made by each producer or consumer. Calls beyond the limit are
+   * rejected with an AdmissionRejectedException. By default, there is no limit (i.e. admission control is disabled).
+   * A new limiter should be returned on each call.
+   *
+   * @return concurrency limiter, if admission control is enabled
+   */
+  public Optional<GradientLimiter> kmsConcurrencyLimiter() {
+    return Optional.empty();
+  }
+
+  /**
+   * Circuit breaker for each shared KMS client (i.e. each role, endpoint and region).
+   *
+   * @return circuit breaker
+   */
+  public CircuitBreaker kmsCircuitBreaker() {
+    return new CircuitBreaker(10, Duration.of(5, ChronoUnit.SECONDS));
+  }
+
+  /**
+   * Hedging policy for KMS GenerateDataKey and Decrypt requests. By default, requests are not hedged.
+   *
+   * @return hedging policy, if hedging is enabled
+   */
+  public Optional<HedgePolicy> kmsHedgePolicy() {
+    return Optional.empty();
+  }
+
+  /**
+   * Deadline for KMS calls that are not given an explicit deadline.
+   *
+   * @return KMS call deadline
+   */
+  public Duration kmsDeadline() {
+    return Duration.of(1, ChronoUnit.SECONDS);
+  }
+
+  /**
+   * AWS KMS asynchronous client, authenticated as the given role. Clients are built by the ClientRegistry, which shares
+   * them between all KMS instances with the same role, endpoint and region.
+   *
+   * @param role AWS role that is to be assumed
+   * @param connectionPoolMetrics publisher recording the client's connection pool statistics
+   * @return KMS client
+   */
+  public KmsAsyncClient kmsClient(final Role role, final MetricPublisher connectionPoolMetrics) {
+    return
+      KmsAsyncClient
+        .builder()
+        .credentialsProvider(awsCredentialsProvider(role))
+        .endpointOverride(kmsEndpoint())
+        .region(awsRegion())
+        .asyncConfiguration(awsAsyncConfig())
+        .overrideConfiguration(awsClientConfig().toBuilder().addMetricPublisher(connectionPoolMetrics).build())
+        .build();
+  }
+
+  /**
+   * Registry used to share KMS clients.
+   *
+   * @return client registry
+   */
+  public ClientRegistry clientRegistry() {
+    return ClientRegistry.shared();
+  }
+
   /**
    * AWS asynchronous configuration.
    *
@@ -141,26 +233,47 @@ public class AwsConfig {
     return Region.of(Optional.of(System.getProperty("AWS_REGION")).orElse("eu-west-1"));
   }
 
-  private final Executor awsExec = Executors.newWorkStealingPool();
-
   /**
-   * Defines the executor that AWS synchronous clients will use.
+   * Defines the executor that AWS synchronous clients will use. By default, a single (lazily created) pool is shared by
+   * all configurations.
    *
    * @return executor to be used by AWS asynchronous clients
    */
   public Executor awsExecutor() {
-    return awsExec;
+    return SharedExecutors.AWS;
   }
 
-  private final Executor defaultExec = Executors.newWorkStealingPool();
-
   /**
-   * Defines the executor that AWS service pipelines will use.
+   * Defines the executor that AWS service pipelines will use. By default, a single (lazily created) pool is shared by
+   * all configurations.
    *
    * @return executor to be used by AWS service pipelines
    */
   public Executor defaultExecutor() {
-    return defaultExec;
+    return SharedExecutors.DEFAULT;
+  }
+
+  /**
+   * Decides which threads run each producer and consumer pipeline stage. By default, every stage is run as a separate
+   * task on the default executor. Use ExecutionStrategy.inline (or dedicatedCryptoPool) to avoid thread hops for small
+   * payloads, or ExecutionStrategy.virtualThreads (with the blocking producer and consumer methods) on JDK 21 or later.
+   *
+   * @return execution strategy
+   */
+  public ExecutionStrategy executionStrategy() {
+    return ExecutionStrategy.pooled(defaultExecutor());
+  }
+
+  /**
+   * Fork-join pool that the segments of segmented payloads are encrypted and decrypted on. By default, the default
+   * executor (when this is a fork-join pool) or the common pool.
+   *
+   * @return segment pool
+   */
+  public ForkJoinPool segmentPool() {
+    final Executor executor = defaultExecutor();
+
+    return executor instanceof ForkJoinPool ? (ForkJoinPool) executor : ForkJoinPool.commonPool();
   }
 
   /**
@@ -184,7 +297,9 @@ public class AwsConfig {
   }
 
   /**
-   * Metric publisher for AWS asynchronous clients. By default, implemented as a logging publisher.
+   * Metric publisher for AWS asynchronous clients. By default, implemented as a logging publisher, which logs every
+   * API call. Under load, return a (single, shared) AggregatingMetricPublisher instead - this aggregates metrics into
+   * per API and per CMK latency histograms that are published via JMX.
    *
    * @return metric publisher
    */
@@ -192,6 +307,12 @@ public class AwsConfig {
     return LoggingMetricPublisher.create();
   }
 
+  // Work stealing pools use daemon threads, so need no explicit shutdown
+  private static final class SharedExecutors {
+    private static final Executor AWS = Executors.newWorkStealingPool();
+    private static final Executor DEFAULT = Executors.newWorkStealingPool();
+  }
+
   private URI getEndpoint(String envVar, String service) {
     final String defaultUri = String.format("https://%s.%s.amazonaws.com", service, awsRegion());
     final String uri = System.getProperty(envVar);
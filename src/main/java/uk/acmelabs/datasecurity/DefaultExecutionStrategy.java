@@ -0,0 +1,84 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+final class DefaultExecutionStrategy implements ExecutionStrategy {
+
+  // AwsConfig.executionStrategy is called by every KMS, producer and consumer, so the executors that strategies create
+  // are shared process wide. Their threads are daemon threads, so need no explicit shutdown
+  private static final ConcurrentMap<Integer, Executor> CRYPTO_POOLS = new ConcurrentHashMap<>();
+  private static Executor virtualThreadPerTaskExecutor;
+
+  private final Executor continuationExecutor;
+  private final long maxInlineBytes;
+  private final Executor cryptoExecutor;
+  private final Executor blockingExecutor;
+
+  DefaultExecutionStrategy(
+    final Executor continuationExecutor,
+    final long maxInlineBytes,
+    final Executor cryptoExecutor,
+    final Executor blockingExecutor
+  ) {
+    this.continuationExecutor = continuationExecutor;
+    this.maxInlineBytes = maxInlineBytes;
+    this.cryptoExecutor = cryptoExecutor;
+    this.blockingExecutor = blockingExecutor;
+  }
+
+  @Override
+  public Executor continuationExecutor() {
+    return continuationExecutor;
+  }
+
+  @Override
+  public Executor cryptoExecutor(final long payloadBytes) {
+    return payloadBytes <= maxInlineBytes ? continuationExecutor : cryptoExecutor;
+  }
+
+  @Override
+  public Executor blockingExecutor() {
+    return blockingExecutor;
+  }
+
+  static Executor sharedCryptoPool(final int threads) {
+    return CRYPTO_POOLS.computeIfAbsent(threads, ExecutionStrategy::cryptoPool);
+  }
+
+  static synchronized Executor sharedVirtualThreadPerTaskExecutor() {
+    if (virtualThreadPerTaskExecutor == null) {
+      virtualThreadPerTaskExecutor = newVirtualThreadPerTaskExecutor();
+    }
+    return virtualThreadPerTaskExecutor;
+  }
+
+  // Looked up reflectively, as we compile against Java 11
+  static Executor newVirtualThreadPerTaskExecutor() {
+    try {
+      return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException exn) {
+      throw new ConfigurationException("Virtual threads require JDK 21 or later");
+    } catch (InvocationTargetException exn) {
+      throw new ConfigurationException(exn.getCause().toString());
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which threads run each stage of the producer and consumer pipelines. Every stage that is run on a different
+ * executor from the one that completed the preceding stage costs a thread hop (a queue hand-off and, often, a thread
+ * wake up).
+ */
+public interface ExecutionStrategy {
+
+  /**
+   * Executor for light weight continuations, such as mapping KMS responses to data keys.
+   *
+   * @return continuation executor
+   */
+  Executor continuationExecutor();
+
+  /**
+   * Executor for encrypting or decrypting (and delivering or processing) a payload.
+   *
+   * @param payloadBytes payload size in bytes
+   * @return crypto executor
+   */
+  Executor cryptoExecutor(long payloadBytes);
+
+  /**
+   * Executor for work that performs blocking IO, such as reading stream headers or mapping files.
+   *
+   * @return blocking executor
+   */
+  Executor blockingExecutor();
+
+  /**
+   * Runs every stage as a separate task on the given executor (i.e. a thread hop per stage).
+   *
+   * @param executor executor for all stages
+   * @return execution strategy
+   */
+  static ExecutionStrategy pooled(final Executor executor) {
+    return new DefaultExecutionStrategy(executor, Long.MAX_VALUE, executor, executor);
+  }
+
+  /**
+   * Runs continuations, and crypto for payloads of at most maxInlineBytes, on the thread that completed the preceding
+   * stage (e.g. the AWS SDK completion thread, or the caller's thread when a data key is cached). Larger payloads, and
+   * blocking IO, are run on the given executor.
+   *
+   * @param maxInlineBytes largest payload that is encrypted or decrypted inline
+   * @param executor executor for large payloads and blocking IO
+   * @return execution strategy
+   */
+  static ExecutionStrategy inline(final long maxInlineBytes, final Executor executor) {
+    return new DefaultExecutionStrategy(Runnable::run, maxInlineBytes, executor, executor);
+  }
+
+  /**
+   * As inline, but large payloads are encrypted or decrypted on a dedicated, bounded, crypto pool. Blocking IO is run
+   * on the given executor. Crypto pools are created once per process (for each number of threads), and shared by
+   * every strategy.
+   *
+   * @param maxInlineBytes largest payload that is encrypted or decrypted inline
+   * @param cryptoThreads number of crypto pool threads
+   * @param executor executor for blocking IO
+   * @return execution strategy
+   */
+  static ExecutionStrategy dedicatedCryptoPool(
+    final long maxInlineBytes,
+    final int cryptoThreads,
+    final Executor executor
+  ) {
+    return
+      new DefaultExecutionStrategy(
+        Runnable::run,
+        maxInlineBytes,
+        DefaultExecutionStrategy.sharedCryptoPool(cryptoThreads),
+        executor
+      );
+  }
+
+  /**
+   * Runs crypto and blocking IO on a new virtual thread per task, with continuations run inline. Virtual threads are
+   * cheap to block, so this strategy suits callers using the blocking producer and consumer methods (e.g.
+   * DataProducer.sendBlocking). Requires JDK 21 or later. A single virtual thread executor is shared by every strategy.
+   *
+   * @return execution strategy
+   * @throws ConfigurationException if virtual threads are not supported by the running JDK
+   */
+  static ExecutionStrategy virtualThreads() {
+    final Executor executor = DefaultExecutionStrategy.sharedVirtualThreadPerTaskExecutor();
+
+    return new DefaultExecutionStrategy(Runnable::run, 0, executor, executor);
+  }
+
+  /**
+   * Fixed size pool of daemon threads. Each call creates a new pool, which the caller is responsible for shutting down.
+   *
+   * @param threads number of threads
+   * @return crypto pool
+   */
+  static ExecutorService cryptoPool(final int threads) {
+    final AtomicInteger count = new AtomicInteger();
+    final ThreadFactory threadFactory = task -> {
+      final Thread thread = new Thread(task, "data-security-crypto-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+
+    return Executors.newFixedThreadPool(threads, threadFactory);
+  }
+}
@@ -16,6 +16,7 @@
 package uk.acmelabs.datasecurity.api;
 
 import static java.util.Map.entry;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import software.amazon.awssdk.services.kms.model.KeyMetadata;
@@ -24,15 +25,18 @@ public class CMK {
 
   private final String id;
   private final String arn;
+  private final byte[] encodedId;
+  private final byte[] encodedArn;
 
   public CMK(final KeyMetadata key) {
-    this.id = key.keyId();
-    this.arn = key.arn();
+    this(key.keyId(), key.arn());
   }
 
   public CMK(final String id, final String arn) {
     this.id = id;
     this.arn = arn;
+    this.encodedId = id.getBytes(StandardCharsets.UTF_8);
+    this.encodedArn = arn == null ? new byte[0] : arn.getBytes(StandardCharsets.UTF_8);
   }
 
   public String getId() {
@@ -43,6 +47,15 @@ public class CMK {
     return arn;
   }
 
+  // UTF-8 encodings are computed once, as they are written with every serialized message
+  byte[] encodedId() {
+    return encodedId;
+  }
+
+  byte[] encodedArn() {
+    return encodedArn;
+  }
+
   public String toString() {
     return String.format("CMK(id=%s, arn=%s)", id, arn);
   }
@@ -0,0 +1,37 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.api;
+
+final class Hex {
+
+  private static final String HEX_CHARACTERS = "0123456789ABCDEF";
+
+  private Hex() {
+  }
+
+  static String toHexString(final byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    final StringBuilder hex = new StringBuilder(2 * bytes.length);
+    for (final byte b : bytes) {
+      hex
+        .append(HEX_CHARACTERS.charAt((b & 0xF0) >> 4))
+        .append(HEX_CHARACTERS.charAt(b & 0x0F));
+    }
+    return hex.toString();
+  }
+}
@@ -16,69 +16,166 @@
 package uk.acmelabs.datasecurity.api;
 
 import static java.util.Map.entry;
+import static uk.acmelabs.datasecurity.api.Hex.toHexString;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 public class Message {
 
-  private final byte[] data;
-  private final byte[] dataKey;
-  private final byte[] iv;
+  private final ByteBuffer data;
+  private final ByteBuffer dataKey;
+  private final ByteBuffer iv;
   private final CMK cmk;
+  private final byte compressionCodec;
+  private final int uncompressedLength;
+  private final int segmentSize;
 
   public Message(final byte[] data, final byte[] dataKey, final byte[] iv, final CMK cmk) {
-    this.data = data;
-    this.dataKey = dataKey;
-    this.iv = iv;
+    this(ByteBuffer.wrap(data), ByteBuffer.wrap(dataKey), ByteBuffer.wrap(iv), cmk);
+  }
+
+  /**
+   * Message whose fields are views over the remaining bytes of the given buffers. The buffers are not copied.
+   */
+  public Message(final ByteBuffer data, final ByteBuffer dataKey, final ByteBuffer iv, final CMK cmk) {
+    this(data, dataKey, iv, cmk, (byte) 0, 0);
+  }
+
+  /**
+   * Message whose plaintext was compressed before it was encrypted.
+   *
+   * @param compressionCodec id of the codec that compressed the plaintext (0 if the plaintext is not compressed)
+   * @param uncompressedLength plaintext length before compression
+   */
+  public Message(
+    final ByteBuffer data,
+    final ByteBuffer dataKey,
+    final ByteBuffer iv,
+    final CMK cmk,
+    final byte compressionCodec,
+    final int uncompressedLength
+  ) {
+    this(data, dataKey, iv, cmk, compressionCodec, uncompressedLength, 0);
+  }
+
+  /**
+   * Message whose (possibly compressed) plaintext was encrypted as independently authenticated segments (see
+   * ParallelSegmentCipher). The iv holds the segment nonce prefix.
+   *
+   * @param segmentSize plaintext segment size (0 if the plaintext is not segmented)
+   */
+  public Message(
+    final ByteBuffer data,
+    final ByteBuffer dataKey,
+    final ByteBuffer iv,
+    final CMK cmk,
+    final byte compressionCodec,
+    final int uncompressedLength,
+    final int segmentSize
+  ) {
+    this.data = data.slice();
+    this.dataKey = dataKey.slice();
+    this.iv = iv.slice();
     this.cmk = cmk;
+    this.compressionCodec = compressionCodec;
+    this.uncompressedLength = uncompressedLength;
+    this.segmentSize = segmentSize;
   }
 
   public byte[] getData() {
-    return this.data;
+    return toByteArray(this.data);
   }
 
   public byte[] getDataKey() {
-    return this.dataKey;
+    return toByteArray(this.dataKey);
   }
 
   public byte[] getIV() {
-    return iv;
+    return toByteArray(iv);
+  }
+
+  public ByteBuffer getDataBuffer() {
+    return this.data.asReadOnlyBuffer();
+  }
+
+  public ByteBuffer getDataKeyBuffer() {
+    return this.dataKey.asReadOnlyBuffer();
+  }
+
+  public ByteBuffer getIVBuffer() {
+    return iv.asReadOnlyBuffer();
   }
 
   public CMK getCMK() {
     return this.cmk;
   }
 
+  /**
+   * Id of the codec (see CompressionCodecs) that the plaintext was compressed with before encryption.
+   *
+   * @return codec id, or 0 if the plaintext is not compressed
+   */
+  public byte getCompressionCodec() {
+    return compressionCodec;
+  }
+
+  public boolean isCompressed() {
+    return compressionCodec != 0;
+  }
+
+  /**
+   * @return plaintext length before compression (0 if the plaintext is not compressed)
+   */
+  public int getUncompressedLength() {
+    return uncompressedLength;
+  }
+
+  /**
+   * @return plaintext segment size (0 if the plaintext is not segmented)
+   */
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  public boolean isSegmented() {
+    return segmentSize != 0;
+  }
+
   public String toString() {
     return
       String.format(
-        "Message(data=0x%s, dataKey=0x%s, iv=0x%s, cmk=%s)",
-        toHexString(data),
-        toHexString(dataKey),
-        toHexString(iv),
-        cmk
+        "Message(data=0x%s, dataKey=0x%s, iv=0x%s, cmk=%s, compressionCodec=%d, uncompressedLength=%d, "
+          + "segmentSize=%d)",
+        toHexString(getData()),
+        toHexString(getDataKey()),
+        toHexString(getIV()),
+        cmk,
+        compressionCodec,
+        uncompressedLength,
+        segmentSize
       );
   }
 
   public Map<String, Object> toMap() {
     return Map.ofEntries(
-      entry("data", toHexString(data)),
-      entry("dataKey", toHexString(dataKey)),
-      entry("iv", toHexString(iv)),
-      entry("cmk", cmk.toMap())
+      entry("data", toHexString(getData())),
+      entry("dataKey", toHexString(getDataKey())),
+      entry("iv", toHexString(getIV())),
+      entry("cmk", cmk.toMap()),
+      entry("compressionCodec", compressionCodec),
+      entry("uncompressedLength", uncompressedLength),
+      entry("segmentSize", segmentSize)
     );
   }
 
-  private String toHexString(final byte[] bytes) {
-    if (bytes == null) {
-      return null;
-    }
-    final StringBuilder hex = new StringBuilder(2 * bytes.length);
-    for (final byte b : bytes) {
-      final String hexCharacters = "0123456789ABCDEF";
-      hex
-        .append(hexCharacters.charAt((b & 0xF0) >> 4))
-        .append(hexCharacters.charAt(b & 0x0F));
+  // Arrays wrapped by the byte[] constructor are returned as is, whilst buffer views are copied
+  private static byte[] toByteArray(final ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.remaining()) {
+      return buffer.array();
     }
-    return hex.toString();
+
+    final byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
   }
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.api;
+
+import static java.util.Map.entry;
+import static uk.acmelabs.datasecurity.api.Hex.toHexString;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Batch of messages encrypted under a single data key. The encrypted data key is stored once for the whole batch, and
+ * each message carries its own IV.
+ */
+public class MessageBatch {
+
+  private final List<byte[]> data;
+  private final List<byte[]> ivs;
+  private final byte[] dataKey;
+  private final CMK cmk;
+
+  public MessageBatch(final List<byte[]> data, final List<byte[]> ivs, final byte[] dataKey, final CMK cmk) {
+    assert data.size() == ivs.size();
+
+    this.data = Collections.unmodifiableList(new ArrayList<>(data));
+    this.ivs = Collections.unmodifiableList(new ArrayList<>(ivs));
+    this.dataKey = dataKey;
+    this.cmk = cmk;
+  }
+
+  public List<byte[]> getData() {
+    return data;
+  }
+
+  public List<byte[]> getIVs() {
+    return ivs;
+  }
+
+  public byte[] getDataKey() {
+    return dataKey;
+  }
+
+  public CMK getCMK() {
+    return cmk;
+  }
+
+  public int size() {
+    return data.size();
+  }
+
+  public List<Message> getMessages() {
+    final List<Message> messages = new ArrayList<>(data.size());
+    for (int index = 0; index < data.size(); index++) {
+      messages.add(new Message(data.get(index), dataKey, ivs.get(index), cmk));
+    }
+    return messages;
+  }
+
+  public String toString() {
+    return
+      String.format(
+        "MessageBatch(size=%d, dataKey=0x%s, cmk=%s)",
+        data.size(),
+        toHexString(dataKey),
+        cmk
+      );
+  }
+
+  public Map<String, Object> toMap() {
+    return Map.ofEntries(
+      entry("data", data.stream().map(Hex::toHexString).collect(Collectors.toList())),
+      entry("dataKey", toHexString(dataKey)),
+      entry("ivs", ivs.stream().map(Hex::toHexString).collect(Collectors.toList())),
+      entry("cmk", cmk.toMap())
+    );
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.api;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact, versioned, binary encoding of messages.
+ *
+ * Wire format (big-endian):
+ * <pre>
+ *   u8   version
+ *   u8   flags (low 4 bits: compression codec id, or 0 if uncompressed; bit 4: segmented; high 3 bits: reserved,
+ *        must be zero)
+ *   u8   IV length
+ *   u16  encrypted data key length
+ *   u16  CMK id length
+ *   u16  CMK ARN length
+ *   u32  ciphertext length
+ *   u32  uncompressed plaintext length (only present if compressed)
+ *   u32  plaintext segment size (only present if segmented)
+ *   u8*  IV
+ *   u8*  encrypted data key
+ *   u8*  CMK id (UTF-8)
+ *   u8*  CMK ARN (UTF-8)
+ *   u8*  ciphertext
+ * </pre>
+ *
+ * Decoded messages are views over the input buffer, so the input buffer must not be modified whilst they are in use.
+ */
+public final class MessageCodec {
+
+  public static final byte VERSION = 1;
+  public static final int HEADER_LENGTH = 13;
+  public static final int COMPRESSION_HEADER_LENGTH = 4;
+  public static final int SEGMENTATION_HEADER_LENGTH = 4;
+
+  private static final int COMPRESSION_CODEC_MASK = 0x0F;
+  private static final int SEGMENTED_FLAG = 0x10;
+
+  private MessageCodec() {
+  }
+
+  public static int encodedLength(final Message message) {
+    return metadataLength(message) + message.getDataBuffer().remaining();
+  }
+
+  /**
+   * Encodes a message into a single contiguous heap buffer.
+   *
+   * @param message message to encode
+   * @return flipped buffer holding the encoded message
+   */
+  public static ByteBuffer encode(final Message message) {
+    final ByteBuffer target = ByteBuffer.allocate(encodedLength(message));
+    encode(message, target);
+    return target.flip();
+  }
+
+  /**
+   * Encodes a message into the target buffer, starting at its current position.
+   *
+   * @param message message to encode
+   * @param target buffer with at least encodedLength(message) bytes remaining
+   */
+  public static void encode(final Message message, final ByteBuffer target) {
+    putMetadata(message, target);
+    target.put(message.getDataBuffer());
+  }
+
+  /**
+   * Encodes a message as a gather array (suitable for GatheringByteChannel.write). The ciphertext is not copied.
+   *
+   * @param message message to encode
+   * @return buffers that, written in order, hold the encoded message
+   */
+  public static ByteBuffer[] encodeGather(final Message message) {
+    final ByteBuffer metadata = ByteBuffer.allocate(metadataLength(message));
+    putMetadata(message, metadata);
+    return new ByteBuffer[] { metadata.flip(), message.getDataBuffer() };
+  }
+
+  /**
+   * Decodes a message from the source buffer, starting at its current position. On return, the source position is
+   * advanced past the decoded message. The IV, encrypted data key and ciphertext of the returned message are views
+   * over the source buffer.
+   *
+   * @param source buffer holding an encoded message
+   * @return decoded message
+   * @throws MessageFormatException if the buffer does not hold a valid encoded message
+   */
+  public static Message decode(final ByteBuffer source) {
+    try {
+      final int start = source.position();
+      final byte version = source.get();
+      if (version != VERSION) {
+        throw new MessageFormatException(String.format("Unsupported message version %d", version));
+      }
+      final byte flags = source.get();
+      if ((flags & ~(COMPRESSION_CODEC_MASK | SEGMENTED_FLAG)) != 0) {
+        throw new MessageFormatException(String.format("Unsupported message flags 0x%02X", flags));
+      }
+      final byte compressionCodec = (byte) (flags & COMPRESSION_CODEC_MASK);
+      final boolean segmented = (flags & SEGMENTED_FLAG) != 0;
+      final int ivLength = source.get() & 0xFF;
+      final int dataKeyLength = source.getShort() & 0xFFFF;
+      final int idLength = source.getShort() & 0xFFFF;
+      final int arnLength = source.getShort() & 0xFFFF;
+      final int dataLength = source.getInt();
+      final int uncompressedLength = compressionCodec != 0 ? source.getInt() : 0;
+      final int segmentSize = segmented ? source.getInt() : 0;
+      final long length =
+        HEADER_LENGTH
+          + (compressionCodec != 0 ? COMPRESSION_HEADER_LENGTH : 0)
+          + (segmented ? SEGMENTATION_HEADER_LENGTH : 0)
+          + (long) ivLength
+          + dataKeyLength
+          + idLength
+          + arnLength
+          + dataLength;
+
+      if (dataLength < 0 || uncompressedLength < 0 || length > source.limit() - start) {
+        throw new MessageFormatException("Truncated message");
+      }
+      if (segmented && segmentSize <= 0) {
+        throw new MessageFormatException(String.format("Invalid segment size %d", segmentSize));
+      }
+
+      final ByteBuffer iv = slice(source, ivLength);
+      final ByteBuffer dataKey = slice(source, dataKeyLength);
+      final String id = string(source, idLength);
+      final String arn = string(source, arnLength);
+      final ByteBuffer data = slice(source, dataLength);
+
+      return new Message(data, dataKey, iv, new CMK(id, arn), compressionCodec, uncompressedLength, segmentSize);
+    } catch (BufferUnderflowException exn) {
+      throw new MessageFormatException("Truncated message header");
+    }
+  }
+
+  private static int metadataLength(final Message message) {
+    final CMK cmk = message.getCMK();
+    return
+      HEADER_LENGTH
+        + (message.isCompressed() ? COMPRESSION_HEADER_LENGTH : 0)
+        + (message.isSegmented() ? SEGMENTATION_HEADER_LENGTH : 0)
+        + message.getIVBuffer().remaining()
+        + message.getDataKeyBuffer().remaining()
+        + cmk.encodedId().length
+        + cmk.encodedArn().length;
+  }
+
+  private static void putMetadata(final Message message, final ByteBuffer target) {
+    final ByteBuffer iv = message.getIVBuffer();
+    final ByteBuffer dataKey = message.getDataKeyBuffer();
+    final byte[] id = message.getCMK().encodedId();
+    final byte[] arn = message.getCMK().encodedArn();
+
+    if (iv.remaining() > 0xFF || dataKey.remaining() > 0xFFFF || id.length > 0xFFFF || arn.length > 0xFFFF) {
+      throw new MessageFormatException("Message field exceeds its maximum encoded length");
+    }
+    if ((message.getCompressionCodec() & ~COMPRESSION_CODEC_MASK) != 0) {
+      throw new MessageFormatException(
+        String.format("Compression codec %d exceeds its maximum encoded value", message.getCompressionCodec())
+      );
+    }
+
+    target
+      .put(VERSION)
+      .put((byte) (message.getCompressionCodec() | (message.isSegmented() ? SEGMENTED_FLAG : 0)))
+      .put((byte) iv.remaining())
+      .putShort((short) dataKey.remaining())
+      .putShort((short) id.length)
+      .putShort((short) arn.length)
+      .putInt(message.getDataBuffer().remaining());
+    if (message.isCompressed()) {
+      target.putInt(message.getUncompressedLength());
+    }
+    if (message.isSegmented()) {
+      target.putInt(message.getSegmentSize());
+    }
+    target
+      .put(iv)
+      .put(dataKey)
+      .put(id)
+      .put(arn);
+  }
+
+  private static ByteBuffer slice(final ByteBuffer source, final int length) {
+    final ByteBuffer slice = source.slice();
+    slice.limit(length);
+    source.position(source.position() + length);
+    return slice;
+  }
+
+  private static String string(final ByteBuffer source, final int length) {
+    final ByteBuffer bytes = slice(source, length);
+    if (bytes.hasArray()) {
+      return new String(bytes.array(), bytes.arrayOffset(), length, StandardCharsets.UTF_8);
+    }
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+}
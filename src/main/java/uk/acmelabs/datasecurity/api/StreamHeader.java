@@ -0,0 +1,131 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.api;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import uk.acmelabs.datasecurity.aws.api.crypto.SegmentCipher;
+import uk.acmelabs.datasecurity.io.ChannelIO;
+
+/**
+ * Header of a segmented (streamed) encrypted payload. The serialized header is authenticated with every segment.
+ *
+ * Wire format (big-endian):
+ * <pre>
+ *   u8       version
+ *   u32      plaintext segment size
+ *   u8[7]    segment nonce prefix
+ *   u16, u8* encrypted data key
+ *   u16, u8* CMK id (UTF-8)
+ *   u16, u8* CMK ARN (UTF-8)
+ * </pre>
+ */
+public class StreamHeader {
+
+  public static final byte VERSION = 1;
+  public static final int MAX_SEGMENT_SIZE = 1 << 24;
+
+  private static final int NONCE_PREFIX_LENGTH = SegmentCipher.NONCE_PREFIX_LENGTH;
+
+  private final int segmentSize;
+  private final byte[] noncePrefix;
+  private final byte[] dataKey;
+  private final CMK cmk;
+
+  public StreamHeader(final int segmentSize, final byte[] noncePrefix, final byte[] dataKey, final CMK cmk) {
+    assert segmentSize > 0 && segmentSize <= MAX_SEGMENT_SIZE;
+    assert noncePrefix.length == NONCE_PREFIX_LENGTH;
+
+    this.segmentSize = segmentSize;
+    this.noncePrefix = noncePrefix;
+    this.dataKey = dataKey;
+    this.cmk = cmk;
+  }
+
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  public byte[] getNoncePrefix() {
+    return noncePrefix;
+  }
+
+  public byte[] getDataKey() {
+    return dataKey;
+  }
+
+  public CMK getCMK() {
+    return cmk;
+  }
+
+  public byte[] toByteArray() {
+    final byte[] id = cmk.getId().getBytes(StandardCharsets.UTF_8);
+    final byte[] arn = cmk.getArn().getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer buffer =
+      ByteBuffer.allocate(1 + 4 + NONCE_PREFIX_LENGTH + 6 + dataKey.length + id.length + arn.length);
+
+    buffer.put(VERSION).putInt(segmentSize).put(noncePrefix);
+    putField(buffer, dataKey);
+    putField(buffer, id);
+    putField(buffer, arn);
+
+    return buffer.array();
+  }
+
+  public void write(final WritableByteChannel sink) throws IOException {
+    ChannelIO.writeFully(sink, ByteBuffer.wrap(toByteArray()));
+  }
+
+  public static StreamHeader read(final ReadableByteChannel source) throws IOException {
+    final ByteBuffer fixed = ChannelIO.readExactly(source, 1 + 4 + NONCE_PREFIX_LENGTH);
+    final byte version = fixed.get();
+    if (version != VERSION) {
+      throw new StreamCorruptedException(String.format("Unsupported stream version %d", version));
+    }
+    final int segmentSize = fixed.getInt();
+    if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+      throw new StreamCorruptedException(String.format("Invalid stream segment size %d", segmentSize));
+    }
+    final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+    fixed.get(noncePrefix);
+
+    final byte[] dataKey = readField(source);
+    final String id = new String(readField(source), StandardCharsets.UTF_8);
+    final String arn = new String(readField(source), StandardCharsets.UTF_8);
+
+    return new StreamHeader(segmentSize, noncePrefix, dataKey, new CMK(id, arn));
+  }
+
+  public String toString() {
+    return String.format("StreamHeader(segmentSize=%d, cmk=%s)", segmentSize, cmk);
+  }
+
+  private static void putField(final ByteBuffer buffer, final byte[] field) {
+    assert field.length <= 0xFFFF;
+
+    buffer.putShort((short) field.length).put(field);
+  }
+
+  private static byte[] readField(final ReadableByteChannel source) throws IOException {
+    final int length = ChannelIO.readExactly(source, 2).getShort() & 0xFFFF;
+    return ChannelIO.readExactly(source, length).array();
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+/**
+ * Prepared cipher state for a single plaintext data key.
+ *
+ * The key material is copied out of the data key once, and initialised Cipher instances are pooled for reuse. A
+ * context may be shared between threads: each caller acquires a cipher for its own exclusive use and then releases it
+ * back to the pool. The pool is LIFO, so a small number of ciphers (typically one per concurrently calling thread)
+ * are kept hot.
+ *
+ * Destroying the context zeroes the key material and rekeys all pooled ciphers with an all zero key, so that no
+ * expanded key schedule is retained. Ciphers that are in use whilst the context is destroyed are rekeyed when they
+ * are released.
+ */
+public final class CipherContext {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CipherContext.class);
+
+  private final String algorithm;
+  private final int tagLength;
+  private final RawKey key;
+  private final Deque<Cipher> pool;
+  private final ReadWriteLock lock;
+  private final AtomicLong invocations;
+  private volatile boolean destroyed;
+
+  public CipherContext(final PlaintextDataKey plaintextKey) {
+    this.algorithm = plaintextKey.getAlgorithm();
+    this.tagLength = plaintextKey.tagLength();
+    this.key = new RawKey(plaintextKey.getEncoded());
+    this.pool = new ConcurrentLinkedDeque<>();
+    this.lock = new ReentrantReadWriteLock();
+    this.invocations = new AtomicLong();
+  }
+
+  /**
+   * Allocates the next value of this key's invocation counter. Values are never repeated.
+   *
+   * @return unique (for this key) invocation count
+   */
+  public long nextInvocation() {
+    final long invocation = invocations.getAndIncrement();
+    if (invocation < 0) {
+      throw new IllegalStateException("Plaintext data key invocation counter is exhausted");
+    }
+    return invocation;
+  }
+
+  /**
+   * Acquires a cipher, initialised with this context's key and the given IV, for exclusive use by the caller.
+   *
+   * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+   * @param iv GCM initialisation vector
+   * @return initialised cipher that should be returned (via release) once it has been used
+   */
+  public Cipher acquire(
+    final int mode,
+    final byte[] iv
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException {
+    Cipher cipher = pool.pollFirst();
+    if (cipher == null) {
+      cipher = Cipher.getInstance(algorithm);
+    }
+
+    lock.readLock().lock();
+    try {
+      if (destroyed) {
+        throw new InvalidKeyException("Plaintext data key has been destroyed");
+      }
+      cipher.init(mode, key, new GCMParameterSpec(tagLength, iv));
+      return cipher;
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | RuntimeException exn) {
+      release(cipher);
+      throw exn;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public void release(final Cipher cipher) {
+    pool.offerFirst(cipher);
+
+    // Should we have raced with destroy, then ensure the cipher is rekeyed
+    if (destroyed && pool.remove(cipher)) {
+      wipe(cipher);
+    }
+  }
+
+  public void destroy() {
+    lock.writeLock().lock();
+    try {
+      destroyed = true;
+      key.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    Cipher cipher = pool.pollFirst();
+    while (cipher != null) {
+      wipe(cipher);
+      cipher = pool.pollFirst();
+    }
+  }
+
+  public boolean isDestroyed() {
+    return destroyed;
+  }
+
+  private void wipe(final Cipher cipher) {
+    try {
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(tagLength, new byte[12]));
+    } catch (GeneralSecurityException | RuntimeException exn) {
+      LOG.warn("CipherContext.wipe", keyValue("error", exn.toString()));
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static final class RawKey implements SecretKey {
+
+    private final byte[] key;
+
+    RawKey(final byte[] key) {
+      this.key = key;
+    }
+
+    void clear() {
+      Arrays.fill(key, (byte) 0);
+    }
+
+    @Override
+    public String getAlgorithm() {
+      return "AES";
+    }
+
+    @Override
+    public String getFormat() {
+      return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+      return key.clone();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * Deterministic 96-bit IVs (NIST SP 800-38D, section 8.2.1): a random 32-bit fixed field, chosen once per generator,
+ * followed by a 64-bit invocation counter that is maintained per data key. IVs are never reused for a given data key,
+ * however many generators or threads use it.
+ */
+public final class CounterIvGenerator implements IvGenerator {
+
+  public static final int IV_LENGTH = 12;
+
+  private final int fixedField;
+
+  public CounterIvGenerator() {
+    this(new SecureRandom().nextInt());
+  }
+
+  public CounterIvGenerator(final int fixedField) {
+    this.fixedField = fixedField;
+  }
+
+  @Override
+  public int ivLength() {
+    return IV_LENGTH;
+  }
+
+  @Override
+  public byte[] generate(final PlaintextDataKey plaintextKey) {
+    final byte[] iv = new byte[IV_LENGTH];
+    ByteBuffer.wrap(iv).putInt(fixedField).putLong(plaintextKey.cipherContext().nextInvocation());
+    return iv;
+  }
+}
@@ -20,28 +20,26 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Arrays;
 
 import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+import uk.acmelabs.datasecurity.jfr.CipherInitEvent;
+import uk.acmelabs.datasecurity.jfr.CryptoEvent;
 
 public final class DataKeyEncryptor {
 
   private final PlaintextDataKey plaintextKey;
   private final byte[] iv;
 
-  public DataKeyEncryptor(final PlaintextDataKey plaintextKey) throws NoSuchAlgorithmException {
-    final SecureRandom random = SecureRandom.getInstanceStrong();
+  public DataKeyEncryptor(final PlaintextDataKey plaintextKey) {
+    this(plaintextKey, new RandomIvGenerator(plaintextKey.ivLength()));
+  }
 
-    this.plaintextKey = plaintextKey;
-    this.iv = new byte[plaintextKey.ivLength()];
-    random.nextBytes(iv);
+  public DataKeyEncryptor(final PlaintextDataKey plaintextKey, final IvGenerator ivGenerator) {
+    this(plaintextKey, ivGenerator.generate(plaintextKey));
   }
 
   public DataKeyEncryptor(final PlaintextDataKey plaintextKey, final byte[] iv) {
@@ -65,21 +63,57 @@ public final class DataKeyEncryptor {
   {
     assert data.isReadOnly();
 
-    final byte[] plaintextData = new byte[data.capacity()];
-    final Cipher cipher = Cipher.getInstance(plaintextKey.getAlgorithm());
-    final SecretKeySpec keySpec = new SecretKeySpec(plaintextKey.getEncoded(), "AES");
-    final GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(plaintextKey.tagLength(), iv);
+    final ByteBuffer plaintextData = data.duplicate().clear();
+    final byte[] encryptedData = new byte[encryptedLength(plaintextData.remaining())];
 
-    cipher.init(Cipher.ENCRYPT_MODE, keySpec, gcmParameterSpec);
+    try {
+      encrypt(plaintextData, ByteBuffer.wrap(encryptedData));
+
+      return encryptedData;
+    } catch (ShortBufferException exn) {
+      // Output is sized using encryptedLength, so this should never happen
+      throw new IllegalStateException(exn);
+    }
+  }
+
+  /**
+   * Encrypts the remaining plaintext bytes directly into the output buffer. Both buffers have their positions advanced.
+   * No intermediate copies of the plaintext are made.
+   *
+   * @param plaintextData plaintext to encrypt
+   * @param encryptedData buffer with at least encryptedLength(plaintextData.remaining()) bytes remaining
+   * @return number of bytes written to encryptedData
+   */
+  public int encrypt(
+    final ByteBuffer plaintextData,
+    final ByteBuffer encryptedData
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException
+  {
+    assert !encryptedData.isReadOnly();
+
+    final CipherContext context = plaintextKey.cipherContext();
+    final CipherInitEvent initEvent = new CipherInitEvent();
+    initEvent.begin();
+    final Cipher cipher = context.acquire(Cipher.ENCRYPT_MODE, iv);
+    initEvent.complete("encrypt");
 
     try {
-      for (int index = 0; index < plaintextData.length; index++) {
-        plaintextData[index] = data.get(index);
-      }
+      final CryptoEvent cryptoEvent = new CryptoEvent();
+      cryptoEvent.begin();
+      final int plaintextLength = plaintextData.remaining();
+      final int result = cipher.doFinal(plaintextData, encryptedData);
+      cryptoEvent.complete("encrypt", plaintextLength);
 
-      return cipher.doFinal(plaintextData);
+      return result;
     } finally {
-      Arrays.fill(plaintextData, (byte) 0);
+      context.release(cipher);
     }
   }
 
@@ -94,14 +128,67 @@ public final class DataKeyEncryptor {
     IllegalBlockSizeException,
     BadPaddingException,
     ShortBufferException
+  {
+    decrypt(ByteBuffer.wrap(encryptedData), plaintextData);
+  }
+
+  /**
+   * Decrypts the remaining ciphertext bytes directly into the plaintext buffer. Both buffers have their positions
+   * advanced.
+   *
+   * @param encryptedData ciphertext (including the authentication tag) to decrypt
+   * @param plaintextData buffer with at least plaintextLength(encryptedData.remaining()) bytes remaining
+   * @return number of bytes written to plaintextData
+   */
+  public int decrypt(
+    final ByteBuffer encryptedData,
+    final ByteBuffer plaintextData
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException
   {
     assert !plaintextData.isReadOnly();
 
-    final Cipher cipher = Cipher.getInstance(plaintextKey.getAlgorithm());
-    final SecretKeySpec keySpec = new SecretKeySpec(plaintextKey.getEncoded(), "AES");
-    final GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(plaintextKey.tagLength(), iv);
+    final CipherContext context = plaintextKey.cipherContext();
+    final CipherInitEvent initEvent = new CipherInitEvent();
+    initEvent.begin();
+    final Cipher cipher = context.acquire(Cipher.DECRYPT_MODE, iv);
+    initEvent.complete("decrypt");
+
+    try {
+      final CryptoEvent cryptoEvent = new CryptoEvent();
+      cryptoEvent.begin();
+      final int result = cipher.doFinal(encryptedData, plaintextData);
+      cryptoEvent.complete("decrypt", result);
+
+      return result;
+    } finally {
+      context.release(cipher);
+    }
+  }
+
+  /**
+   * Size of the ciphertext produced by encrypting a plaintext.
+   *
+   * @param plaintextLength plaintext length in bytes
+   * @return ciphertext length in bytes (including the authentication tag)
+   */
+  public static int encryptedLength(final int plaintextLength) {
+    return Math.addExact(plaintextLength, PlaintextDataKey.TAG_LENGTH / 8);
+  }
 
-    cipher.init(Cipher.DECRYPT_MODE, keySpec, gcmParameterSpec);
-    cipher.doFinal(ByteBuffer.wrap(encryptedData), plaintextData);
+  /**
+   * Size of the plaintext produced by decrypting a ciphertext.
+   *
+   * @param encryptedLength ciphertext length in bytes (including the authentication tag)
+   * @return plaintext length in bytes
+   */
+  public static int plaintextLength(final int encryptedLength) {
+    return Math.max(0, encryptedLength - PlaintextDataKey.TAG_LENGTH / 8);
   }
 }
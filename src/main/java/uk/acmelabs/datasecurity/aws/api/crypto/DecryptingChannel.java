@@ -0,0 +1,130 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+import uk.acmelabs.datasecurity.io.ChannelIO;
+import uk.acmelabs.datasecurity.io.DirectBufferPool;
+
+/**
+ * Channel that decrypts, and authenticates, a stream of encrypted segments as they are read. At most one segment of
+ * plaintext is held in memory at any time, and it is zeroed before the next segment is decrypted.
+ */
+public final class DecryptingChannel implements ReadableByteChannel {
+
+  private final SegmentCipher cipher;
+  private final ReadableByteChannel source;
+  private final Runnable onClose;
+  private final ByteBuffer ciphertext;
+  private final ByteBuffer plaintext;
+  private final ByteBuffer lookahead;
+  private long index;
+  private boolean isFinished;
+  private boolean isOpen;
+
+  public DecryptingChannel(
+    final SegmentCipher cipher,
+    final int segmentSize,
+    final ReadableByteChannel source,
+    final Runnable onClose
+  ) {
+    this.cipher = cipher;
+    this.source = source;
+    this.onClose = onClose;
+    this.ciphertext = ByteBuffer.allocateDirect(StreamEncryptor.ciphertextSegmentSize(cipher, segmentSize));
+    this.plaintext = ByteBuffer.allocateDirect(segmentSize);
+    this.lookahead = ByteBuffer.allocate(1);
+    this.plaintext.limit(0);
+    this.isOpen = true;
+  }
+
+  @Override
+  public synchronized int read(final ByteBuffer dst) throws IOException {
+    if (!isOpen) {
+      throw new ClosedChannelException();
+    }
+    // The final segment of an empty stream is itself empty
+    while (!plaintext.hasRemaining()) {
+      if (isFinished) {
+        return -1;
+      }
+      nextSegment();
+    }
+
+    final int count = Math.min(dst.remaining(), plaintext.remaining());
+    final ByteBuffer chunk = plaintext.slice();
+    chunk.limit(count);
+    dst.put(chunk);
+    plaintext.position(plaintext.position() + count);
+
+    return count;
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return isOpen;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!isOpen) {
+      return;
+    }
+    isOpen = false;
+    zero();
+    try {
+      source.close();
+    } finally {
+      onClose.run();
+    }
+  }
+
+  private void nextSegment() throws IOException {
+    ciphertext.clear();
+    if (lookahead.position() > 0) {
+      ciphertext.put(lookahead.flip());
+      lookahead.clear();
+    }
+    ChannelIO.readFully(source, ciphertext);
+
+    // A full segment is only the last segment if nothing follows it
+    final boolean last = ciphertext.hasRemaining() || ChannelIO.readFully(source, lookahead) < 0;
+    if (index >= SegmentCipher.MAX_SEGMENTS) {
+      throw new IOException("Stream exceeds the maximum number of segments");
+    }
+
+    zero();
+    try {
+      cipher.decrypt(ciphertext.flip(), plaintext, index++, last);
+    } catch (GeneralSecurityException exn) {
+      zero();
+      plaintext.limit(0);
+      throw new IOException("Segment authentication failed", exn);
+    }
+    plaintext.flip();
+    isFinished = last;
+  }
+
+  private void zero() {
+    plaintext.clear();
+    DirectBufferPool.zero(plaintext);
+  }
+}
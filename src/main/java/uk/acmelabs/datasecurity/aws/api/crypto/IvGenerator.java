@@ -0,0 +1,40 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * Generates the GCM initialisation vectors used to encrypt messages. Implementations must be thread safe and must not
+ * block.
+ */
+public interface IvGenerator {
+
+  /**
+   * Length of the generated IVs.
+   *
+   * @return IV length in bytes
+   */
+  int ivLength();
+
+  /**
+   * Generates an IV for a single encryption using the given data key.
+   *
+   * @param plaintextKey data key that the IV will be used with
+   * @return freshly generated IV
+   */
+  byte[] generate(PlaintextDataKey plaintextKey);
+}
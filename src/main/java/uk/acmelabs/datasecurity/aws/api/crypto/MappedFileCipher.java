@@ -0,0 +1,146 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+import uk.acmelabs.datasecurity.io.ChannelIO;
+import uk.acmelabs.datasecurity.io.DirectBufferPool;
+
+/**
+ * Encrypts and decrypts files using the segmented stream format. Input files are memory mapped, a window of segments at
+ * a time, so payloads are never copied onto the heap and may be larger than the available heap.
+ */
+public final class MappedFileCipher {
+
+  // Upper bound on the size of each memory mapped window of the input file
+  private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+  private final SegmentCipher cipher;
+  private final int segmentSize;
+
+  public MappedFileCipher(final SegmentCipher cipher, final int segmentSize) {
+    assert segmentSize > 0;
+
+    this.cipher = cipher;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Encrypts the whole of the source file, writing encrypted segments to the sink channel.
+   *
+   * @param source plaintext file
+   * @param sink channel that encrypted segments are written to
+   * @return number of plaintext bytes encrypted
+   * @throws IOException if reading, writing or encrypting fails
+   */
+  public long encrypt(final FileChannel source, final WritableByteChannel sink) throws IOException {
+    final long size = source.size();
+    final long segments = Math.max(1, (size + segmentSize - 1) / segmentSize);
+    final ByteBuffer ciphertext = ByteBuffer.allocateDirect(StreamEncryptor.ciphertextSegmentSize(cipher, segmentSize));
+
+    if (segments > SegmentCipher.MAX_SEGMENTS) {
+      throw new IOException("File exceeds the maximum number of segments");
+    }
+
+    try {
+      transform(source, 0, size, segmentSize, segments, (plaintext, index, last) -> {
+        ciphertext.clear();
+        cipher.encrypt(plaintext, ciphertext, index, last);
+        ChannelIO.writeFully(sink, ciphertext.flip());
+      });
+    } catch (GeneralSecurityException exn) {
+      throw new IOException("Segment encryption failed", exn);
+    }
+
+    return size;
+  }
+
+  /**
+   * Decrypts the encrypted segments of the source file, starting at the given offset, and writes the plaintext to the
+   * sink channel. Each segment is authenticated before it is written, but truncation is only detected once the last
+   * segment is reached - callers should discard any plaintext written if decryption fails.
+   *
+   * @param source encrypted file
+   * @param offset position of the first encrypted segment (i.e. the length of the stream header)
+   * @param sink channel that plaintext is written to
+   * @return number of plaintext bytes decrypted
+   * @throws IOException if reading, writing or decrypting fails
+   */
+  public long decrypt(final FileChannel source, final long offset, final WritableByteChannel sink) throws IOException {
+    final int ciphertextSegmentSize = StreamEncryptor.ciphertextSegmentSize(cipher, segmentSize);
+    final long size = source.size() - offset;
+    final long segments = Math.max(1, (size + ciphertextSegmentSize - 1) / ciphertextSegmentSize);
+    final ByteBuffer plaintext = ByteBuffer.allocateDirect(segmentSize);
+    final long[] total = new long[1];
+
+    if (size < 0 || segments > SegmentCipher.MAX_SEGMENTS) {
+      throw new StreamCorruptedException("Invalid encrypted file length");
+    }
+
+    try {
+      transform(source, offset, size, ciphertextSegmentSize, segments, (ciphertext, index, last) -> {
+        plaintext.clear();
+        cipher.decrypt(ciphertext, plaintext, index, last);
+        total[0] += plaintext.flip().remaining();
+        ChannelIO.writeFully(sink, plaintext);
+      });
+    } catch (GeneralSecurityException exn) {
+      throw new IOException("Segment authentication failed", exn);
+    } finally {
+      DirectBufferPool.zero(plaintext);
+    }
+
+    return total[0];
+  }
+
+  private static void transform(
+    final FileChannel source,
+    final long offset,
+    final long size,
+    final int inputSegmentSize,
+    final long segments,
+    final SegmentTransform transform
+  ) throws IOException, GeneralSecurityException {
+    final long windowSize = Math.max(1, MAX_WINDOW_SIZE / inputSegmentSize) * inputSegmentSize;
+    long index = 0;
+
+    for (long windowStart = 0; index < segments; windowStart += windowSize) {
+      final MappedByteBuffer window =
+        source.map(FileChannel.MapMode.READ_ONLY, offset + windowStart, Math.min(windowSize, size - windowStart));
+
+      do {
+        final int start = (int) ((index * inputSegmentSize) - windowStart);
+        final int end = (int) Math.min(start + (long) inputSegmentSize, window.capacity());
+
+        window.limit(end).position(start);
+        transform.apply(window, index, index == segments - 1);
+        index++;
+      } while (index < segments && (index * inputSegmentSize) - windowStart < window.capacity());
+    }
+  }
+
+  @FunctionalInterface
+  private interface SegmentTransform {
+    void apply(ByteBuffer input, long index, boolean last) throws IOException, GeneralSecurityException;
+  }
+}
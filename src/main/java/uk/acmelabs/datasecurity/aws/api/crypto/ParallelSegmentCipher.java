@@ -0,0 +1,294 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * Encrypts and decrypts in-memory payloads as individually authenticated segments (see SegmentCipher), with segments
+ * encrypted and decrypted in parallel on a fork-join pool. A single AES-GCM operation runs on one core, whereas
+ * segmented payloads are spread across all of the pool's threads.
+ *
+ * Every segment is authenticated against the segment size and segment count, and the last segment is flagged in its
+ * IV, so segmented payloads can not be truncated, extended or reordered without detection.
+ */
+public final class ParallelSegmentCipher {
+
+  private final PlaintextDataKey plaintextKey;
+  private final byte[] noncePrefix;
+  private final int segmentSize;
+  private final ForkJoinPool pool;
+
+  /**
+   * @param plaintextKey data key
+   * @param noncePrefix per payload nonce prefix (see SegmentCipher.generateNoncePrefix)
+   * @param segmentSize plaintext segment size in bytes
+   * @param pool fork-join pool that segments are encrypted and decrypted on
+   */
+  public ParallelSegmentCipher(
+    final PlaintextDataKey plaintextKey,
+    final byte[] noncePrefix,
+    final int segmentSize,
+    final ForkJoinPool pool
+  ) {
+    assert segmentSize > 0;
+
+    this.plaintextKey = plaintextKey;
+    this.noncePrefix = noncePrefix;
+    this.segmentSize = segmentSize;
+    this.pool = pool;
+  }
+
+  public byte[] getNoncePrefix() {
+    return noncePrefix;
+  }
+
+  /**
+   * Encrypts the remaining plaintext bytes into the ciphertext buffer. Both buffers have their positions advanced.
+   *
+   * @param plaintext plaintext to encrypt
+   * @param ciphertext buffer with at least encryptedLength(plaintext.remaining(), segmentSize) bytes remaining
+   * @return number of bytes written to ciphertext
+   */
+  public int encrypt(
+    final ByteBuffer plaintext,
+    final ByteBuffer ciphertext
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    final int plaintextLength = plaintext.remaining();
+    final int ciphertextLength = encryptedLength(plaintextLength, segmentSize);
+    final long segments = segmentCount(plaintextLength, segmentSize);
+
+    if (ciphertext.remaining() < ciphertextLength) {
+      throw new ShortBufferException("Ciphertext buffer is too small for the segmented payload");
+    }
+
+    final SegmentCipher cipher = new SegmentCipher(plaintextKey, noncePrefix, aad(segments));
+    final long ciphertextSegmentSize = (long) segmentSize + cipher.tagLength();
+    final int plaintextStart = plaintext.position();
+    final int ciphertextStart = ciphertext.position();
+
+    transform(segments, index -> {
+      final ByteBuffer input = segment(plaintext, plaintextStart, plaintextLength, segmentSize, index);
+      final ByteBuffer output =
+        segment(ciphertext, ciphertextStart, ciphertextLength, ciphertextSegmentSize, index);
+
+      cipher.encrypt(input, output, index, index == segments - 1);
+    });
+    plaintext.position(plaintextStart + plaintextLength);
+    ciphertext.position(ciphertextStart + ciphertextLength);
+
+    return ciphertextLength;
+  }
+
+  /**
+   * Decrypts, and authenticates, the remaining ciphertext bytes into the plaintext buffer. Both buffers have their
+   * positions advanced.
+   *
+   * @param ciphertext segmented ciphertext
+   * @param plaintext buffer with at least plaintextLength(ciphertext.remaining(), segmentSize) bytes remaining
+   * @return number of bytes written to plaintext
+   */
+  public int decrypt(
+    final ByteBuffer ciphertext,
+    final ByteBuffer plaintext
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    assert !plaintext.isReadOnly();
+
+    final int ciphertextLength = ciphertext.remaining();
+    final int plaintextLength = plaintextLength(ciphertextLength, segmentSize);
+    final long segments = segmentCount(plaintextLength, segmentSize);
+
+    if (ciphertextLength != encryptedLength(plaintextLength, segmentSize)) {
+      throw new IllegalBlockSizeException("Invalid segmented ciphertext length");
+    }
+    if (plaintext.remaining() < plaintextLength) {
+      throw new ShortBufferException("Plaintext buffer is too small for the segmented payload");
+    }
+
+    final SegmentCipher cipher = new SegmentCipher(plaintextKey, noncePrefix, aad(segments));
+    final long ciphertextSegmentSize = (long) segmentSize + cipher.tagLength();
+    final int ciphertextStart = ciphertext.position();
+    final int plaintextStart = plaintext.position();
+
+    transform(segments, index -> {
+      final ByteBuffer input =
+        segment(ciphertext, ciphertextStart, ciphertextLength, ciphertextSegmentSize, index);
+      final ByteBuffer output = segment(plaintext, plaintextStart, plaintextLength, segmentSize, index);
+
+      cipher.decrypt(input, output, index, index == segments - 1);
+    });
+    ciphertext.position(ciphertextStart + ciphertextLength);
+    plaintext.position(plaintextStart + plaintextLength);
+
+    return plaintextLength;
+  }
+
+  /**
+   * Size of a segmented ciphertext.
+   *
+   * @param plaintextLength plaintext length in bytes
+   * @param segmentSize plaintext segment size in bytes
+   * @return ciphertext length in bytes (including every segment's authentication tag)
+   */
+  public static int encryptedLength(final int plaintextLength, final int segmentSize) {
+    final long segments = segmentCount(plaintextLength, segmentSize);
+
+    return Math.toIntExact(plaintextLength + segments * (PlaintextDataKey.TAG_LENGTH / 8));
+  }
+
+  /**
+   * Size of the plaintext held by a segmented ciphertext.
+   *
+   * @param encryptedLength ciphertext length in bytes
+   * @param segmentSize plaintext segment size in bytes
+   * @return plaintext length in bytes
+   */
+  public static int plaintextLength(final int encryptedLength, final int segmentSize) {
+    final long ciphertextSegmentSize = segmentSize + PlaintextDataKey.TAG_LENGTH / 8;
+    final long segments = Math.max(1, (encryptedLength + ciphertextSegmentSize - 1) / ciphertextSegmentSize);
+
+    return (int) Math.max(0, encryptedLength - segments * (PlaintextDataKey.TAG_LENGTH / 8));
+  }
+
+  private static long segmentCount(final int plaintextLength, final int segmentSize) {
+    return Math.max(1, (plaintextLength + (long) segmentSize - 1) / segmentSize);
+  }
+
+  private byte[] aad(final long segments) {
+    return ByteBuffer.allocate(8).putInt(segmentSize).putInt((int) segments).array();
+  }
+
+  private static ByteBuffer segment(
+    final ByteBuffer buffer,
+    final int start,
+    final int length,
+    final long segmentLength,
+    final long index
+  ) {
+    final long offset = index * segmentLength;
+    final ByteBuffer result = buffer.duplicate();
+
+    result.limit(start + (int) Math.min(length, offset + segmentLength)).position(start + (int) offset);
+    return result;
+  }
+
+  private void transform(
+    final long segments,
+    final SegmentTransform transform
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    try {
+      pool.invoke(new SegmentTask(transform, 0, segments));
+    } catch (SegmentFailure failure) {
+      final GeneralSecurityException exn = failure.getCause();
+
+      if (exn instanceof NoSuchAlgorithmException) {
+        throw (NoSuchAlgorithmException) exn;
+      } else if (exn instanceof NoSuchPaddingException) {
+        throw (NoSuchPaddingException) exn;
+      } else if (exn instanceof InvalidKeyException) {
+        throw (InvalidKeyException) exn;
+      } else if (exn instanceof InvalidAlgorithmParameterException) {
+        throw (InvalidAlgorithmParameterException) exn;
+      } else if (exn instanceof IllegalBlockSizeException) {
+        throw (IllegalBlockSizeException) exn;
+      } else if (exn instanceof BadPaddingException) {
+        throw (BadPaddingException) exn;
+      } else if (exn instanceof ShortBufferException) {
+        throw (ShortBufferException) exn;
+      }
+      throw new IllegalStateException(exn);
+    }
+  }
+
+  @FunctionalInterface
+  private interface SegmentTransform {
+    void apply(long index) throws GeneralSecurityException;
+  }
+
+  // Checked exceptions can not cross fork-join task boundaries, so are carried by an unchecked exception
+  @SuppressWarnings("serial")
+  private static final class SegmentFailure extends RuntimeException {
+    SegmentFailure(final GeneralSecurityException exn) {
+      super(exn);
+    }
+
+    @Override
+    public synchronized GeneralSecurityException getCause() {
+      return (GeneralSecurityException) super.getCause();
+    }
+  }
+
+  // Segment ranges are halved until a single segment remains, so idle pool threads may steal work
+  @SuppressWarnings("serial")
+  private static final class SegmentTask extends RecursiveAction {
+    private final SegmentTransform transform;
+    private final long start;
+    private final long end;
+
+    SegmentTask(final SegmentTransform transform, final long start, final long end) {
+      this.transform = transform;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start == 1) {
+        try {
+          transform.apply(start);
+        } catch (GeneralSecurityException exn) {
+          throw new SegmentFailure(exn);
+        }
+      } else {
+        final long middle = start + (end - start) / 2;
+        invokeAll(new SegmentTask(transform, start, middle), new SegmentTask(transform, middle, end));
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * Random IVs drawn from a per-thread DRBG. Each thread's generator is seeded once, so IV generation neither blocks
+ * waiting for entropy nor contends on a shared generator.
+ *
+ * For a given key, random 96-bit IVs should not be used for more than 2^32 encryptions.
+ */
+public final class RandomIvGenerator implements IvGenerator {
+
+  private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(RandomIvGenerator::drbg);
+
+  private final int ivLength;
+
+  public RandomIvGenerator() {
+    this(12);
+  }
+
+  public RandomIvGenerator(final int ivLength) {
+    if (ivLength < 12) {
+      throw new IllegalArgumentException("Random IVs must be at least 12 bytes long");
+    }
+    this.ivLength = ivLength;
+  }
+
+  @Override
+  public int ivLength() {
+    return ivLength;
+  }
+
+  @Override
+  public byte[] generate(final PlaintextDataKey plaintextKey) {
+    final byte[] iv = new byte[ivLength];
+    RANDOM.get().nextBytes(iv);
+    return iv;
+  }
+
+  private static SecureRandom drbg() {
+    try {
+      return SecureRandom.getInstance("DRBG");
+    } catch (NoSuchAlgorithmException exn) {
+      return new SecureRandom();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
+
+/**
+ * Encrypts and decrypts the individually authenticated segments of a payload under a single data key.
+ *
+ * Segment IVs are derived as noncePrefix || segmentIndex || lastSegmentFlag, so segments can not be reordered, and a
+ * payload can not be truncated without detection. Every segment is also authenticated against the same additional
+ * data (e.g. the payload header).
+ */
+public final class SegmentCipher {
+
+  public static final int NONCE_PREFIX_LENGTH = 7;
+  public static final long MAX_SEGMENTS = 1L << 32;
+
+  private static final int IV_LENGTH = NONCE_PREFIX_LENGTH + 5;
+
+  private final PlaintextDataKey plaintextKey;
+  private final byte[] noncePrefix;
+  private final byte[] aad;
+
+  public SegmentCipher(final PlaintextDataKey plaintextKey, final byte[] noncePrefix, final byte[] aad) {
+    assert noncePrefix.length == NONCE_PREFIX_LENGTH;
+
+    this.plaintextKey = plaintextKey;
+    this.noncePrefix = noncePrefix;
+    this.aad = aad;
+  }
+
+  public static byte[] generateNoncePrefix() {
+    final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+    new SecureRandom().nextBytes(noncePrefix);
+    return noncePrefix;
+  }
+
+  public int tagLength() {
+    return plaintextKey.tagLength() / 8;
+  }
+
+  public int encrypt(
+    final ByteBuffer plaintext,
+    final ByteBuffer ciphertext,
+    final long index,
+    final boolean last
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    return doFinal(Cipher.ENCRYPT_MODE, plaintext, ciphertext, index, last);
+  }
+
+  public int decrypt(
+    final ByteBuffer ciphertext,
+    final ByteBuffer plaintext,
+    final long index,
+    final boolean last
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    assert !plaintext.isReadOnly();
+
+    return doFinal(Cipher.DECRYPT_MODE, ciphertext, plaintext, index, last);
+  }
+
+  private int doFinal(
+    final int mode,
+    final ByteBuffer input,
+    final ByteBuffer output,
+    final long index,
+    final boolean last
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    assert index >= 0 && index < MAX_SEGMENTS;
+
+    final byte[] iv = new byte[IV_LENGTH];
+    System.arraycopy(noncePrefix, 0, iv, 0, NONCE_PREFIX_LENGTH);
+    ByteBuffer.wrap(iv, NONCE_PREFIX_LENGTH, 5).putInt((int) index).put((byte) (last ? 1 : 0));
+
+    final CipherContext context = plaintextKey.cipherContext();
+    final Cipher cipher = context.acquire(mode, iv);
+
+    try {
+      cipher.updateAAD(aad);
+      return cipher.doFinal(input, output);
+    } finally {
+      context.release(cipher);
+    }
+  }
+}
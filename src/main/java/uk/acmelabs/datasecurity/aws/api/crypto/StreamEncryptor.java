@@ -0,0 +1,93 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+import uk.acmelabs.datasecurity.io.ChannelIO;
+import uk.acmelabs.datasecurity.io.DirectBufferPool;
+
+/**
+ * Encrypts a plaintext stream as a sequence of fixed size, individually authenticated, segments. Memory use is bounded
+ * by the segment size and is independent of the payload size.
+ */
+public final class StreamEncryptor {
+
+  private final SegmentCipher cipher;
+  private final int segmentSize;
+
+  public StreamEncryptor(final SegmentCipher cipher, final int segmentSize) {
+    assert segmentSize > 0;
+
+    this.cipher = cipher;
+    this.segmentSize = segmentSize;
+  }
+
+  public static int ciphertextSegmentSize(final SegmentCipher cipher, final int segmentSize) {
+    return segmentSize + cipher.tagLength();
+  }
+
+  /**
+   * Encrypts all data read from the source channel and writes the encrypted segments to the sink channel.
+   *
+   * @param source blocking channel holding the plaintext
+   * @param sink blocking channel that encrypted segments are written to
+   * @return number of plaintext bytes encrypted
+   * @throws IOException if reading, writing or encrypting fails
+   */
+  public long encrypt(final ReadableByteChannel source, final WritableByteChannel sink) throws IOException {
+    final ByteBuffer plaintext = ByteBuffer.allocateDirect(segmentSize);
+    final ByteBuffer ciphertext = ByteBuffer.allocateDirect(ciphertextSegmentSize(cipher, segmentSize));
+    final ByteBuffer lookahead = ByteBuffer.allocate(1);
+    long total = 0;
+
+    try {
+      for (long index = 0; ; index++) {
+        plaintext.clear();
+        if (lookahead.position() > 0) {
+          plaintext.put(lookahead.flip());
+          lookahead.clear();
+        }
+        ChannelIO.readFully(source, plaintext);
+
+        // A full segment is only the last segment if nothing follows it
+        final boolean last = plaintext.hasRemaining() || ChannelIO.readFully(source, lookahead) < 0;
+        if (index >= SegmentCipher.MAX_SEGMENTS) {
+          throw new IOException("Stream exceeds the maximum number of segments");
+        }
+
+        plaintext.flip();
+        total += plaintext.remaining();
+        ciphertext.clear();
+        cipher.encrypt(plaintext, ciphertext, index, last);
+        ChannelIO.writeFully(sink, ciphertext.flip());
+
+        if (last) {
+          return total;
+        }
+      }
+    } catch (GeneralSecurityException exn) {
+      throw new IOException("Segment encryption failed", exn);
+    } finally {
+      DirectBufferPool.zero(plaintext);
+      lookahead.put(0, (byte) 0);
+    }
+  }
+}
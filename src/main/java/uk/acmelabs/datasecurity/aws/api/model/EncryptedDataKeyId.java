@@ -0,0 +1,61 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.model;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Identifies an encrypted data key by the CMK it was encrypted under and its ciphertext blob.
+ */
+public final class EncryptedDataKeyId {
+
+  private final String cmkId;
+  private final byte[] encryptedKey;
+  private final int hash;
+
+  public EncryptedDataKeyId(final String cmkId, final byte[] encryptedKey) {
+    this.cmkId = cmkId;
+    this.encryptedKey = Arrays.copyOf(encryptedKey, encryptedKey.length);
+    this.hash = 31 * Objects.hashCode(cmkId) + Arrays.hashCode(encryptedKey);
+  }
+
+  public String getCMKId() {
+    return cmkId;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof EncryptedDataKeyId)) {
+      return false;
+    }
+    final EncryptedDataKeyId that = (EncryptedDataKeyId) other;
+    return hash == that.hash && Objects.equals(cmkId, that.cmkId) && Arrays.equals(encryptedKey, that.encryptedKey);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("EncryptedDataKeyId(cmkId=%s, length=%d)", cmkId, encryptedKey.length);
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.acmelabs.datasecurity.io.DirectBufferPool;
+
+/**
+ * Off-heap store for plaintext key material. Fixed size slots are carved out of large direct buffer slabs, and are
+ * handed out and reclaimed via a lock-free free list. Slots are zeroed as they are released. Slabs are never returned
+ * to the operating system.
+ *
+ * Keys that do not fit the slot size are given their own direct buffer.
+ *
+ * Slots are normally released when their key is destroyed. Keys that become unreachable without being destroyed are
+ * reported as leaks - their slots are zeroed and released by a cleaner (see Release).
+ */
+final class KeySlabAllocator {
+
+  static final int SLOT_SIZE = 32;
+  static final int SLOTS_PER_SLAB = 2048;
+
+  private static final int EMPTY = -1;
+
+  private final Object growLock;
+  // Free list head: upper 32 bits are a version stamp (guarding against ABA), lower 32 bits the top slot index
+  private final AtomicLong head;
+  private final AtomicLong allocated;
+  private final LongAdder leaks;
+  private volatile ByteBuffer[] slabs;
+  private volatile AtomicIntegerArray[] links;
+
+  KeySlabAllocator() {
+    this.growLock = new Object();
+    this.head = new AtomicLong(pack(0, EMPTY));
+    this.allocated = new AtomicLong();
+    this.leaks = new LongAdder();
+    this.slabs = new ByteBuffer[0];
+    this.links = new AtomicIntegerArray[0];
+  }
+
+  /**
+   * Allocates a zeroed slot large enough to hold a key of the given length.
+   *
+   * @param length key length in bytes
+   * @return slot holding a buffer with the given capacity
+   */
+  Slot allocate(final int length) {
+    if (length != SLOT_SIZE) {
+      return new Slot(EMPTY, ByteBuffer.allocateDirect(length));
+    }
+
+    int index = pop();
+    while (index == EMPTY) {
+      grow();
+      index = pop();
+    }
+    allocated.incrementAndGet();
+
+    final ByteBuffer slab = slabs[index / SLOTS_PER_SLAB];
+    final int offset = (index % SLOTS_PER_SLAB) * SLOT_SIZE;
+
+    return new Slot(index, slab.duplicate().position(offset).limit(offset + SLOT_SIZE).slice());
+  }
+
+  /**
+   * Zeroes a slot and returns it to the free list. A slot must be released at most once, and must not be used once it
+   * has been released.
+   *
+   * @param slot slot to release
+   */
+  void release(final Slot slot) {
+    DirectBufferPool.zero(slot.buffer);
+
+    if (slot.index != EMPTY) {
+      allocated.decrementAndGet();
+      push(slot.index);
+    }
+  }
+
+  void release(final Slot slot, final boolean leaked) {
+    if (leaked) {
+      leaks.increment();
+    }
+    release(slot);
+  }
+
+  int getSlabs() {
+    return slabs.length;
+  }
+
+  long getAllocatedSlots() {
+    return allocated.get();
+  }
+
+  long getLeaks() {
+    return leaks.sum();
+  }
+
+  private int pop() {
+    while (true) {
+      final long current = head.get();
+      final int index = index(current);
+      if (index == EMPTY) {
+        return EMPTY;
+      }
+      final int next = links[index / SLOTS_PER_SLAB].get(index % SLOTS_PER_SLAB);
+      if (head.compareAndSet(current, pack(version(current) + 1, next))) {
+        return index;
+      }
+    }
+  }
+
+  private void push(final int index) {
+    final AtomicIntegerArray link = links[index / SLOTS_PER_SLAB];
+    while (true) {
+      final long current = head.get();
+      link.set(index % SLOTS_PER_SLAB, index(current));
+      if (head.compareAndSet(current, pack(version(current) + 1, index))) {
+        return;
+      }
+    }
+  }
+
+  private void grow() {
+    synchronized (growLock) {
+      // Another thread may have grown the store whilst we waited
+      if (index(head.get()) != EMPTY) {
+        return;
+      }
+      if ((long) (slabs.length + 1) * SLOTS_PER_SLAB > Integer.MAX_VALUE) {
+        throw new OutOfMemoryError("Key slab store is exhausted");
+      }
+
+      final int slab = slabs.length;
+      final AtomicIntegerArray[] newLinks = Arrays.copyOf(links, slab + 1);
+      final ByteBuffer[] newSlabs = Arrays.copyOf(slabs, slab + 1);
+      newLinks[slab] = new AtomicIntegerArray(SLOTS_PER_SLAB);
+      newSlabs[slab] = ByteBuffer.allocateDirect(SLOTS_PER_SLAB * SLOT_SIZE);
+      links = newLinks;
+      slabs = newSlabs;
+
+      for (int slot = SLOTS_PER_SLAB - 1; slot >= 0; slot--) {
+        push(slab * SLOTS_PER_SLAB + slot);
+      }
+    }
+  }
+
+  private static long pack(final int version, final int index) {
+    return ((long) version << 32) | (index & 0xFFFFFFFFL);
+  }
+
+  private static int version(final long head) {
+    return (int) (head >>> 32);
+  }
+
+  private static int index(final long head) {
+    return (int) head;
+  }
+
+  // Must not reference the slot's key, otherwise the cleaner would never run
+  static final class Release implements Runnable {
+
+    private final KeySlabAllocator allocator;
+    private final Slot slot;
+    private volatile boolean destroyed;
+
+    Release(final KeySlabAllocator allocator, final Slot slot) {
+      this.allocator = allocator;
+      this.slot = slot;
+    }
+
+    void destroy() {
+      destroyed = true;
+    }
+
+    @Override
+    public void run() {
+      allocator.release(slot, !destroyed);
+    }
+  }
+
+  static final class Slot {
+
+    private final int index;
+    private final ByteBuffer buffer;
+
+    Slot(final int index, final ByteBuffer buffer) {
+      this.index = index;
+      this.buffer = buffer;
+    }
+
+    ByteBuffer buffer() {
+      return buffer;
+    }
+  }
+}
@@ -17,32 +17,68 @@ package uk.acmelabs.datasecurity.aws.api.model;
 
 import javax.crypto.SecretKey;
 import javax.security.auth.DestroyFailedException;
-import java.nio.ByteBuffer;
-import java.nio.ReadOnlyBufferException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import software.amazon.awssdk.core.SdkBytes;
+import uk.acmelabs.datasecurity.aws.api.crypto.CipherContext;
 
 @SuppressWarnings("serial")
 public final class PlaintextDataKey implements SecretKey {
 
-  private final ByteBuffer key;
+  public static final int TAG_LENGTH = 128;
+
+  private static final KeySlabAllocator ALLOCATOR = new KeySlabAllocator();
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final KeySlabAllocator.Slot key;
+  private final KeySlabAllocator.Release release;
+  private final Cleaner.Cleanable cleanable;
   private final AtomicBoolean isDestroyed;
+  private volatile CipherContext cipherContext;
 
   public PlaintextDataKey(final SdkBytes key) {
     this.isDestroyed = new AtomicBoolean(false);
 
     final byte[] keyArray = key.asByteArray();
-    this.key = ByteBuffer.allocateDirect(keyArray.length);
-    this.key.put(keyArray);
+    this.key = ALLOCATOR.allocate(keyArray.length);
+    this.key.buffer().duplicate().put(keyArray);
+    Arrays.fill(keyArray, (byte) 0);
+    // Keys that are dropped without being destroyed are zeroed, and their slots released, once they are unreachable
+    this.release = new KeySlabAllocator.Release(ALLOCATOR, this.key);
+    this.cleanable = CLEANER.register(this, release);
   }
 
   public int ivLength() {
-    return 16;
+    return 12;
   }
 
   public int tagLength() {
-    return 128;
+    return TAG_LENGTH;
+  }
+
+  /**
+   * Prepared cipher state for this key. The context is created on first use and is destroyed along with this key.
+   *
+   * @return cipher context for this key
+   */
+  public CipherContext cipherContext() {
+    CipherContext result = cipherContext;
+    if (result == null) {
+      synchronized (this) {
+        result = cipherContext;
+        if (result == null) {
+          result = new CipherContext(this);
+          if (isDestroyed.get()) {
+            result.destroy();
+          }
+          cipherContext = result;
+        }
+      }
+    }
+    return result;
   }
 
   @Override
@@ -57,22 +93,35 @@ public final class PlaintextDataKey implements SecretKey {
 
   @Override
   public byte[] getEncoded() {
-    byte[] result = new byte[key.capacity()];
-    for (int index = 0; index < result.length; index++) {
-      result[index] = key.get(index);
+    final byte[] result = new byte[key.buffer().capacity()];
+    if (isDestroyed.get()) {
+      return result;
+    }
+
+    try {
+      key.buffer().duplicate().get(result);
+
+      // Once destroyed, the slot may have been reused by another key
+      if (isDestroyed.get()) {
+        Arrays.fill(result, (byte) 0);
+      }
+      return result;
+    } finally {
+      // The slot must not be released by the cleaner whilst it is being read
+      Reference.reachabilityFence(this);
     }
-    return result;
   }
 
   @Override
   public void destroy() throws DestroyFailedException {
-    try {
-      for (int index = 0; index < key.capacity(); index++) {
-        key.put(index, (byte) 0);
+    if (isDestroyed.compareAndSet(false, true)) {
+      release.destroy();
+      cleanable.clean();
+      synchronized (this) {
+        if (cipherContext != null) {
+          cipherContext.destroy();
+        }
       }
-      isDestroyed.set(true);
-    } catch(IndexOutOfBoundsException | ReadOnlyBufferException exn) {
-      throw new DestroyFailedException();
     }
   }
 
@@ -0,0 +1,120 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.cache;
+
+import javax.security.auth.DestroyFailedException;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+/**
+ * Reference counted cache entry. The plaintext data key is destroyed once the entry has been retired from its cache
+ * and every outstanding lease has been released.
+ */
+final class CacheEntry {
+  private static final Logger LOG = LoggerFactory.getLogger(CacheEntry.class);
+
+  private final CompletableFuture<DataKey> dataKey;
+  private final long createdAt;
+  private long messages;
+  private long bytes;
+  private int leases;
+  private boolean retired;
+
+  CacheEntry(final long createdAt) {
+    this.dataKey = new CompletableFuture<>();
+    this.createdAt = createdAt;
+  }
+
+  CompletableFuture<DataKey> dataKey() {
+    return dataKey;
+  }
+
+  boolean isExpired(final long now, final long maxAgeNanos) {
+    return now - createdAt >= maxAgeNanos;
+  }
+
+  synchronized boolean lease() {
+    if (retired) {
+      return false;
+    }
+    leases++;
+    return true;
+  }
+
+  synchronized boolean lease(
+    final long messageCount,
+    final long byteCount,
+    final long maxMessages,
+    final long maxBytes
+  ) {
+    if (retired || messageCount > maxMessages - messages || byteCount > maxBytes - bytes) {
+      return false;
+    }
+    messages += messageCount;
+    bytes += byteCount;
+    leases++;
+    return true;
+  }
+
+  synchronized void forceLease(final long messageCount, final long byteCount) {
+    messages += messageCount;
+    bytes += byteCount;
+    leases++;
+  }
+
+  synchronized boolean isExhausted(final long maxMessages, final long maxBytes) {
+    return messages >= maxMessages || bytes >= maxBytes;
+  }
+
+  void release() {
+    final boolean destroy;
+    synchronized (this) {
+      leases--;
+      destroy = retired && leases == 0;
+    }
+    if (destroy) {
+      destroy();
+    }
+  }
+
+  void retire() {
+    final boolean destroy;
+    synchronized (this) {
+      if (retired) {
+        return;
+      }
+      retired = true;
+      destroy = leases == 0;
+    }
+    if (destroy) {
+      destroy();
+    }
+  }
+
+  private void destroy() {
+    dataKey.thenAccept(key -> {
+      try {
+        key.plaintextKey().destroy();
+      } catch (DestroyFailedException exn) {
+        LOG.warn("CacheEntry.destroy", keyValue("error", exn.toString()));
+      }
+    });
+  }
+}
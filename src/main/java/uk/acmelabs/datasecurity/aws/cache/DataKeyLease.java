@@ -0,0 +1,48 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.cache;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+
+/**
+ * A data key borrowed from a cache. Leases must be closed once the caller has finished with the plaintext key, and
+ * the plaintext key must not be destroyed directly by the caller.
+ */
+public final class DataKeyLease implements AutoCloseable {
+
+  private final CacheEntry entry;
+  private final DataKey dataKey;
+  private final AtomicBoolean isClosed;
+
+  DataKeyLease(final CacheEntry entry, final DataKey dataKey) {
+    this.entry = entry;
+    this.dataKey = dataKey;
+    this.isClosed = new AtomicBoolean(false);
+  }
+
+  public DataKey dataKey() {
+    return dataKey;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed.compareAndSet(false, true)) {
+      entry.release();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+import uk.acmelabs.datasecurity.aws.api.model.EncryptedDataKeyId;
+
+/**
+ * Bounded LRU cache of decrypted data keys, keyed by CMK id and encrypted data key bytes. Entries expire once they
+ * reach a maximum age, and expired entries are evicted from the least recently used end of the cache on each miss.
+ * Plaintext keys remain off-heap and are zeroed once evicted and no longer leased.
+ */
+public final class DecryptionKeyCache {
+
+  private final BiFunction<CMK, byte[], CompletableFuture<DataKey>> decryptor;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LinkedHashMap<EncryptedDataKeyId, CacheEntry> entries;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+
+  public DecryptionKeyCache(
+    final BiFunction<CMK, byte[], CompletableFuture<DataKey>> decryptor,
+    final int maxEntries,
+    final Duration ttl
+  ) {
+    assert maxEntries >= 0;
+
+    this.decryptor = decryptor;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = ttl.toNanos();
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+  public CompletableFuture<DataKeyLease> acquire(final CMK cmk, final byte[] encryptedKey) {
+    final EncryptedDataKeyId id = new EncryptedDataKeyId(cmk.getId(), encryptedKey);
+    final long now = System.nanoTime();
+    final List<CacheEntry> evicted = new ArrayList<>();
+    final CacheEntry entry;
+
+    synchronized (entries) {
+      final CacheEntry current = entries.get(id);
+
+      if (current != null && !current.isExpired(now, ttlNanos) && current.lease()) {
+        hits.increment();
+        return leaseOf(id, current);
+      }
+      if (current != null) {
+        entries.remove(id);
+        evicted.add(current);
+      }
+
+      // Expired entries would otherwise stay resident (holding their plaintext key) until they are next acquired or
+      // become least recently used, so they are swept from the least recently used end before inserting
+      final Iterator<CacheEntry> oldest = entries.values().iterator();
+      while (oldest.hasNext()) {
+        final CacheEntry candidate = oldest.next();
+        if (!candidate.isExpired(now, ttlNanos)) {
+          break;
+        }
+        evicted.add(candidate);
+        oldest.remove();
+      }
+
+      entry = new CacheEntry(now);
+      entry.forceLease(1, encryptedKey.length);
+      entries.put(id, entry);
+
+      final Iterator<Map.Entry<EncryptedDataKeyId, CacheEntry>> eldest = entries.entrySet().iterator();
+      while (entries.size() > maxEntries && eldest.hasNext()) {
+        evicted.add(eldest.next().getValue());
+        eldest.remove();
+      }
+    }
+
+    misses.increment();
+    evictions.add(evicted.size());
+    evicted.forEach(CacheEntry::retire);
+    decryptor.apply(cmk, encryptedKey).whenComplete((dataKey, exn) -> {
+      if (exn == null) {
+        entry.dataKey().complete(dataKey);
+      } else {
+        entry.dataKey().completeExceptionally(exn);
+      }
+    });
+
+    return leaseOf(id, entry);
+  }
+
+  public void invalidateAll() {
+    final List<CacheEntry> evicted;
+
+    synchronized (entries) {
+      evicted = new ArrayList<>(entries.values());
+      entries.clear();
+    }
+    evictions.add(evicted.size());
+    evicted.forEach(CacheEntry::retire);
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  private CompletableFuture<DataKeyLease> leaseOf(final EncryptedDataKeyId id, final CacheEntry entry) {
+    return
+      entry
+        .dataKey()
+        .whenComplete((dataKey, exn) -> {
+          if (exn != null) {
+            evict(id, entry);
+            entry.release();
+          }
+        })
+        .thenApply(dataKey -> new DataKeyLease(entry, dataKey));
+  }
+
+  private void evict(final EncryptedDataKeyId id, final CacheEntry entry) {
+    final boolean removed;
+
+    synchronized (entries) {
+      removed = entries.remove(id, entry);
+    }
+    if (removed) {
+      evictions.increment();
+    }
+    entry.retire();
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.cache;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+
+/**
+ * Caches generated data keys per CMK so that a single KMS GenerateDataKey call may be used to encrypt several
+ * messages. A data key is retired once it has encrypted a maximum number of messages or bytes, or once it reaches a
+ * maximum age.
+ */
+public final class EncryptionKeyCache {
+
+  // NIST SP 800-38D limit on AES-GCM invocations under a single key when using random IVs
+  private static final long GCM_MAX_INVOCATIONS = 1L << 32;
+
+  private final Function<CMK, CompletableFuture<DataKey>> generator;
+  private final long maxMessages;
+  private final long maxBytes;
+  private final long maxAgeNanos;
+  private final ConcurrentMap<String, CacheEntry> entries;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+
+  public EncryptionKeyCache(
+    final Function<CMK, CompletableFuture<DataKey>> generator,
+    final long maxMessages,
+    final long maxBytes,
+    final Duration maxAge
+  ) {
+    assert maxMessages > 0 && maxBytes > 0;
+
+    this.generator = generator;
+    this.maxMessages = Math.min(maxMessages, GCM_MAX_INVOCATIONS);
+    this.maxBytes = maxBytes;
+    this.maxAgeNanos = maxAge.toNanos();
+    this.entries = new ConcurrentHashMap<>();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+  public CompletableFuture<DataKeyLease> acquire(final CMK cmk, final long bytes) {
+    return acquire(cmk, 1, bytes);
+  }
+
+  public CompletableFuture<DataKeyLease> acquire(final CMK cmk, final long messages, final long bytes) {
+    final String id = cmk.getId();
+
+    while (true) {
+      final long now = System.nanoTime();
+      final CacheEntry current = entries.get(id);
+
+      if (current != null && !current.isExpired(now, maxAgeNanos)) {
+        if (current.lease(messages, bytes, maxMessages, maxBytes)) {
+          hits.increment();
+          return leaseOf(id, current);
+        }
+      }
+      if (current != null) {
+        evict(id, current);
+        continue;
+      }
+
+      final CacheEntry candidate = new CacheEntry(now);
+      if (entries.putIfAbsent(id, candidate) == null) {
+        misses.increment();
+        evictExpired(now);
+        // A freshly generated data key is always leased, even if this request alone exceeds the cache limits
+        candidate.forceLease(messages, bytes);
+        generator.apply(cmk).whenComplete((dataKey, exn) -> {
+          if (exn == null) {
+            candidate.dataKey().complete(dataKey);
+          } else {
+            candidate.dataKey().completeExceptionally(exn);
+          }
+        });
+        return leaseOf(id, candidate);
+      }
+    }
+  }
+
+  /**
+   * Leases a freshly generated data key that is never cached, and so is shared with no other lease. The plaintext key
+   * is destroyed once the lease is released. Used for payloads (e.g. streams) whose length is not known up front, and
+   * so can not be accounted against the cache's byte limit.
+   *
+   * @param cmk KMS CMK used to generate the data key
+   * @return future holding the lease
+   */
+  public CompletableFuture<DataKeyLease> acquireDedicated(final CMK cmk) {
+    final CacheEntry entry = new CacheEntry(System.nanoTime());
+
+    entry.forceLease(1, 0);
+    entry.retire();
+    generator.apply(cmk).whenComplete((dataKey, exn) -> {
+      if (exn == null) {
+        entry.dataKey().complete(dataKey);
+      } else {
+        entry.dataKey().completeExceptionally(exn);
+      }
+    });
+
+    return
+      entry
+        .dataKey()
+        .whenComplete((dataKey, exn) -> {
+          if (exn != null) {
+            entry.release();
+          }
+        })
+        .thenApply(dataKey -> new DataKeyLease(entry, dataKey));
+  }
+
+  public void invalidateAll() {
+    entries.forEach(this::evict);
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  private CompletableFuture<DataKeyLease> leaseOf(final String id, final CacheEntry entry) {
+    if (entry.isExhausted(maxMessages, maxBytes)) {
+      evict(id, entry);
+    }
+
+    return
+      entry
+        .dataKey()
+        .whenComplete((dataKey, exn) -> {
+          if (exn != null) {
+            evict(id, entry);
+            entry.release();
+          }
+        })
+        .thenApply(dataKey -> new DataKeyLease(entry, dataKey));
+  }
+
+  private void evictExpired(final long now) {
+    entries.forEach((id, entry) -> {
+      if (entry.isExpired(now, maxAgeNanos)) {
+        evict(id, entry);
+      }
+    });
+  }
+
+  private void evict(final String id, final CacheEntry entry) {
+    if (entries.remove(id, entry)) {
+      evictions.increment();
+    }
+    entry.retire();
+  }
+}
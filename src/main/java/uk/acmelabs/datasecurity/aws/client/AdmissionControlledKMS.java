@@ -0,0 +1,170 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+
+/**
+ * Admission control in front of a key management service. Calls beyond the current (adaptive) concurrency limit fail
+ * immediately with an AdmissionRejectedException, rather than queueing, and calls that exceed their deadline fail with
+ * a TimeoutException. Deadlines do not cancel the underlying call, which continues to hold its concurrency slot (and
+ * inform the limit) until it completes. Data keys returned once their call's deadline has passed are destroyed.
+ */
+public final class AdmissionControlledKMS implements KeyManagementService {
+
+  private final KeyManagementService kms;
+  private final GradientLimiter limiter;
+  private final Duration defaultDeadline;
+  private final LongAdder rejected;
+  private final LongAdder throttled;
+  private final LongAdder timeouts;
+
+  public AdmissionControlledKMS(
+    final KeyManagementService kms,
+    final GradientLimiter limiter,
+    final Duration defaultDeadline
+  ) {
+    this.kms = kms;
+    this.limiter = limiter;
+    this.defaultDeadline = defaultDeadline;
+    this.rejected = new LongAdder();
+    this.throttled = new LongAdder();
+    this.timeouts = new LongAdder();
+  }
+
+  public KeyManagementService underlying() {
+    return kms;
+  }
+
+  public int getLimit() {
+    return limiter.getLimit();
+  }
+
+  public int getInflight() {
+    return limiter.getInflight();
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  public long getThrottled() {
+    return throttled.sum();
+  }
+
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  @Override
+  public CompletableFuture<CMK> createCMK() {
+    return call(kms::createCMK, defaultDeadline, cmk -> { });
+  }
+
+  @Override
+  public CompletableFuture<DataKey> generateDataKey(final CMK cmk) {
+    return generateDataKey(cmk, defaultDeadline);
+  }
+
+  @Override
+  public CompletableFuture<DataKey> generateDataKey(final CMK cmk, final Duration deadline) {
+    return call(() -> kms.generateDataKey(cmk), deadline, Deadlines::destroy);
+  }
+
+  @Override
+  public CompletableFuture<DataKey> decryptDataKey(final CMK cmk, final byte[] dataKey) {
+    return decryptDataKey(cmk, dataKey, defaultDeadline);
+  }
+
+  @Override
+  public CompletableFuture<DataKey> decryptDataKey(final CMK cmk, final byte[] dataKey, final Duration deadline) {
+    return call(() -> kms.decryptDataKey(cmk, dataKey), deadline, Deadlines::destroy);
+  }
+
+  @Override
+  public void close() {
+    kms.close();
+  }
+
+  private <T> CompletableFuture<T> call(
+    final Supplier<CompletableFuture<T>> request,
+    final Duration deadline,
+    final Consumer<? super T> discard
+  ) {
+    if (!limiter.tryAcquire()) {
+      rejected.increment();
+      return
+        CompletableFuture.failedFuture(
+          new AdmissionRejectedException(
+            String.format("KMS concurrency limit reached (limit=%d)", limiter.getLimit())
+          )
+        );
+    }
+
+    final long start = System.nanoTime();
+    final CompletableFuture<T> response;
+    try {
+      response = request.get();
+    } catch (RuntimeException exn) {
+      limiter.onIgnored();
+      return CompletableFuture.failedFuture(exn);
+    }
+
+    // Slots are released before the caller sees the response. Timeouts complete a separate future, so that the slot is
+    // still released (and any late value discarded) when the underlying call completes
+    final CompletableFuture<T> released =
+      response
+        .whenComplete((value, exn) -> {
+          if (exn == null) {
+            limiter.onSuccess(System.nanoTime() - start);
+          } else if (isThrottling(exn)) {
+            throttled.increment();
+            limiter.onThrottled();
+          } else {
+            limiter.onIgnored();
+          }
+        });
+
+    return
+      Deadlines
+        .withDeadline(released, deadline, discard)
+        .whenComplete((value, exn) -> {
+          if (unwrap(exn) instanceof TimeoutException) {
+            timeouts.increment();
+          }
+        });
+  }
+
+  private static boolean isThrottling(final Throwable exn) {
+    final Throwable cause = unwrap(exn);
+
+    return cause instanceof SdkServiceException && ((SdkServiceException) cause).isThrottlingException();
+  }
+
+  private static Throwable unwrap(final Throwable exn) {
+    return exn instanceof CompletionException && exn.getCause() != null ? exn.getCause() : exn;
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * Stops calls to an endpoint that is consistently failing. After failureThreshold consecutive failures (server errors,
+ * throttling, timeouts or connection errors) the breaker opens, and calls fail fast for openDuration. A single probe
+ * call is then allowed through - if it succeeds the breaker closes, otherwise it opens again. Client errors (e.g.
+ * invalid ciphertext) show that the endpoint is responding, and so count as successes.
+ */
+public final class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongAdder rejected;
+  private final LongAdder opened;
+  private State state;
+  private int consecutiveFailures;
+  private long openedAt;
+  private boolean probing;
+
+  public CircuitBreaker(final int failureThreshold, final Duration openDuration) {
+    assert failureThreshold > 0;
+
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openDuration.toNanos();
+    this.rejected = new LongAdder();
+    this.opened = new LongAdder();
+    this.state = State.CLOSED;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  public long getOpened() {
+    return opened.sum();
+  }
+
+  /**
+   * Decides if a call may be made. Every permitted call must have its outcome passed to record.
+   *
+   * @return true if the call may proceed
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+      state = State.HALF_OPEN;
+      probing = false;
+    }
+
+    final boolean allowed;
+    switch (state) {
+      case CLOSED:
+        allowed = true;
+        break;
+      case HALF_OPEN:
+        allowed = !probing;
+        probing = true;
+        break;
+      default:
+        allowed = false;
+        break;
+    }
+
+    if (!allowed) {
+      rejected.increment();
+    }
+    return allowed;
+  }
+
+  /**
+   * Records the outcome of a call once it completes.
+   *
+   * @param call permitted call
+   * @param <T> call result type
+   * @return call
+   */
+  public <T> CompletableFuture<T> record(final CompletableFuture<T> call) {
+    call.whenComplete((value, exn) -> {
+      if (exn == null || !isFailure(exn)) {
+        onSuccess();
+      } else {
+        onFailure();
+      }
+    });
+    return call;
+  }
+
+  private synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    state = State.CLOSED;
+  }
+
+  private synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+      opened.increment();
+    }
+  }
+
+  private static boolean isFailure(final Throwable exn) {
+    final Throwable cause = exn instanceof CompletionException && exn.getCause() != null ? exn.getCause() : exn;
+
+    if (cause instanceof SdkServiceException) {
+      final SdkServiceException serviceException = (SdkServiceException) cause;
+
+      return serviceException.statusCode() >= 500 || serviceException.isThrottlingException();
+    }
+    return true;
+  }
+}
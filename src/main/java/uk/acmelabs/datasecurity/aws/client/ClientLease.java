@@ -0,0 +1,59 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import uk.acmelabs.datasecurity.aws.metrics.ConnectionPoolStatistics;
+
+/**
+ * A KMS client borrowed from a ClientRegistry. The client must not be closed directly - instead, the lease is closed
+ * once the client is no longer needed.
+ */
+public final class ClientLease implements AutoCloseable {
+
+  private final ClientRegistry registry;
+  private final ClientRegistry.Key key;
+  private final ClientRegistry.Entry entry;
+  private final AtomicBoolean isClosed;
+
+  ClientLease(final ClientRegistry registry, final ClientRegistry.Key key, final ClientRegistry.Entry entry) {
+    this.registry = registry;
+    this.key = key;
+    this.entry = entry;
+    this.isClosed = new AtomicBoolean(false);
+  }
+
+  public KmsAsyncClient client() {
+    return entry.client();
+  }
+
+  public ConnectionPoolStatistics statistics() {
+    return entry.statistics();
+  }
+
+  public CircuitBreaker circuitBreaker() {
+    return entry.circuitBreaker();
+  }
+
+  @Override
+  public void close() {
+    if (isClosed.compareAndSet(false, true)) {
+      registry.release(key, entry);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.iam.model.Role;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import uk.acmelabs.datasecurity.AwsConfig;
+import uk.acmelabs.datasecurity.aws.metrics.ConnectionPoolStatistics;
+
+/**
+ * Reference counted registry of KMS clients, shared by (role, endpoint, region). A client (and its circuit breaker) is
+ * built, using the first acquiring AwsConfig, when it is first acquired, and is closed once every lease on it has been
+ * closed.
+ */
+public final class ClientRegistry {
+
+  private static final ClientRegistry SHARED = new ClientRegistry();
+
+  private final Map<Key, Entry> entries;
+
+  ClientRegistry() {
+    this.entries = new HashMap<>();
+  }
+
+  public static ClientRegistry shared() {
+    return SHARED;
+  }
+
+  public synchronized ClientLease acquire(final Role role, final AwsConfig config) {
+    final Key key = new Key(role.arn(), config.kmsEndpoint(), config.awsRegion());
+    Entry entry = entries.get(key);
+
+    if (entry == null) {
+      final ConnectionPoolStatistics statistics = new ConnectionPoolStatistics();
+      entry = new Entry(config.kmsClient(role, statistics), statistics, config.kmsCircuitBreaker());
+      entries.put(key, entry);
+    }
+    entry.references++;
+
+    return new ClientLease(this, key, entry);
+  }
+
+  /**
+   * Connection pool statistics for each registered client.
+   *
+   * @return statistics keyed by (role, endpoint, region)
+   */
+  public synchronized Map<String, ConnectionPoolStatistics> statistics() {
+    final Map<String, ConnectionPoolStatistics> result = new HashMap<>();
+    entries.forEach((key, entry) -> result.put(key.toString(), entry.statistics));
+    return result;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  void release(final Key key, final Entry entry) {
+    final boolean unused;
+    synchronized (this) {
+      entry.references--;
+      unused = entry.references == 0;
+      if (unused) {
+        entries.remove(key, entry);
+      }
+    }
+
+    if (unused) {
+      entry.client.close();
+    }
+  }
+
+  static final class Key {
+
+    private final String roleArn;
+    private final URI endpoint;
+    private final Region region;
+
+    Key(final String roleArn, final URI endpoint, final Region region) {
+      this.roleArn = roleArn;
+      this.endpoint = endpoint;
+      this.region = region;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      final Key that = (Key) other;
+      return roleArn.equals(that.roleArn) && endpoint.equals(that.endpoint) && region.equals(that.region);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(roleArn, endpoint, region);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("KmsClient(role=%s, endpoint=%s, region=%s)", roleArn, endpoint, region);
+    }
+  }
+
+  static final class Entry {
+
+    private final KmsAsyncClient client;
+    private final ConnectionPoolStatistics statistics;
+    private final CircuitBreaker circuitBreaker;
+    private int references;
+
+    Entry(final KmsAsyncClient client, final ConnectionPoolStatistics statistics, final CircuitBreaker circuitBreaker) {
+      this.client = client;
+      this.statistics = statistics;
+      this.circuitBreaker = circuitBreaker;
+    }
+
+    KmsAsyncClient client() {
+      return client;
+    }
+
+    ConnectionPoolStatistics statistics() {
+      return statistics;
+    }
+
+    CircuitBreaker circuitBreaker() {
+      return circuitBreaker;
+    }
+  }
+}
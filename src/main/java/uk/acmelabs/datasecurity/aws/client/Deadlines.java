@@ -0,0 +1,69 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import javax.security.auth.DestroyFailedException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+/**
+ * Deadlines for key management calls. A deadline fails the caller's future, but not the underlying call, so results
+ * that arrive once the deadline has passed are discarded (e.g. data keys are destroyed) as no caller will see them.
+ */
+final class Deadlines {
+  private static final Logger LOG = LoggerFactory.getLogger(Deadlines.class);
+
+  private Deadlines() {
+  }
+
+  static CompletableFuture<DataKey> withDeadline(final CompletableFuture<DataKey> response, final Duration deadline) {
+    return withDeadline(response, deadline, Deadlines::destroy);
+  }
+
+  static <T> CompletableFuture<T> withDeadline(
+    final CompletableFuture<T> response,
+    final Duration deadline,
+    final Consumer<? super T> discard
+  ) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+
+    // Completing the result decides the race with the timeout, so late values are always discarded exactly once
+    response.whenComplete((value, exn) -> {
+      if (exn != null) {
+        result.completeExceptionally(exn);
+      } else if (!result.complete(value)) {
+        discard.accept(value);
+      }
+    });
+
+    return result.orTimeout(deadline.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  static void destroy(final DataKey dataKey) {
+    try {
+      dataKey.plaintextKey().destroy();
+    } catch (DestroyFailedException exn) {
+      LOG.warn("Deadlines.destroy", keyValue("error", exn.toString()));
+    }
+  }
+}
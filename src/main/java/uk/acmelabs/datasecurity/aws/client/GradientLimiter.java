@@ -0,0 +1,117 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive concurrency limit, in the style of a gradient (or TCP Vegas) limiter. The limit grows whilst call latency
+ * stays close to its long term average, shrinks in proportion to latency inflation (i.e. as calls start to queue), and
+ * is halved whenever a call is throttled.
+ */
+public final class GradientLimiter {
+
+  private static final double SMOOTHING = 0.2;
+  private static final double RTT_TOLERANCE = 1.5;
+  private static final double LONG_RTT_WINDOW = 100;
+  private static final double THROTTLE_BACKOFF = 0.5;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final AtomicInteger inflight;
+  private volatile double limit;
+  private double longRtt;
+
+  public GradientLimiter(final int initialLimit, final int minLimit, final int maxLimit) {
+    assert 0 < minLimit && minLimit <= initialLimit && initialLimit <= maxLimit;
+
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.inflight = new AtomicInteger();
+    this.limit = initialLimit;
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInflight() {
+    return inflight.get();
+  }
+
+  /**
+   * Reserves a slot for a call, if fewer than limit calls are in flight. Every successful reservation must be followed
+   * by exactly one call to onSuccess, onThrottled or onIgnored.
+   *
+   * @return true if the call may proceed
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      final int current = inflight.get();
+      if (current >= getLimit()) {
+        return false;
+      }
+      if (inflight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases a slot for a call that completed normally.
+   *
+   * @param rttNanos call latency
+   */
+  public synchronized void onSuccess(final long rttNanos) {
+    final int current = inflight.getAndDecrement();
+    final double rtt = Math.max(1, rttNanos);
+
+    if (longRtt == 0) {
+      longRtt = rtt;
+    } else {
+      longRtt = longRtt + (rtt - longRtt) / LONG_RTT_WINDOW;
+    }
+
+    // Do not grow the limit when calls are not using it
+    if (current < limit / 2) {
+      return;
+    }
+
+    final double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / rtt));
+    final double newLimit = limit * gradient + Math.sqrt(limit);
+
+    update(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+  }
+
+  /**
+   * Releases a slot for a call that was throttled.
+   */
+  public synchronized void onThrottled() {
+    inflight.decrementAndGet();
+    update(limit * THROTTLE_BACKOFF);
+  }
+
+  /**
+   * Releases a slot for a call whose latency says nothing about service capacity (e.g. a client error).
+   */
+  public void onIgnored() {
+    inflight.decrementAndGet();
+  }
+
+  private void update(final double newLimit) {
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.time.Duration;
+
+/**
+ * Configures hedged KMS requests. Once a request has been outstanding for longer than the given percentile of recent
+ * request latencies, a second (hedge) request is sent and the first successful response is used. Each request earns
+ * budget hedge tokens (up to a small burst), and each hedge spends a token, so hedging adds at most a budget fraction
+ * of extra load.
+ */
+public final class HedgePolicy {
+
+  private final double percentile;
+  private final double budget;
+  private final Duration minDelay;
+
+  /**
+   * @param percentile latency percentile (between 0 and 1) after which requests are hedged
+   * @param budget maximum proportion of extra requests that hedging may add
+   * @param minDelay minimum time before a request is hedged
+   */
+  public HedgePolicy(final double percentile, final double budget, final Duration minDelay) {
+    assert 0 < percentile && percentile < 1 && 0 <= budget && budget <= 1;
+
+    this.percentile = percentile;
+    this.budget = budget;
+    this.minDelay = minDelay;
+  }
+
+  public double percentile() {
+    return percentile;
+  }
+
+  public double budget() {
+    return budget;
+  }
+
+  public Duration minDelay() {
+    return minDelay;
+  }
+}
@@ -15,49 +15,123 @@
  */
 package uk.acmelabs.datasecurity.aws.client;
 
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.iam.model.Role;
 import software.amazon.awssdk.services.kms.KmsAsyncClient;
 import software.amazon.awssdk.services.kms.model.DataKeySpec;
 import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
 import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
 import uk.acmelabs.datasecurity.AwsConfig;
 import uk.acmelabs.datasecurity.api.CMK;
 import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+import uk.acmelabs.datasecurity.aws.api.model.EncryptedDataKeyId;
+import uk.acmelabs.datasecurity.aws.metrics.AggregatingMetricPublisher;
+import uk.acmelabs.datasecurity.aws.metrics.ConnectionPoolStatistics;
+import uk.acmelabs.datasecurity.jfr.KmsCallEvent;
 
-public class KMS {
+public class KMS implements KeyManagementService {
 
+  private final ClientLease clientLease;
   private final KmsAsyncClient awsClient;
-  private final Executor defaultExecutor;
+  private final Executor continuationExecutor;
+  private final ConcurrentMap<EncryptedDataKeyId, CompletableFuture<DecryptResponse>> inflightDecrypts;
+  private final LongAdder coalescedDecrypts;
+  private final CircuitBreaker circuitBreaker;
+  private final Optional<RequestHedger> hedger;
+  private final Optional<AggregatingMetricPublisher> cmkMetrics;
 
   public KMS(
     final Role role,
     final AwsConfig config
   ) {
-    this.awsClient =
-      KmsAsyncClient
-        .builder()
-        .credentialsProvider(config.awsCredentialsProvider(role))
-        .endpointOverride(config.kmsEndpoint())
-        .region(config.awsRegion())
-        .asyncConfiguration(config.awsAsyncConfig())
-        .overrideConfiguration(config.awsClientConfig())
-        .build();
-    this.defaultExecutor = config.defaultExecutor();
+    this.clientLease = config.clientRegistry().acquire(role, config);
+    this.awsClient = clientLease.client();
+    this.continuationExecutor = config.executionStrategy().continuationExecutor();
+    this.inflightDecrypts = new ConcurrentHashMap<>();
+    this.coalescedDecrypts = new LongAdder();
+    this.circuitBreaker = clientLease.circuitBreaker();
+    this.hedger = config.kmsHedgePolicy().map(policy -> new RequestHedger(policy, config.awsExecutor()));
+    this.cmkMetrics =
+      Optional
+        .of(config.awsMetricPublisher())
+        .filter(AggregatingMetricPublisher.class::isInstance)
+        .map(AggregatingMetricPublisher.class::cast);
+  }
+
+  /**
+   * Number of decryptDataKey calls that were served by an already in-flight KMS Decrypt request.
+   *
+   * @return count of coalesced decrypt calls
+   */
+  public long getCoalescedDecrypts() {
+    return coalescedDecrypts.sum();
+  }
+
+  /**
+   * Connection pool statistics of the (shared) KMS client.
+   *
+   * @return connection pool statistics
+   */
+  public ConnectionPoolStatistics connectionPoolStatistics() {
+    return clientLease.statistics();
+  }
+
+  /**
+   * Circuit breaker of the (shared) KMS client.
+   *
+   * @return circuit breaker
+   */
+  public CircuitBreaker circuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Number of hedge requests sent.
+   *
+   * @return count of hedge requests
+   */
+  public long getHedgedRequests() {
+    return hedger.map(RequestHedger::getHedged).orElse(0L);
   }
 
+  /**
+   * Number of hedge requests whose response was used.
+   *
+   * @return count of winning hedge requests
+   */
+  public long getHedgeWins() {
+    return hedger.map(RequestHedger::getHedgeWins).orElse(0L);
+  }
+
+  /**
+   * Number of hedge requests not sent as the hedging budget was exhausted.
+   *
+   * @return count of suppressed hedge requests
+   */
+  public long getHedgesSuppressed() {
+    return hedger.map(RequestHedger::getSuppressed).orElse(0L);
+  }
+
+  @Override
   public CompletableFuture<CMK> createCMK() {
-    return awsClient
-      .createKey()
+    return
+      guarded(awsClient::createKey)
       .thenApplyAsync(
         response -> new CMK(response.keyMetadata()),
-        defaultExecutor
+        continuationExecutor
       );
   }
 
+  @Override
   public CompletableFuture<DataKey> generateDataKey(final CMK cmk) {
     final GenerateDataKeyRequest request =
       GenerateDataKeyRequest
@@ -66,19 +140,40 @@ public class KMS {
         .keySpec(DataKeySpec.AES_256)
         .build();
 
-    return awsClient
-            .generateDataKey(request)
+    return recorded(cmk, "GenerateDataKey", () -> hedged(() -> awsClient.generateDataKey(request)))
             .thenApplyAsync(
               response -> new DataKey(response.ciphertextBlob(), response.plaintext()),
-              defaultExecutor
+              continuationExecutor
             );
   }
 
+  @Override
   public CompletableFuture<DataKey> decryptDataKey(
     final CMK cmk,
     final byte[] dataKey
   ) {
     final SdkBytes encryptedDataKey = SdkBytes.fromByteArray(dataKey);
+
+    // Every caller gets its own DataKey, and so an independently destroyable PlaintextDataKey
+    return decrypt(new EncryptedDataKeyId(cmk.getId(), dataKey), cmk, encryptedDataKey)
+            .thenApplyAsync(response ->  new DataKey(encryptedDataKey, response.plaintext()),
+              continuationExecutor
+            );
+  }
+
+  private CompletableFuture<DecryptResponse> decrypt(
+    final EncryptedDataKeyId id,
+    final CMK cmk,
+    final SdkBytes encryptedDataKey
+  ) {
+    final CompletableFuture<DecryptResponse> result = new CompletableFuture<>();
+    final CompletableFuture<DecryptResponse> inflight = inflightDecrypts.putIfAbsent(id, result);
+
+    if (inflight != null) {
+      coalescedDecrypts.increment();
+      return inflight;
+    }
+
     final DecryptRequest request =
       DecryptRequest
         .builder()
@@ -86,10 +181,57 @@ public class KMS {
         .ciphertextBlob(encryptedDataKey)
         .build();
 
-    return awsClient
-            .decrypt(request)
-            .thenApplyAsync(response ->  new DataKey(encryptedDataKey, response.plaintext()),
-              defaultExecutor
-            );
+    recorded(cmk, "Decrypt", () -> hedged(() -> awsClient.decrypt(request)))
+      .whenComplete((response, exn) -> {
+        inflightDecrypts.remove(id, result);
+        if (exn == null) {
+          result.complete(response);
+        } else {
+          result.completeExceptionally(exn);
+        }
+      });
+
+    return result;
+  }
+
+  private <T> CompletableFuture<T> recorded(
+    final CMK cmk,
+    final String operation,
+    final Supplier<CompletableFuture<T>> request
+  ) {
+    final KmsCallEvent event = KmsCallEvent.start();
+    final long start = System.nanoTime();
+    final CompletableFuture<T> result = event.record(request.get(), operation, cmk.getId());
+
+    cmkMetrics.ifPresent(metrics ->
+      result.whenComplete((value, exn) ->
+        metrics.recordCmkCall(cmk.getId(), operation, System.nanoTime() - start, exn == null)
+      )
+    );
+    return result;
+  }
+
+  private <T> CompletableFuture<T> hedged(final Supplier<CompletableFuture<T>> request) {
+    return hedger.map(requestHedger -> requestHedger.call(() -> guarded(request))).orElseGet(() -> guarded(request));
+  }
+
+  private <T> CompletableFuture<T> guarded(final Supplier<CompletableFuture<T>> request) {
+    if (!circuitBreaker.allowRequest()) {
+      return CompletableFuture.failedFuture(new CircuitBreakerOpenException("KMS circuit breaker is open"));
+    }
+
+    try {
+      return circuitBreaker.record(request.get());
+    } catch (RuntimeException exn) {
+      return circuitBreaker.record(CompletableFuture.failedFuture(exn));
+    }
+  }
+
+  /**
+   * Releases this instance's use of the shared KMS client. The client is closed once no KMS instance uses it.
+   */
+  @Override
+  public void close() {
+    clientLease.close();
   }
 }
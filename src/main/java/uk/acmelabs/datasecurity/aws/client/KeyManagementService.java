@@ -0,0 +1,66 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+
+/**
+ * Key management operations used by producers and consumers.
+ */
+public interface KeyManagementService extends AutoCloseable {
+
+  CompletableFuture<CMK> createCMK();
+
+  CompletableFuture<DataKey> generateDataKey(CMK cmk);
+
+  CompletableFuture<DataKey> decryptDataKey(CMK cmk, byte[] dataKey);
+
+  /**
+   * Generates a data key, failing with a TimeoutException if this takes longer than the deadline. Data keys generated
+   * after the deadline has passed are destroyed.
+   *
+   * @param cmk CMK the data key is encrypted under
+   * @param deadline maximum time to wait for the data key
+   * @return future holding the data key
+   */
+  default CompletableFuture<DataKey> generateDataKey(final CMK cmk, final Duration deadline) {
+    return Deadlines.withDeadline(generateDataKey(cmk), deadline);
+  }
+
+  /**
+   * Decrypts a data key, failing with a TimeoutException if this takes longer than the deadline. Data keys decrypted
+   * after the deadline has passed are destroyed.
+   *
+   * @param cmk CMK the data key is encrypted under
+   * @param dataKey encrypted data key
+   * @param deadline maximum time to wait for the data key
+   * @return future holding the data key
+   */
+  default CompletableFuture<DataKey> decryptDataKey(final CMK cmk, final byte[] dataKey, final Duration deadline) {
+    return Deadlines.withDeadline(decryptDataKey(cmk, dataKey), deadline);
+  }
+
+  /**
+   * Releases any clients held by this service.
+   */
+  @Override
+  default void close() {
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.util.Arrays;
+
+/**
+ * Tracks a latency percentile over a sliding window of recent samples. The percentile is recomputed every 1/16th of a
+ * window, so that reads are cheap.
+ */
+final class LatencyTracker {
+
+  private static final int MIN_SAMPLES = 20;
+
+  private final double percentile;
+  private final long[] samples;
+  private final int refreshInterval;
+  private long count;
+  private volatile long value;
+
+  LatencyTracker(final double percentile, final int windowSize) {
+    this.percentile = percentile;
+    this.samples = new long[windowSize];
+    this.refreshInterval = Math.max(1, windowSize / 16);
+    this.value = -1;
+  }
+
+  /**
+   * Latency percentile, in nanoseconds.
+   *
+   * @return percentile, or -1 when too few samples have been recorded
+   */
+  long percentile() {
+    return value;
+  }
+
+  synchronized void record(final long latencyNanos) {
+    samples[(int) (count % samples.length)] = latencyNanos;
+    count++;
+
+    if (count >= MIN_SAMPLES && count % refreshInterval == 0) {
+      final long[] window = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+      Arrays.sort(window);
+      value = window[(int) Math.min(window.length - 1, Math.floor(percentile * window.length))];
+    }
+  }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
+
+/**
+ * In-process stand-in for AWS KMS. CMKs are AES-256 keys held in memory, and data keys are wrapped under them using
+ * AES-GCM. As with AWS KMS, encrypted data keys embed the id of the CMK that wrapped them.
+ *
+ * Responses may be delayed by a latency distribution, requests beyond a maximum rate are throttled, and a proportion
+ * of requests may fail with injected internal errors. Failures are reported using the same KmsException error codes
+ * as AWS KMS.
+ */
+public final class LocalKMS implements KeyManagementService {
+
+  private static final String ARN_PREFIX = "arn:aws:kms:local:000000000000:key/";
+  private static final int IV_LENGTH = 12;
+  private static final int TAG_LENGTH = 128;
+
+  private final Executor executor;
+  private final Latency latency;
+  private final TokenBucket throttle;
+  private final double errorRate;
+  private final SecureRandom random;
+  private final ConcurrentMap<String, SecretKeySpec> masterKeys;
+  private final LongAdder requests;
+  private final LongAdder throttled;
+  private final LongAdder injectedErrors;
+
+  public LocalKMS(final Executor executor) {
+    this(executor, Latency.none(), Double.POSITIVE_INFINITY, 0);
+  }
+
+  /**
+   * @param executor executor that responses are completed on
+   * @param latency distribution of response latencies
+   * @param requestsPerSecond maximum request rate (with a one second burst), beyond which requests are throttled
+   * @param errorRate proportion of requests that fail with an injected internal error
+   */
+  public LocalKMS(
+    final Executor executor,
+    final Latency latency,
+    final double requestsPerSecond,
+    final double errorRate
+  ) {
+    assert requestsPerSecond > 0 && errorRate >= 0 && errorRate <= 1;
+
+    this.executor = executor;
+    this.latency = latency;
+    this.throttle = new TokenBucket(requestsPerSecond);
+    this.errorRate = errorRate;
+    this.random = new SecureRandom();
+    this.masterKeys = new ConcurrentHashMap<>();
+    this.requests = new LongAdder();
+    this.throttled = new LongAdder();
+    this.injectedErrors = new LongAdder();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getThrottled() {
+    return throttled.sum();
+  }
+
+  public long getInjectedErrors() {
+    return injectedErrors.sum();
+  }
+
+  @Override
+  public CompletableFuture<CMK> createCMK() {
+    return call(() -> {
+      final String id = UUID.randomUUID().toString();
+      masterKeys.put(id, new SecretKeySpec(randomBytes(32), "AES"));
+
+      return new CMK(id, ARN_PREFIX + id);
+    });
+  }
+
+  @Override
+  public CompletableFuture<DataKey> generateDataKey(final CMK cmk) {
+    return call(() -> {
+      final byte[] plaintext = randomBytes(32);
+      try {
+        return new DataKey(SdkBytes.fromByteArray(wrap(cmk.getId(), plaintext)), SdkBytes.fromByteArray(plaintext));
+      } finally {
+        Arrays.fill(plaintext, (byte) 0);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<DataKey> decryptDataKey(final CMK cmk, final byte[] dataKey) {
+    return call(() -> {
+      final byte[] plaintext = unwrap(cmk.getId(), dataKey);
+      try {
+        return new DataKey(SdkBytes.fromByteArray(dataKey), SdkBytes.fromByteArray(plaintext));
+      } finally {
+        Arrays.fill(plaintext, (byte) 0);
+      }
+    });
+  }
+
+  private <T> CompletableFuture<T> call(final Supplier<T> operation) {
+    requests.increment();
+
+    final Supplier<T> response;
+    if (!throttle.tryAcquire()) {
+      throttled.increment();
+      response = () -> {
+        throw error(400, "ThrottlingException", "Rate exceeded");
+      };
+    } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      injectedErrors.increment();
+      response = () -> {
+        throw error(500, "KMSInternalException", "Injected internal error");
+      };
+    } else {
+      response = operation;
+    }
+
+    final long delay = latency.sample().toNanos();
+    if (delay <= 0) {
+      return CompletableFuture.supplyAsync(response, executor);
+    }
+    return
+      CompletableFuture.supplyAsync(response, CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor));
+  }
+
+  private byte[] wrap(final String cmkId, final byte[] plaintext) {
+    final byte[] id = cmkId.getBytes(StandardCharsets.UTF_8);
+    final byte[] iv = randomBytes(IV_LENGTH);
+
+    try {
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, masterKey(cmkId), new GCMParameterSpec(TAG_LENGTH, iv));
+      cipher.updateAAD(id);
+      final byte[] wrapped = cipher.doFinal(plaintext);
+
+      return
+        ByteBuffer
+          .allocate(2 + id.length + IV_LENGTH + wrapped.length)
+          .putShort((short) id.length)
+          .put(id)
+          .put(iv)
+          .put(wrapped)
+          .array();
+    } catch (GeneralSecurityException exn) {
+      throw error(500, "KMSInternalException", exn.getMessage());
+    }
+  }
+
+  private byte[] unwrap(final String cmkId, final byte[] encryptedKey) {
+    try {
+      final ByteBuffer blob = ByteBuffer.wrap(encryptedKey);
+      final byte[] id = new byte[blob.getShort() & 0xFFFF];
+      blob.get(id);
+      final byte[] iv = new byte[IV_LENGTH];
+      blob.get(iv);
+
+      if (!cmkId.equals(new String(id, StandardCharsets.UTF_8))) {
+        throw error(400, "IncorrectKeyException", "Data key was not encrypted under the given CMK");
+      }
+
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, masterKey(cmkId), new GCMParameterSpec(TAG_LENGTH, iv));
+      cipher.updateAAD(id);
+
+      return cipher.doFinal(encryptedKey, blob.position(), blob.remaining());
+    } catch (BufferUnderflowException | NegativeArraySizeException | GeneralSecurityException exn) {
+      throw error(400, "InvalidCiphertextException", "Invalid encrypted data key");
+    }
+  }
+
+  private SecretKeySpec masterKey(final String cmkId) {
+    final SecretKeySpec masterKey = masterKeys.get(cmkId);
+    if (masterKey == null) {
+      throw error(400, "NotFoundException", String.format("Key '%s' does not exist", cmkId));
+    }
+    return masterKey;
+  }
+
+  private byte[] randomBytes(final int length) {
+    final byte[] result = new byte[length];
+    random.nextBytes(result);
+    return result;
+  }
+
+  private static KmsException error(final int statusCode, final String errorCode, final String message) {
+    return
+      KmsException
+        .builder()
+        .message(message)
+        .statusCode(statusCode)
+        .awsErrorDetails(
+          AwsErrorDetails
+            .builder()
+            .serviceName("KMS")
+            .errorCode(errorCode)
+            .errorMessage(message)
+            .build()
+        )
+        .build();
+  }
+
+  /**
+   * Distribution of KMS response latencies.
+   */
+  @FunctionalInterface
+  public interface Latency {
+
+    Duration sample();
+
+    static Latency none() {
+      return () -> Duration.ZERO;
+    }
+
+    static Latency constant(final Duration latency) {
+      return () -> latency;
+    }
+
+    static Latency uniform(final Duration min, final Duration max) {
+      final long minNanos = min.toNanos();
+      final long maxNanos = max.toNanos();
+
+      return () -> Duration.ofNanos(ThreadLocalRandom.current().nextLong(minNanos, maxNanos + 1));
+    }
+
+    /**
+     * Log-normal latencies, which have the long right tail typical of remote service calls.
+     *
+     * @param median median latency
+     * @param sigma standard deviation of the latency's natural logarithm
+     * @return latency distribution
+     */
+    static Latency logNormal(final Duration median, final double sigma) {
+      final double medianNanos = median.toNanos();
+
+      return () -> {
+        final double sample = medianNanos * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+        return Duration.ofNanos((long) sample);
+      };
+    }
+  }
+
+  private static final class TokenBucket {
+
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(final double requestsPerSecond) {
+      this.ratePerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.capacity = Math.max(1, requestsPerSecond);
+      this.tokens = capacity;
+      this.refilledAt = System.nanoTime();
+    }
+
+    synchronized boolean tryAcquire() {
+      if (Double.isInfinite(capacity)) {
+        return true;
+      }
+
+      final long now = System.nanoTime();
+      tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+      refilledAt = now;
+
+      if (tokens < 1) {
+        return false;
+      }
+      tokens -= 1;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Issues hedge requests according to a HedgePolicy.
+ */
+final class RequestHedger {
+
+  private static final double MAX_TOKENS = 10;
+
+  private final HedgePolicy policy;
+  private final Executor executor;
+  private final LatencyTracker latencies;
+  private final LongAdder hedged;
+  private final LongAdder hedgeWins;
+  private final LongAdder suppressed;
+  private double tokens;
+
+  RequestHedger(final HedgePolicy policy, final Executor executor) {
+    this.policy = policy;
+    this.executor = executor;
+    this.latencies = new LatencyTracker(policy.percentile(), 1024);
+    this.hedged = new LongAdder();
+    this.hedgeWins = new LongAdder();
+    this.suppressed = new LongAdder();
+  }
+
+  long getHedged() {
+    return hedged.sum();
+  }
+
+  long getHedgeWins() {
+    return hedgeWins.sum();
+  }
+
+  long getSuppressed() {
+    return suppressed.sum();
+  }
+
+  <T> CompletableFuture<T> call(final Supplier<CompletableFuture<T>> request) {
+    deposit();
+
+    final long delay = latencies.percentile();
+    final long start = System.nanoTime();
+    final CompletableFuture<T> primary = request.get();
+
+    primary.whenComplete((value, exn) -> {
+      if (exn == null) {
+        latencies.record(System.nanoTime() - start);
+      }
+    });
+    if (delay < 0) {
+      return primary;
+    }
+
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final AtomicInteger outstanding = new AtomicInteger(1);
+
+    primary.whenComplete((value, exn) -> complete(result, outstanding, value, exn, false));
+    CompletableFuture
+      .delayedExecutor(Math.max(delay, policy.minDelay().toNanos()), TimeUnit.NANOSECONDS, executor)
+      .execute(() -> {
+        if (result.isDone()) {
+          return;
+        }
+        if (!withdraw()) {
+          suppressed.increment();
+          return;
+        }
+        // Only hedge whilst an earlier attempt is outstanding
+        if (outstanding.getAndUpdate(count -> count == 0 ? 0 : count + 1) == 0) {
+          return;
+        }
+
+        hedged.increment();
+        try {
+          request.get().whenComplete((value, exn) -> complete(result, outstanding, value, exn, true));
+        } catch (RuntimeException exn) {
+          complete(result, outstanding, null, exn, true);
+        }
+      });
+
+    return result;
+  }
+
+  // First success wins - the result only fails once every attempt has failed
+  private <T> void complete(
+    final CompletableFuture<T> result,
+    final AtomicInteger outstanding,
+    final T value,
+    final Throwable exn,
+    final boolean isHedge
+  ) {
+    final int remaining = outstanding.decrementAndGet();
+
+    if (exn == null) {
+      if (result.complete(value) && isHedge) {
+        hedgeWins.increment();
+      }
+    } else if (remaining == 0) {
+      result.completeExceptionally(exn);
+    }
+  }
+
+  private synchronized void deposit() {
+    tokens = Math.min(MAX_TOKENS, tokens + policy.budget());
+  }
+
+  private synchronized boolean withdraw() {
+    if (tokens < 1) {
+      return false;
+    }
+    tokens -= 1;
+    return true;
+  }
+}
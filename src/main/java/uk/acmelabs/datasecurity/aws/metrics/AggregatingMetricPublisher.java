@@ -0,0 +1,293 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.MetricRecord;
+import static net.logstash.logback.argument.StructuredArguments.entries;
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+/**
+ * Aggregates AWS SDK metrics into lock-free counters and latency histograms, per API (e.g. KMS.Decrypt) and per CMK,
+ * rather than handling each metric collection individually. Every interval, latency histograms are swapped for empty
+ * ones and summarised into a snapshot - this is exposed via JMX and may, optionally, be logged as a single summary
+ * line.
+ *
+ * Per CMK latencies are recorded by KMS, when this is the publisher returned by AwsConfig.awsMetricPublisher. As KMS
+ * clients are shared, awsMetricPublisher should return a single instance.
+ */
+public final class AggregatingMetricPublisher implements MetricPublisher, AggregatingMetricPublisherMXBean {
+  private static final Logger LOG =
+    LoggerFactory.getLogger(uk.acmelabs.datasecurity.aws.metrics.AggregatingMetricPublisher.class);
+
+  private static final ScheduledExecutorService SCHEDULER =
+    Executors.newSingleThreadScheduledExecutor(task -> {
+      final Thread thread = new Thread(task, "data-security-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  private final String name;
+  private final ObjectName objectName;
+  private final boolean logSummary;
+  private final ConcurrentMap<String, CallMetrics> apiCalls;
+  private final ConcurrentMap<String, CallMetrics> cmkCalls;
+  private final ScheduledFuture<?> snapshots;
+  private volatile Snapshot snapshot;
+
+  private AggregatingMetricPublisher(final String name, final Duration interval, final boolean logSummary) {
+    this.name = name;
+    this.objectName = objectName(name);
+    this.logSummary = logSummary;
+    this.apiCalls = new ConcurrentHashMap<>();
+    this.cmkCalls = new ConcurrentHashMap<>();
+    this.snapshot = new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+    this.snapshots =
+      SCHEDULER.scheduleAtFixedRate(this::snapshot, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    register();
+  }
+
+  /**
+   * Creates a publisher, registered with the platform MBean server as
+   * uk.acmelabs.datasecurity:type=AggregatingMetricPublisher,name=[name].
+   *
+   * @param name publisher name
+   * @param interval snapshot interval
+   * @param logSummary true if each snapshot should be logged
+   * @return metric publisher
+   */
+  public static AggregatingMetricPublisher create(final String name, final Duration interval, final boolean logSummary) {
+    return new AggregatingMetricPublisher(name, interval, logSummary);
+  }
+
+  @Override
+  public void publish(final MetricCollection metricCollection) {
+    String service = "";
+    String operation = "";
+    long duration = -1;
+    boolean successful = true;
+    long retries = 0;
+
+    for (final MetricRecord<?> metricRecord : metricCollection) {
+      final Object value = metricRecord.value();
+
+      switch (metricRecord.metric().name()) {
+        case "ServiceId":
+          service = String.valueOf(value);
+          break;
+        case "OperationName":
+          operation = String.valueOf(value);
+          break;
+        case "ApiCallDuration":
+          if (value instanceof Duration) {
+            duration = ((Duration) value).toNanos();
+          }
+          break;
+        case "ApiCallSuccessful":
+          successful = !Boolean.FALSE.equals(value);
+          break;
+        case "RetryCount":
+          if (value instanceof Number) {
+            retries = ((Number) value).longValue();
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    record(apiCalls, service.isEmpty() ? operation : service + "." + operation, duration, successful, retries);
+  }
+
+  /**
+   * Records a KMS call made using a CMK.
+   *
+   * @param cmkId CMK id
+   * @param operation KMS operation (e.g. Decrypt)
+   * @param durationNanos call latency
+   * @param successful true if the call succeeded
+   */
+  public void recordCmkCall(
+    final String cmkId,
+    final String operation,
+    final long durationNanos,
+    final boolean successful
+  ) {
+    record(cmkCalls, cmkId + "." + operation, durationNanos, successful, 0);
+  }
+
+  @Override
+  public Map<String, LatencySummary> getApiCallLatencies() {
+    return snapshot.apiCallLatencies;
+  }
+
+  @Override
+  public Map<String, LatencySummary> getCmkCallLatencies() {
+    return snapshot.cmkCallLatencies;
+  }
+
+  @Override
+  public Map<String, Long> getApiCalls() {
+    return counts(apiCalls, metrics -> metrics.calls.sum());
+  }
+
+  @Override
+  public Map<String, Long> getApiCallFailures() {
+    return counts(apiCalls, metrics -> metrics.failures.sum());
+  }
+
+  @Override
+  public Map<String, Long> getApiCallRetries() {
+    return counts(apiCalls, metrics -> metrics.retries.sum());
+  }
+
+  /**
+   * Swaps the current latency histograms for empty ones, and publishes their summaries as the latest snapshot.
+   */
+  public void snapshot() {
+    snapshot = new Snapshot(summarise(apiCalls), summarise(cmkCalls));
+
+    if (logSummary && !snapshot.apiCallLatencies.isEmpty()) {
+      LOG.info(
+        "AggregatingMetricPublisher.snapshot",
+        keyValue("name", name),
+        entries(Map.of("api", toMap(snapshot.apiCallLatencies), "cmk", toMap(snapshot.cmkCallLatencies)))
+      );
+    }
+  }
+
+  @Override
+  public void close() {
+    snapshots.cancel(false);
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (InstanceNotFoundException | MBeanRegistrationException exn) {
+      LOG.warn("AggregatingMetricPublisher.close", keyValue("error", exn.toString()));
+    }
+  }
+
+  private static void record(
+    final ConcurrentMap<String, CallMetrics> metrics,
+    final String key,
+    final long durationNanos,
+    final boolean successful,
+    final long retries
+  ) {
+    final CallMetrics callMetrics = metrics.computeIfAbsent(key, ignored -> new CallMetrics());
+
+    callMetrics.calls.increment();
+    if (!successful) {
+      callMetrics.failures.increment();
+    }
+    callMetrics.retries.add(retries);
+    if (durationNanos >= 0) {
+      callMetrics.latencies.get().record(durationNanos);
+    }
+  }
+
+  private static Map<String, LatencySummary> summarise(final ConcurrentMap<String, CallMetrics> metrics) {
+    final Map<String, LatencySummary> result = new HashMap<>();
+
+    metrics.forEach((key, callMetrics) ->
+      result.put(key, callMetrics.latencies.getAndSet(new LatencyHistogram()).summary())
+    );
+    return Collections.unmodifiableMap(result);
+  }
+
+  private static Map<String, Long> counts(
+    final ConcurrentMap<String, CallMetrics> metrics,
+    final Function<CallMetrics, Long> count
+  ) {
+    final Map<String, Long> result = new HashMap<>();
+
+    metrics.forEach((key, callMetrics) -> result.put(key, count.apply(callMetrics)));
+    return result;
+  }
+
+  private static Map<String, Object> toMap(final Map<String, LatencySummary> latencies) {
+    final Map<String, Object> result = new HashMap<>();
+
+    latencies.forEach((key, summary) -> result.put(key, summary.toMap()));
+    return result;
+  }
+
+  private void register() {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    try {
+      server.registerMBean(this, objectName);
+    } catch (InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException exn) {
+      // Metrics are still aggregated (and may be logged) without JMX
+      LOG.warn("AggregatingMetricPublisher.register", keyValue("error", exn.toString()));
+    }
+  }
+
+  private static ObjectName objectName(final String name) {
+    try {
+      return
+        new ObjectName(
+          "uk.acmelabs.datasecurity:type=AggregatingMetricPublisher,name=" + ObjectName.quote(name)
+        );
+    } catch (MalformedObjectNameException exn) {
+      throw new IllegalArgumentException(exn);
+    }
+  }
+
+  private static final class CallMetrics {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final AtomicReference<LatencyHistogram> latencies = new AtomicReference<>(new LatencyHistogram());
+  }
+
+  private static final class Snapshot {
+    private final Map<String, LatencySummary> apiCallLatencies;
+    private final Map<String, LatencySummary> cmkCallLatencies;
+
+    Snapshot(
+      final Map<String, LatencySummary> apiCallLatencies,
+      final Map<String, LatencySummary> cmkCallLatencies
+    ) {
+      this.apiCallLatencies = apiCallLatencies;
+      this.cmkCallLatencies = cmkCallLatencies;
+    }
+  }
+}
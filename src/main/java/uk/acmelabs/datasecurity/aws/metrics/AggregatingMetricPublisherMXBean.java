@@ -0,0 +1,35 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the most recent AggregatingMetricPublisher snapshot. Latencies cover the last snapshot interval, whilst
+ * counts are totals since the publisher was created.
+ */
+public interface AggregatingMetricPublisherMXBean {
+
+  Map<String, LatencySummary> getApiCallLatencies();
+
+  Map<String, LatencySummary> getCmkCallLatencies();
+
+  Map<String, Long> getApiCalls();
+
+  Map<String, Long> getApiCallFailures();
+
+  Map<String, Long> getApiCallRetries();
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.MetricRecord;
+
+/**
+ * Tracks the most recently reported HTTP connection pool metrics for a single AWS client.
+ */
+public final class ConnectionPoolStatistics implements MetricPublisher {
+
+  private final AtomicLong maxConcurrency;
+  private final AtomicLong availableConcurrency;
+  private final AtomicLong leasedConcurrency;
+  private final AtomicLong pendingConcurrencyAcquires;
+  private final LongAdder apiCalls;
+
+  public ConnectionPoolStatistics() {
+    this.maxConcurrency = new AtomicLong();
+    this.availableConcurrency = new AtomicLong();
+    this.leasedConcurrency = new AtomicLong();
+    this.pendingConcurrencyAcquires = new AtomicLong();
+    this.apiCalls = new LongAdder();
+  }
+
+  /**
+   * Maximum number of concurrent requests (connections or streams) supported by the HTTP client.
+   *
+   * @return maximum concurrency
+   */
+  public long getMaxConcurrency() {
+    return maxConcurrency.get();
+  }
+
+  /**
+   * Number of idle connections (or streams) available to new requests.
+   *
+   * @return available concurrency
+   */
+  public long getAvailableConcurrency() {
+    return availableConcurrency.get();
+  }
+
+  /**
+   * Number of connections (or streams) in use.
+   *
+   * @return leased concurrency
+   */
+  public long getLeasedConcurrency() {
+    return leasedConcurrency.get();
+  }
+
+  /**
+   * Number of requests waiting for a connection.
+   *
+   * @return pending concurrency acquires
+   */
+  public long getPendingConcurrencyAcquires() {
+    return pendingConcurrencyAcquires.get();
+  }
+
+  public long getApiCalls() {
+    return apiCalls.sum();
+  }
+
+  @Override
+  public void publish(final MetricCollection metricCollection) {
+    apiCalls.increment();
+    record(metricCollection);
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public String toString() {
+    return
+      String.format(
+        "ConnectionPoolStatistics(max=%d, available=%d, leased=%d, pending=%d, apiCalls=%d)",
+        getMaxConcurrency(),
+        getAvailableConcurrency(),
+        getLeasedConcurrency(),
+        getPendingConcurrencyAcquires(),
+        getApiCalls()
+      );
+  }
+
+  private void record(final MetricCollection metricCollection) {
+    metricCollection.stream().forEach(this::record);
+    metricCollection.children().forEach(this::record);
+  }
+
+  // Metrics are matched by name, as published by the SDK's HttpMetric definitions
+  private void record(final MetricRecord<?> metricRecord) {
+    if (!(metricRecord.value() instanceof Number)) {
+      return;
+    }
+
+    final long value = ((Number) metricRecord.value()).longValue();
+    switch (metricRecord.metric().name()) {
+      case "MaxConcurrency":
+        maxConcurrency.set(value);
+        break;
+      case "AvailableConcurrency":
+        availableConcurrency.set(value);
+        break;
+      case "LeasedConcurrency":
+        leasedConcurrency.set(value);
+        break;
+      case "PendingConcurrencyAcquires":
+        pendingConcurrencyAcquires.set(value);
+        break;
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets. Each power of two range is split into 32 linear
+ * sub-buckets, so recorded values are reported to within about 3%. Values are in nanoseconds.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  private static final int BUCKETS = SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+  private final AtomicLongArray counts;
+  private final LongAdder count;
+  private final LongAdder sum;
+  private final LongAccumulator max;
+
+  public LatencyHistogram() {
+    this.counts = new AtomicLongArray(BUCKETS);
+    this.count = new LongAdder();
+    this.sum = new LongAdder();
+    this.max = new LongAccumulator(Math::max, 0);
+  }
+
+  public void record(final long valueNanos) {
+    final long value = Math.max(0, valueNanos);
+
+    counts.incrementAndGet(bucket(value));
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    final long total = count.sum();
+
+    return total == 0 ? 0 : (double) sum.sum() / total;
+  }
+
+  /**
+   * Value below which the given proportion of recorded values fall.
+   *
+   * @param percentile proportion, between 0 and 1
+   * @return value in nanoseconds (0 if no values have been recorded)
+   */
+  public long getValueAtPercentile(final double percentile) {
+    final long total = count.sum();
+    if (total == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+    long seen = 0;
+    for (int index = 0; index < BUCKETS; index++) {
+      seen += counts.get(index);
+      if (seen >= rank) {
+        return Math.min(getMax(), value(index));
+      }
+    }
+    return getMax();
+  }
+
+  public LatencySummary summary() {
+    return
+      new LatencySummary(
+        getCount(),
+        getMean(),
+        getValueAtPercentile(0.5),
+        getValueAtPercentile(0.9),
+        getValueAtPercentile(0.99),
+        getValueAtPercentile(0.999),
+        getMax()
+      );
+  }
+
+  static int bucket(final long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+  }
+
+  // Mid-point of the bucket's range
+  static long value(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return (subBucket << shift) + (1L << (shift - 1));
+  }
+}
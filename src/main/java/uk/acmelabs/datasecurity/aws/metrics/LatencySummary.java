@@ -0,0 +1,108 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics;
+
+import java.util.Map;
+import static java.util.Map.entry;
+
+/**
+ * Point in time summary of a latency histogram. Latencies are in microseconds.
+ */
+public final class LatencySummary {
+
+  private static final double NANOS_PER_MICRO = 1000.0;
+
+  private final long count;
+  private final double mean;
+  private final double p50;
+  private final double p90;
+  private final double p99;
+  private final double p999;
+  private final double max;
+
+  LatencySummary(
+    final long count,
+    final double meanNanos,
+    final long p50Nanos,
+    final long p90Nanos,
+    final long p99Nanos,
+    final long p999Nanos,
+    final long maxNanos
+  ) {
+    this.count = count;
+    this.mean = meanNanos / NANOS_PER_MICRO;
+    this.p50 = p50Nanos / NANOS_PER_MICRO;
+    this.p90 = p90Nanos / NANOS_PER_MICRO;
+    this.p99 = p99Nanos / NANOS_PER_MICRO;
+    this.p999 = p999Nanos / NANOS_PER_MICRO;
+    this.max = maxNanos / NANOS_PER_MICRO;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public double getP50() {
+    return p50;
+  }
+
+  public double getP90() {
+    return p90;
+  }
+
+  public double getP99() {
+    return p99;
+  }
+
+  public double getP999() {
+    return p999;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  Map<String, Object> toMap() {
+    return Map.ofEntries(
+      entry("count", count),
+      entry("mean", mean),
+      entry("p50", p50),
+      entry("p90", p90),
+      entry("p99", p99),
+      entry("p999", p999),
+      entry("max", max)
+    );
+  }
+
+  @Override
+  public String toString() {
+    return
+      String.format(
+        "LatencySummary(count=%d, mean=%.1fus, p50=%.1fus, p90=%.1fus, p99=%.1fus, p999=%.1fus, max=%.1fus)",
+        count,
+        mean,
+        p50,
+        p90,
+        p99,
+        p999,
+        max
+      );
+  }
+}
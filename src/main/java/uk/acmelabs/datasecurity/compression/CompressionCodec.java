@@ -0,0 +1,56 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compression applied to plaintext before it is encrypted. Codecs are identified in message metadata by their id, and
+ * are looked up by id (see CompressionCodecs) when messages are decrypted. Additional codecs may be registered as
+ * services (via META-INF/services/uk.acmelabs.datasecurity.compression.CompressionCodec). Implementations must be
+ * thread safe.
+ */
+public interface CompressionCodec {
+
+  /**
+   * Identifier recorded in message metadata. Id 0 is reserved for uncompressed messages.
+   *
+   * @return codec id, between 1 and CompressionCodecs.MAX_ID
+   */
+  byte id();
+
+  String name();
+
+  /**
+   * Compresses the remaining bytes of source into target, starting at target's position. Should the compressed data
+   * not fit into the remaining bytes of target, then compression is abandoned (and buffer positions are undefined).
+   *
+   * @param source data to compress
+   * @param target buffer that compressed data is written to
+   * @return number of bytes written to target, or -1 if the compressed data does not fit into target
+   */
+  int compress(ByteBuffer source, ByteBuffer target);
+
+  /**
+   * Decompresses the remaining bytes of source into target, starting at target's position.
+   *
+   * @param source compressed data
+   * @param target buffer that decompressed data is written to
+   * @return number of bytes written to target
+   * @throws uk.acmelabs.datasecurity.api.MessageFormatException if source is malformed or does not fit into target
+   */
+  int decompress(ByteBuffer source, ByteBuffer target);
+}
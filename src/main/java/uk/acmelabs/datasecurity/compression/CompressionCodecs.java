@@ -0,0 +1,71 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.compression;
+
+import java.util.ServiceLoader;
+
+import uk.acmelabs.datasecurity.ConfigurationException;
+import uk.acmelabs.datasecurity.api.MessageFormatException;
+
+/**
+ * Registry of the compression codecs that messages may be decompressed with. DeflateCodec is always registered, and
+ * further codecs are discovered using ServiceLoader.
+ */
+public final class CompressionCodecs {
+
+  public static final byte NONE = 0;
+  public static final byte MAX_ID = 0x0F;
+
+  private static final CompressionCodec[] CODECS = load();
+
+  private CompressionCodecs() {
+  }
+
+  /**
+   * Codec used to decompress messages carrying the given id.
+   *
+   * @param id codec id from message metadata
+   * @return registered codec
+   * @throws MessageFormatException if no codec is registered with this id
+   */
+  public static CompressionCodec forId(final byte id) {
+    final CompressionCodec codec = id > NONE && id <= MAX_ID ? CODECS[id] : null;
+    if (codec == null) {
+      throw new MessageFormatException(String.format("Unsupported compression codec %d", id));
+    }
+    return codec;
+  }
+
+  private static CompressionCodec[] load() {
+    final CompressionCodec[] codecs = new CompressionCodec[MAX_ID + 1];
+    codecs[DeflateCodec.ID] = new DeflateCodec();
+
+    for (final CompressionCodec codec : ServiceLoader.load(CompressionCodec.class)) {
+      final byte id = codec.id();
+      if (id <= NONE || id > MAX_ID) {
+        throw new ConfigurationException(String.format("Compression codec %s has invalid id %d", codec.name(), id));
+      }
+      if (codecs[id] != null && codecs[id].getClass() != codec.getClass()) {
+        throw new ConfigurationException(
+          String.format("Compression codecs %s and %s share id %d", codecs[id].name(), codec.name(), id)
+        );
+      }
+      codecs[id] = codec;
+    }
+
+    return codecs;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.compression;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import uk.acmelabs.datasecurity.api.MessageFormatException;
+
+/**
+ * JDK Deflater based codec, writing raw (headerless) deflate data. Message integrity is already guaranteed by GCM, so
+ * no checksum is added. Deflaters and inflaters are reused per thread, avoiding zlib's per stream initialisation costs.
+ */
+public final class DeflateCodec implements CompressionCodec {
+
+  public static final byte ID = 1;
+
+  private final int level;
+  private final ThreadLocal<Deflater> deflaters;
+  private final ThreadLocal<Inflater> inflaters;
+
+  public DeflateCodec() {
+    this(Deflater.BEST_SPEED);
+  }
+
+  /**
+   * @param level compression level, between Deflater.BEST_SPEED and Deflater.BEST_COMPRESSION
+   */
+  public DeflateCodec(final int level) {
+    this.level = level;
+    this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    this.inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+  }
+
+  @Override
+  public byte id() {
+    return ID;
+  }
+
+  @Override
+  public String name() {
+    return "deflate";
+  }
+
+  public int level() {
+    return level;
+  }
+
+  @Override
+  public int compress(final ByteBuffer source, final ByteBuffer target) {
+    final Deflater deflater = deflaters.get();
+    final int start = target.position();
+
+    deflater.reset();
+    deflater.setInput(source);
+    deflater.finish();
+    try {
+      while (!deflater.finished()) {
+        if (!target.hasRemaining()) {
+          return -1;
+        }
+        deflater.deflate(target);
+      }
+
+      return target.position() - start;
+    } finally {
+      // Release the reference to source held by the deflater
+      deflater.reset();
+    }
+  }
+
+  @Override
+  public int decompress(final ByteBuffer source, final ByteBuffer target) {
+    final Inflater inflater = inflaters.get();
+    final int start = target.position();
+
+    inflater.reset();
+    inflater.setInput(source);
+    try {
+      while (!inflater.finished()) {
+        if (target.hasRemaining()) {
+          if (inflater.inflate(target) == 0 && inflater.needsInput()) {
+            throw new MessageFormatException("Compressed data is truncated");
+          }
+        } else if (inflater.inflate(new byte[1]) != 0 || !inflater.finished()) {
+          // The target is full, so the stream must end without producing further output
+          throw new MessageFormatException("Compressed data is truncated or larger than expected");
+        }
+      }
+
+      return target.position() - start;
+    } catch (DataFormatException exn) {
+      throw new MessageFormatException(String.format("Malformed compressed data: %s", exn.getMessage()));
+    } finally {
+      inflater.reset();
+    }
+  }
+}
@@ -15,9 +15,60 @@
  */
 package uk.acmelabs.datasecurity.consumer;
 
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
 import software.amazon.awssdk.services.iam.model.Role;
 import uk.acmelabs.datasecurity.AwsConfig;
 
 public abstract class ConsumerConfig extends AwsConfig {
   public abstract Role decryptRole();
+
+  /**
+   * Maximum number of decrypted data keys held by the consumer data key cache. By default, decrypted data keys are not
+   * cached.
+   *
+   * @return maximum number of cached data keys
+   */
+  public int dataKeyCacheMaxEntries() {
+    return 0;
+  }
+
+  /**
+   * Time to live for decrypted data keys held by the consumer data key cache.
+   *
+   * @return maximum data key age
+   */
+  public Duration dataKeyCacheTtl() {
+    return Duration.of(5, ChronoUnit.MINUTES);
+  }
+
+  /**
+   * Largest plaintext buffer held by the consumer's direct buffer pool. Larger messages are decrypted into unpooled
+   * buffers.
+   *
+   * @return maximum pooled buffer size in bytes
+   */
+  public int plaintextBufferMaxSize() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * Maximum total capacity of idle buffers held by the consumer's direct buffer pool.
+   *
+   * @return maximum pooled bytes
+   */
+  public long plaintextBufferPoolMaxBytes() {
+    return 16L * 1024 * 1024;
+  }
+
+  /**
+   * Largest uncompressed length accepted for compressed messages. Larger messages fail with a MessageFormatException,
+   * bounding the memory that a (possibly malicious) message may claim.
+   *
+   * @return maximum uncompressed message length in bytes
+   */
+  public int maxUncompressedLength() {
+    return 64 * 1024 * 1024;
+  }
 }
@@ -19,68 +19,481 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
-import javax.security.auth.DestroyFailedException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import uk.acmelabs.datasecurity.ExecutionStrategy;
 import uk.acmelabs.datasecurity.api.Message;
+import uk.acmelabs.datasecurity.api.MessageBatch;
+import uk.acmelabs.datasecurity.api.MessageFormatException;
+import uk.acmelabs.datasecurity.api.StreamHeader;
 import uk.acmelabs.datasecurity.aws.api.crypto.DataKeyEncryptor;
+import uk.acmelabs.datasecurity.aws.api.crypto.DecryptingChannel;
+import uk.acmelabs.datasecurity.aws.api.crypto.MappedFileCipher;
+import uk.acmelabs.datasecurity.aws.api.crypto.ParallelSegmentCipher;
+import uk.acmelabs.datasecurity.aws.api.crypto.SegmentCipher;
+import uk.acmelabs.datasecurity.aws.api.model.EncryptedDataKeyId;
 import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
-import uk.acmelabs.datasecurity.aws.client.KMS;
+import uk.acmelabs.datasecurity.aws.cache.DataKeyLease;
+import uk.acmelabs.datasecurity.aws.cache.DecryptionKeyCache;
+import uk.acmelabs.datasecurity.aws.client.KeyManagementService;
+import uk.acmelabs.datasecurity.compression.CompressionCodecs;
+import uk.acmelabs.datasecurity.io.BufferLease;
+import uk.acmelabs.datasecurity.jfr.ProcessEvent;
+import uk.acmelabs.datasecurity.jfr.ReceiveEvent;
+import uk.acmelabs.datasecurity.io.DirectBufferPool;
 
-final public class DataConsumer {
+final public class DataConsumer implements AutoCloseable {
 
-  private final KMS kms;
+  private final KeyManagementService kms;
+  private final DecryptionKeyCache dataKeyCache;
+  private final DirectBufferPool bufferPool;
   private final Function<ByteBuffer, CompletableFuture<Void>> processor;
   private final ConsumerConfig config;
+  private final ExecutionStrategy executionStrategy;
+  private final ForkJoinPool segmentPool;
 
   // WARNING: processor ByteBuffer argument data will be zeroed on return from this function call!
   public DataConsumer(final Function<ByteBuffer, CompletableFuture<Void>> processor, final ConsumerConfig config) {
     this.processor = processor;
     this.config = config;
-    this.kms = new KMS(config.decryptRole(), config);
+    this.executionStrategy = config.executionStrategy();
+    this.segmentPool = config.segmentPool();
+    this.kms = config.keyManagementService(config.decryptRole());
+    this.dataKeyCache =
+      new DecryptionKeyCache(kms::decryptDataKey, config.dataKeyCacheMaxEntries(), config.dataKeyCacheTtl());
+    this.bufferPool = new DirectBufferPool(config.plaintextBufferMaxSize(), config.plaintextBufferPoolMaxBytes());
+  }
+
+  public KeyManagementService keyManagementService() {
+    return kms;
+  }
+
+  public DecryptionKeyCache dataKeyCache() {
+    return dataKeyCache;
+  }
+
+  public DirectBufferPool bufferPool() {
+    return bufferPool;
   }
 
   public CompletableFuture<Void> receive(final Message message) {
-    return
-      kms
-        .decryptDataKey(message.getCMK(), message.getDataKey())
-        .thenComposeAsync(dataKey -> {
+    final ReceiveEvent event = ReceiveEvent.start();
+    final CompletableFuture<Void> result =
+      dataKeyCache
+        .acquire(message.getCMK(), message.getDataKey())
+        .thenComposeAsync(lease -> {
             try {
-              final PlaintextDataKey plaintextKey = dataKey.plaintextKey();
-              try {
-                final ByteBuffer plaintextMessage =
-                  ByteBuffer.allocateDirect(message.getData().length - message.getIV().length);
-                final DataKeyEncryptor encryptor = new DataKeyEncryptor(plaintextKey, message.getIV());
+              return process(lease.dataKey().plaintextKey(), message);
+            } finally {
+              lease.close();
+            }
+          },
+          executionStrategy.cryptoExecutor(message.getDataBuffer().remaining())
+        );
 
-                encryptor.decrypt(message.getData(), plaintextMessage);
-                plaintextMessage.position(0);
+    return event.record(result, message.getCMK().getId(), plaintextSize(message));
+  }
 
-                return this.processor.apply(plaintextMessage.asReadOnlyBuffer()).whenCompleteAsync((value, exn) -> {
-                  for (int index = 0; index < plaintextMessage.capacity(); index++) {
-                    plaintextMessage.put(index, (byte) 0);
-                  }
-                });
+  /**
+   * Blocking form of receive, intended for callers running on virtual threads (see ExecutionStrategy.virtualThreads).
+   *
+   * @param message message to decrypt
+   * @throws InterruptedException if interrupted whilst waiting
+   * @throws ExecutionException if decryption or processing fails
+   */
+  public void receiveBlocking(final Message message) throws InterruptedException, ExecutionException {
+    receive(message).get();
+  }
+
+  /**
+   * Decrypts a message directly into a caller supplied buffer, starting at its position (the buffer's position is not
+   * modified). The processor is passed a read-only view of the decrypted bytes, and these are zeroed once processing
+   * completes. The buffer must not be reused until the returned future resolves.
+   *
+   * @param message message to decrypt
+   * @param plaintext buffer with at least plaintextSize(message) bytes remaining
+   * @return future that resolves once the message has been decrypted and processed
+   */
+  public CompletableFuture<Void> receive(final Message message, final ByteBuffer plaintext) {
+    final ReceiveEvent event = ReceiveEvent.start();
+    final CompletableFuture<Void> result =
+      dataKeyCache
+        .acquire(message.getCMK(), message.getDataKey())
+        .thenComposeAsync(lease -> {
+            try {
+              final ByteBuffer plaintextMessage = plaintext.slice();
+
+              return
+                process(
+                  lease.dataKey().plaintextKey(),
+                  message,
+                  plaintextMessage,
+                  () -> DirectBufferPool.zero(plaintextMessage)
+                );
+            } finally {
+              lease.close();
+            }
+          },
+          executionStrategy.cryptoExecutor(message.getDataBuffer().remaining())
+        );
+
+    return event.record(result, message.getCMK().getId(), plaintextSize(message));
+  }
+
+  /**
+   * Decrypts and processes a collection of messages (e.g. a batch pulled from a broker). Messages are grouped by their
+   * CMK and encrypted data key, so that each distinct data key is decrypted once. Each group's messages are then
+   * decrypted in parallel (using the execution strategy's crypto executor) whilst sharing the group's data key.
+   *
+   * The returned future never fails - instead, each message's result records whether it was decrypted and processed.
+   *
+   * @param messages messages to decrypt
+   * @return future holding a result per message, in the collection's iteration order
+   */
+  public CompletableFuture<List<ReceiveResult>> receiveAll(final Collection<Message> messages) {
+    final List<Message> batch = new ArrayList<>(messages);
+    final Map<EncryptedDataKeyId, List<Integer>> groups = new LinkedHashMap<>();
+    for (int index = 0; index < batch.size(); index++) {
+      final Message message = batch.get(index);
+      final EncryptedDataKeyId id = new EncryptedDataKeyId(message.getCMK().getId(), message.getDataKey());
+
+      groups.computeIfAbsent(id, key -> new ArrayList<>()).add(index);
+    }
+
+    final List<CompletableFuture<ReceiveResult>> results = new ArrayList<>(batch.size());
+    for (int index = 0; index < batch.size(); index++) {
+      results.add(null);
+    }
+    for (final List<Integer> group : groups.values()) {
+      final Message first = batch.get(group.get(0));
+      final CompletableFuture<DataKeyLease> lease = dataKeyCache.acquire(first.getCMK(), first.getDataKey());
+      // The data key lease is released once every message in the group has been decrypted
+      final AtomicInteger pending = new AtomicInteger(group.size());
+
+      for (final int index : group) {
+        final Message message = batch.get(index);
+        final ReceiveEvent event = ReceiveEvent.start();
+        final CompletableFuture<Void> result =
+          lease.thenComposeAsync(dataKeyLease -> {
+              try {
+                return process(dataKeyLease.dataKey().plaintextKey(), message);
               } finally {
-                plaintextKey.destroy();
+                if (pending.decrementAndGet() == 0) {
+                  dataKeyLease.close();
+                }
               }
-            } catch (NoSuchAlgorithmException
-              | NoSuchPaddingException
-              | InvalidKeyException
-              | InvalidAlgorithmParameterException
-              | IllegalBlockSizeException
-              | BadPaddingException
-              | ShortBufferException
-              | DestroyFailedException exn
-            ) {
-              return CompletableFuture.failedFuture(exn);
+            },
+            executionStrategy.cryptoExecutor(message.getDataBuffer().remaining())
+          );
+
+        results.set(
+          index,
+          event
+            .record(result, message.getCMK().getId(), plaintextSize(message))
+            .handle((value, exn) ->
+              exn == null ? ReceiveResult.success(message) : ReceiveResult.failure(message, unwrap(exn))
+            )
+        );
+      }
+    }
+
+    return
+      CompletableFuture
+        .allOf(results.toArray(CompletableFuture<?>[]::new))
+        .thenApply(value -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+  }
+
+  /**
+   * Size of the buffer needed to hold a decrypted (and, if compressed, decompressed) message.
+   *
+   * @param message encrypted message
+   * @return plaintext length in bytes
+   */
+  public static int plaintextSize(final Message message) {
+    if (message.isCompressed()) {
+      return message.getUncompressedLength();
+    }
+    return decryptedSize(message);
+  }
+
+  public CompletableFuture<Void> receiveBatch(final MessageBatch batch) {
+    return
+      dataKeyCache
+        .acquire(batch.getCMK(), batch.getDataKey())
+        .thenComposeAsync(lease -> {
+            try {
+              final PlaintextDataKey plaintextKey = lease.dataKey().plaintextKey();
+
+              return
+                CompletableFuture.allOf(
+                  batch
+                    .getMessages()
+                    .stream()
+                    .map(message -> process(plaintextKey, message))
+                    .toArray(CompletableFuture<?>[]::new)
+                );
+            } finally {
+              lease.close();
+            }
+          },
+          executionStrategy.cryptoExecutor(batchSize(batch))
+        );
+  }
+
+  /**
+   * Decrypts a stream written by DataProducer.sendStream. The stream header is read, and its data key decrypted, before
+   * the returned future resolves. Plaintext is then decrypted, and authenticated, a segment at a time as the returned
+   * channel is read. Closing the returned channel zeroes any buffered plaintext and closes the source channel.
+   *
+   * @param source blocking channel holding the encrypted stream
+   * @return future holding the plaintext channel
+   */
+  public CompletableFuture<ReadableByteChannel> receiveStream(final ReadableByteChannel source) {
+    return
+      CompletableFuture
+        .supplyAsync(() -> {
+            try {
+              return StreamHeader.read(source);
+            } catch (IOException exn) {
+              throw new UncheckedIOException(exn);
             }
           },
-          config.defaultExecutor()
+          executionStrategy.blockingExecutor()
+        )
+        .thenCompose(header ->
+          dataKeyCache
+            .acquire(header.getCMK(), header.getDataKey())
+            .thenApply(lease -> {
+              final SegmentCipher cipher =
+                new SegmentCipher(lease.dataKey().plaintextKey(), header.getNoncePrefix(), header.toByteArray());
+
+              return new DecryptingChannel(cipher, header.getSegmentSize(), source, lease::close);
+            })
+        );
+  }
+
+  public CompletableFuture<InputStream> receiveStream(final InputStream source) {
+    return receiveStream(Channels.newChannel(source)).thenApply(Channels::newInputStream);
+  }
+
+  /**
+   * Decrypts a file written by DataProducer.sendFile (or a stream written by DataProducer.sendStream). The encrypted
+   * file is memory mapped and plaintext is written directly to the target file. If decryption fails, the target file
+   * is deleted.
+   *
+   * @param source encrypted file
+   * @param target file that plaintext is written to (created or truncated)
+   * @return future that resolves once the whole file has been decrypted and written
+   */
+  public CompletableFuture<Void> receiveFile(final Path source, final Path target) {
+    return
+      CompletableFuture
+        .supplyAsync(() -> {
+            try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+              return StreamHeader.read(input);
+            } catch (IOException exn) {
+              throw new UncheckedIOException(exn);
+            }
+          },
+          executionStrategy.blockingExecutor()
+        )
+        .thenCompose(header ->
+          dataKeyCache
+            .acquire(header.getCMK(), header.getDataKey())
+            .thenApplyAsync(lease -> {
+                final byte[] aad = header.toByteArray();
+                final SegmentCipher cipher =
+                  new SegmentCipher(lease.dataKey().plaintextKey(), header.getNoncePrefix(), aad);
+
+                try {
+                  try (
+                    FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+                    FileChannel output =
+                      FileChannel.open(
+                        target,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE
+                      )
+                  ) {
+                    new MappedFileCipher(cipher, header.getSegmentSize()).decrypt(input, aad.length, output);
+                  } catch (IOException exn) {
+                    Files.deleteIfExists(target);
+                    throw exn;
+                  }
+                  return null;
+                } catch (IOException exn) {
+                  throw new UncheckedIOException(exn);
+                } finally {
+                  lease.close();
+                }
+              },
+              executionStrategy.blockingExecutor()
+            )
+        );
+  }
+
+  /**
+   * Destroys cached data keys and releases this consumer's (shared) KMS client. Messages should not be received once
+   * the consumer is closed.
+   */
+  @Override
+  public void close() {
+    dataKeyCache.invalidateAll();
+    kms.close();
+  }
+
+  private static Throwable unwrap(final Throwable exn) {
+    return exn instanceof CompletionException && exn.getCause() != null ? exn.getCause() : exn;
+  }
+
+  private static long batchSize(final MessageBatch batch) {
+    return batch.getMessages().stream().mapToLong(message -> message.getDataBuffer().remaining()).sum();
+  }
+
+  private CompletableFuture<Void> process(final PlaintextDataKey plaintextKey, final Message message) {
+    if (message.getUncompressedLength() > config.maxUncompressedLength()) {
+      return
+        CompletableFuture.failedFuture(
+          new MessageFormatException(
+            String.format("Uncompressed message length %d exceeds the maximum", message.getUncompressedLength())
+          )
         );
+    }
+
+    final BufferLease lease = bufferPool.acquire(plaintextSize(message));
+
+    return process(plaintextKey, message, lease.buffer(), lease::close);
+  }
+
+  private CompletableFuture<Void> process(
+    final PlaintextDataKey plaintextKey,
+    final Message message,
+    final ByteBuffer plaintextMessage,
+    final Runnable release
+  ) {
+    try {
+      final int plaintextLength =
+        message.isCompressed()
+          ? decryptAndDecompress(plaintextKey, message, plaintextMessage)
+          : decrypt(plaintextKey, message, plaintextMessage);
+      plaintextMessage.flip();
+      // Pooled buffers are sized by class, so the processor's view is sliced to have a capacity of plaintextLength
+      final ByteBuffer plaintextView = plaintextMessage.slice().asReadOnlyBuffer();
+
+      final ProcessEvent event = ProcessEvent.start();
+
+      return
+        event
+          .record(this.processor.apply(plaintextView), message.getCMK().getId(), plaintextLength)
+          .whenCompleteAsync((value, exn) -> release.run(), executionStrategy.continuationExecutor());
+    } catch (NoSuchAlgorithmException
+      | NoSuchPaddingException
+      | InvalidKeyException
+      | InvalidAlgorithmParameterException
+      | IllegalBlockSizeException
+      | BadPaddingException
+      | ShortBufferException exn
+    ) {
+      release.run();
+      return CompletableFuture.failedFuture(exn);
+    } catch (RuntimeException exn) {
+      release.run();
+      throw exn;
+    }
+  }
+
+  // Compressed plaintext is decrypted into a pooled buffer, and then inflated directly into the plaintext buffer
+  private int decryptAndDecompress(
+    final PlaintextDataKey plaintextKey,
+    final Message message,
+    final ByteBuffer plaintextMessage
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    if (message.getUncompressedLength() > plaintextMessage.remaining()) {
+      throw new ShortBufferException("Plaintext buffer is smaller than the uncompressed message");
+    }
+
+    try (BufferLease compressed = bufferPool.acquire(decryptedSize(message))) {
+      final ByteBuffer compressedMessage = compressed.buffer();
+      decrypt(plaintextKey, message, compressedMessage);
+      compressedMessage.flip();
+
+      final ByteBuffer target =
+        plaintextMessage.duplicate().limit(plaintextMessage.position() + message.getUncompressedLength());
+      final int length = CompressionCodecs.forId(message.getCompressionCodec()).decompress(compressedMessage, target);
+      if (length != message.getUncompressedLength()) {
+        throw new MessageFormatException("Decompressed message length does not match its uncompressed length");
+      }
+      plaintextMessage.position(plaintextMessage.position() + length);
+
+      return length;
+    }
+  }
+
+  // Segmented messages are decrypted in parallel on the segment pool
+  private int decrypt(
+    final PlaintextDataKey plaintextKey,
+    final Message message,
+    final ByteBuffer target
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException,
+    ShortBufferException {
+    if (!message.isSegmented()) {
+      return new DataKeyEncryptor(plaintextKey, message.getIV()).decrypt(message.getDataBuffer(), target);
+    }
+    if (message.getIVBuffer().remaining() != SegmentCipher.NONCE_PREFIX_LENGTH) {
+      throw new MessageFormatException("Segmented message has an invalid nonce prefix length");
+    }
+
+    final ParallelSegmentCipher cipher =
+      new ParallelSegmentCipher(plaintextKey, message.getIV(), message.getSegmentSize(), segmentPool);
+
+    return cipher.decrypt(message.getDataBuffer(), target);
+  }
+
+  // Length of the (possibly compressed) plaintext held by a message's ciphertext
+  private static int decryptedSize(final Message message) {
+    final int encryptedLength = message.getDataBuffer().remaining();
+
+    return
+      message.isSegmented()
+        ? ParallelSegmentCipher.plaintextLength(encryptedLength, message.getSegmentSize())
+        : DataKeyEncryptor.plaintextLength(encryptedLength);
   }
 }
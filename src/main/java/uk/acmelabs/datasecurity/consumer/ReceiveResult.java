@@ -0,0 +1,61 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.consumer;
+
+import java.util.Optional;
+
+import uk.acmelabs.datasecurity.api.Message;
+
+/**
+ * Outcome of decrypting and processing a single message received by DataConsumer.receiveAll.
+ */
+public final class ReceiveResult {
+
+  private final Message message;
+  private final Throwable error;
+
+  private ReceiveResult(final Message message, final Throwable error) {
+    this.message = message;
+    this.error = error;
+  }
+
+  static ReceiveResult success(final Message message) {
+    return new ReceiveResult(message, null);
+  }
+
+  static ReceiveResult failure(final Message message, final Throwable error) {
+    return new ReceiveResult(message, error);
+  }
+
+  public Message getMessage() {
+    return message;
+  }
+
+  public boolean isSuccessful() {
+    return error == null;
+  }
+
+  /**
+   * @return reason the message could not be decrypted or processed (empty if it was successful)
+   */
+  public Optional<Throwable> getError() {
+    return Optional.ofNullable(error);
+  }
+
+  public String toString() {
+    return String.format("ReceiveResult(message=%s, error=%s)", message, error);
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.io;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+
+/**
+ * A direct buffer borrowed from a DirectBufferPool. Closing the lease zeroes the buffer and returns it to the pool, so
+ * neither the buffer nor any views of it may be used once the lease is closed.
+ */
+public final class BufferLease implements AutoCloseable {
+
+  private final ByteBuffer buffer;
+  private final DirectBufferPool.Release release;
+  private final Cleaner.Cleanable cleanable;
+
+  BufferLease(final ByteBuffer buffer, final DirectBufferPool.Release release, final Cleaner cleaner) {
+    this.buffer = buffer;
+    this.release = release;
+    this.cleanable = cleaner.register(this, release);
+  }
+
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  @Override
+  public void close() {
+    release.close();
+    cleanable.clean();
+  }
+}
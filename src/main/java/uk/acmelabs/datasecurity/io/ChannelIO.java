@@ -0,0 +1,81 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Helpers for blocking channel I/O.
+ */
+public final class ChannelIO {
+
+  private ChannelIO() {
+  }
+
+  /**
+   * Reads from a channel until the buffer is full or the end of the stream is reached.
+   *
+   * @param source blocking channel to read from
+   * @param buffer buffer to fill
+   * @return number of bytes read, or -1 if the end of the stream was reached before any bytes were read
+   * @throws IOException if reading from the channel fails
+   */
+  public static int readFully(final ReadableByteChannel source, final ByteBuffer buffer) throws IOException {
+    int total = 0;
+    while (buffer.hasRemaining()) {
+      final int count = source.read(buffer);
+      if (count < 0) {
+        return total == 0 ? -1 : total;
+      }
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Reads exactly the given number of bytes from a channel.
+   *
+   * @param source blocking channel to read from
+   * @param length number of bytes to read
+   * @return flipped heap buffer holding the bytes read
+   * @throws IOException if reading from the channel fails or the end of the stream is reached early
+   */
+  public static ByteBuffer readExactly(final ReadableByteChannel source, final int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    readFully(source, buffer);
+    if (buffer.hasRemaining()) {
+      throw new EOFException(String.format("expected %d bytes, but stream ended after %d", length, buffer.position()));
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * Writes all remaining bytes of a buffer to a channel.
+   *
+   * @param sink blocking channel to write to
+   * @param buffer buffer to drain
+   * @throws IOException if writing to the channel fails
+   */
+  public static void writeFully(final WritableByteChannel sink, final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      sink.write(buffer);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.io;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+/**
+ * Pool of direct buffers, in power of two size classes, for holding plaintext. Buffers are zeroed as they are released
+ * back to the pool. Requests larger than the largest size class are allocated (and zeroed on release) without
+ * pooling.
+ *
+ * Leases that become unreachable without being closed are reported as leaks - their buffers are zeroed and dropped.
+ */
+public final class DirectBufferPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DirectBufferPool.class);
+  private static final Cleaner CLEANER = Cleaner.create();
+  private static final int MIN_SIZE_SHIFT = 8;
+  private static final byte[] ZEROS = new byte[4096];
+
+  private final int maxBufferSize;
+  private final long maxPooledBytes;
+  private final List<Deque<ByteBuffer>> classes;
+  private final AtomicLong pooledBytes;
+  private final AtomicLong pooledBuffers;
+  private final AtomicLong leasedBuffers;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder leaks;
+
+  public DirectBufferPool(final int maxBufferSize, final long maxPooledBytes) {
+    assert maxBufferSize > 0 && maxPooledBytes >= 0;
+
+    final int maxSizeShift = Math.max(MIN_SIZE_SHIFT, 32 - Integer.numberOfLeadingZeros(maxBufferSize - 1));
+
+    this.maxBufferSize = 1 << maxSizeShift;
+    this.maxPooledBytes = maxPooledBytes;
+    this.classes = new ArrayList<>();
+    for (int shift = MIN_SIZE_SHIFT; shift <= maxSizeShift; shift++) {
+      classes.add(new ConcurrentLinkedDeque<>());
+    }
+    this.pooledBytes = new AtomicLong();
+    this.pooledBuffers = new AtomicLong();
+    this.leasedBuffers = new AtomicLong();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.leaks = new LongAdder();
+  }
+
+  /**
+   * Leases a zeroed direct buffer with (at least) the requested capacity. The lease's buffer has its position at zero
+   * and its limit set to the requested size.
+   *
+   * @param size buffer size in bytes
+   * @return buffer lease, which must be closed once the buffer is no longer in use
+   */
+  public BufferLease acquire(final int size) {
+    assert size >= 0;
+
+    ByteBuffer buffer = null;
+    if (size <= maxBufferSize) {
+      buffer = classes.get(sizeClass(size)).pollFirst();
+    }
+
+    if (buffer == null) {
+      misses.increment();
+      buffer = ByteBuffer.allocateDirect(size <= maxBufferSize ? 1 << (sizeClass(size) + MIN_SIZE_SHIFT) : size);
+    } else {
+      hits.increment();
+      pooledBuffers.decrementAndGet();
+      pooledBytes.addAndGet(-buffer.capacity());
+    }
+    leasedBuffers.incrementAndGet();
+
+    final ByteBuffer view = buffer.duplicate();
+    view.limit(size);
+
+    return new BufferLease(view, new Release(this, buffer), CLEANER);
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getLeaks() {
+    return leaks.sum();
+  }
+
+  /**
+   * Number of idle buffers held by the pool.
+   *
+   * @return idle buffer count
+   */
+  public long getPooledBuffers() {
+    return pooledBuffers.get();
+  }
+
+  /**
+   * Total capacity of the idle buffers held by the pool.
+   *
+   * @return idle buffer bytes
+   */
+  public long getPooledBytes() {
+    return pooledBytes.get();
+  }
+
+  /**
+   * Number of buffers currently leased from the pool.
+   *
+   * @return leased buffer count
+   */
+  public long getLeasedBuffers() {
+    return leasedBuffers.get();
+  }
+
+  /**
+   * Zeroes the whole capacity of a buffer, using bulk copies. The buffer's position and limit are not modified.
+   *
+   * @param buffer buffer to zero
+   */
+  public static void zero(final ByteBuffer buffer) {
+    final ByteBuffer target = buffer.duplicate().clear();
+    while (target.hasRemaining()) {
+      target.put(ZEROS, 0, Math.min(ZEROS.length, target.remaining()));
+    }
+  }
+
+  private void release(final ByteBuffer buffer, final boolean leaked) {
+    zero(buffer);
+    leasedBuffers.decrementAndGet();
+
+    if (leaked) {
+      leaks.increment();
+      LOG.warn("DirectBufferPool.leak", keyValue("capacity", buffer.capacity()));
+      return;
+    }
+
+    if (buffer.capacity() <= maxBufferSize) {
+      if (pooledBytes.addAndGet(buffer.capacity()) <= maxPooledBytes) {
+        pooledBuffers.incrementAndGet();
+        classes.get(sizeClass(buffer.capacity())).offerFirst(buffer);
+      } else {
+        pooledBytes.addAndGet(-buffer.capacity());
+      }
+    }
+  }
+
+  private static int sizeClass(final int size) {
+    if (size <= 1 << MIN_SIZE_SHIFT) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT;
+  }
+
+  // Must not reference the lease, otherwise the cleaner would never run
+  static final class Release implements Runnable {
+
+    private final DirectBufferPool pool;
+    private final ByteBuffer buffer;
+    private volatile boolean closed;
+
+    Release(final DirectBufferPool pool, final ByteBuffer buffer) {
+      this.pool = pool;
+      this.buffer = buffer;
+    }
+
+    void close() {
+      closed = true;
+    }
+
+    @Override
+    public void run() {
+      pool.release(buffer, !closed);
+    }
+  }
+}
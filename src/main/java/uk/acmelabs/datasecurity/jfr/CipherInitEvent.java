@@ -0,0 +1,46 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("uk.acmelabs.datasecurity.CipherInit")
+@Label("Cipher Init")
+@Description("Acquiring, and initialising, a Cipher from a data key's cipher context")
+@Category({"Data Security", "Crypto"})
+@StackTrace(false)
+public final class CipherInitEvent extends Event {
+
+  @Label("Mode")
+  private String mode;
+
+  /**
+   * Commits this event, if it is enabled.
+   *
+   * @param mode cipher mode (encrypt or decrypt)
+   */
+  public void complete(final String mode) {
+    if (shouldCommit()) {
+      this.mode = mode;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.jfr;
+
+import java.util.concurrent.CompletableFuture;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("uk.acmelabs.datasecurity.KmsCall")
+@Label("KMS Call")
+@Description("KMS request, from the call until its response (including any retries or hedge requests)")
+@Category({"Data Security", "KMS"})
+@StackTrace(false)
+public final class KmsCallEvent extends Event {
+
+  // Never committed - returned by start when the event is disabled, so that no event is allocated
+  private static final KmsCallEvent DISABLED = new KmsCallEvent();
+
+  @Label("Operation")
+  private String operation;
+
+  @Label("CMK Id")
+  private String cmkId;
+
+  @Label("Successful")
+  private boolean successful;
+
+  public static KmsCallEvent start() {
+    if (!DISABLED.isEnabled()) {
+      return DISABLED;
+    }
+
+    final KmsCallEvent event = new KmsCallEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Commits this event once the future completes.
+   *
+   * @param future KMS call being timed
+   * @param operation KMS operation (e.g. Decrypt)
+   * @param cmkId CMK id
+   * @param <T> future value type
+   * @return future
+   */
+  public <T> CompletableFuture<T> record(
+    final CompletableFuture<T> future,
+    final String operation,
+    final String cmkId
+  ) {
+    if (this != DISABLED) {
+      future.whenComplete((value, exn) -> {
+        if (shouldCommit()) {
+          this.operation = operation;
+          this.cmkId = cmkId;
+          this.successful = exn == null;
+          commit();
+        }
+      });
+    }
+    return future;
+  }
+}
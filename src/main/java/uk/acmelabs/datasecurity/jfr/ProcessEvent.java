@@ -0,0 +1,84 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.jfr;
+
+import java.util.concurrent.CompletableFuture;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("uk.acmelabs.datasecurity.Process")
+@Label("Message Process")
+@Description("Consumer processor function, from the call until its future resolves")
+@Category({"Data Security", "Consumer"})
+@StackTrace(false)
+public final class ProcessEvent extends Event {
+
+  // Never committed - returned by start when the event is disabled, so that no event is allocated
+  private static final ProcessEvent DISABLED = new ProcessEvent();
+
+  @Label("CMK Id")
+  private String cmkId;
+
+  @Label("Payload Size")
+  @DataAmount
+  private long payloadSize;
+
+  @Label("Successful")
+  private boolean successful;
+
+  public static ProcessEvent start() {
+    if (!DISABLED.isEnabled()) {
+      return DISABLED;
+    }
+
+    final ProcessEvent event = new ProcessEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Commits this event once the future completes.
+   *
+   * @param future stage being timed
+   * @param cmkId CMK id
+   * @param payloadSize plaintext size in bytes
+   * @param <T> future value type
+   * @return future
+   */
+  public <T> CompletableFuture<T> record(
+    final CompletableFuture<T> future,
+    final String cmkId,
+    final long payloadSize
+  ) {
+    if (this != DISABLED) {
+      future.whenComplete((value, exn) -> {
+        if (shouldCommit()) {
+          this.cmkId = cmkId;
+          this.payloadSize = payloadSize;
+          this.successful = exn == null;
+          commit();
+        }
+      });
+    }
+    return future;
+  }
+}
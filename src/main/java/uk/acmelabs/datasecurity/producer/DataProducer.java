@@ -18,48 +18,275 @@ package uk.acmelabs.datasecurity.producer;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.security.auth.DestroyFailedException;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 
 import uk.acmelabs.datasecurity.api.Message;
+import uk.acmelabs.datasecurity.api.MessageBatch;
+import uk.acmelabs.datasecurity.api.StreamHeader;
 import uk.acmelabs.datasecurity.aws.api.crypto.DataKeyEncryptor;
+import uk.acmelabs.datasecurity.aws.api.crypto.IvGenerator;
+import uk.acmelabs.datasecurity.aws.api.crypto.MappedFileCipher;
+import uk.acmelabs.datasecurity.aws.api.crypto.ParallelSegmentCipher;
+import uk.acmelabs.datasecurity.aws.api.crypto.SegmentCipher;
+import uk.acmelabs.datasecurity.aws.api.crypto.StreamEncryptor;
+import uk.acmelabs.datasecurity.ExecutionStrategy;
 import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.aws.api.model.DataKey;
 import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKey;
-import uk.acmelabs.datasecurity.aws.client.KMS;
+import uk.acmelabs.datasecurity.aws.cache.DataKeyLease;
+import uk.acmelabs.datasecurity.aws.cache.EncryptionKeyCache;
+import uk.acmelabs.datasecurity.aws.client.KeyManagementService;
+import uk.acmelabs.datasecurity.compression.CompressionCodec;
+import uk.acmelabs.datasecurity.jfr.DeliverEvent;
+import uk.acmelabs.datasecurity.jfr.SendEvent;
 
-final public class DataProducer {
+final public class DataProducer implements AutoCloseable {
 
-  private final KMS kms;
+  private final KeyManagementService kms;
+  private final EncryptionKeyCache dataKeyCache;
+  private final Optional<LingerBatcher> batcher;
   private final Function<Message, CompletableFuture<Void>> deliver;
+  private final Function<MessageBatch, CompletableFuture<Void>> deliverBatch;
   private final ProducerConfig config;
+  private final IvGenerator ivGenerator;
+  private final ExecutionStrategy executionStrategy;
+  private final Optional<CompressionCodec> compressionCodec;
+  private final int compressionThreshold;
+  private final long segmentationThreshold;
+  private final int segmentSize;
+  private final ForkJoinPool segmentPool;
 
   public DataProducer(final Function<Message, CompletableFuture<Void>> deliver, final ProducerConfig config) {
+    this(deliver, batch -> deliverEach(deliver, batch), config);
+  }
+
+  public DataProducer(
+    final Function<Message, CompletableFuture<Void>> deliver,
+    final Function<MessageBatch, CompletableFuture<Void>> deliverBatch,
+    final ProducerConfig config
+  ) {
     this.deliver = deliver;
+    this.deliverBatch = deliverBatch;
     this.config = config;
-    this.kms = new KMS(config.encryptRole(), config);
+    this.ivGenerator = config.ivGenerator();
+    this.executionStrategy = config.executionStrategy();
+    this.compressionCodec = config.compressionCodec();
+    this.compressionThreshold = config.compressionThreshold();
+    this.segmentationThreshold = config.segmentationThreshold();
+    this.segmentSize = config.segmentSize();
+    this.segmentPool = config.segmentPool();
+    this.kms = config.keyManagementService(config.encryptRole());
+    this.dataKeyCache =
+      new EncryptionKeyCache(
+        kms::generateDataKey,
+        config.dataKeyMaxMessages(),
+        config.dataKeyMaxBytes(),
+        config.dataKeyMaxAge()
+      );
+    if (config.lingerTime().isZero()) {
+      this.batcher = Optional.empty();
+    } else {
+      this.batcher =
+        Optional.of(
+          new LingerBatcher(this::sendBatch, config.lingerTime(), config.lingerMaxMessages(), config.defaultExecutor())
+        );
+    }
+  }
+
+  public KeyManagementService keyManagementService() {
+    return kms;
+  }
+
+  public EncryptionKeyCache dataKeyCache() {
+    return dataKeyCache;
   }
 
   final public CompletableFuture<Void> send(final ByteBuffer data, final CMK cmk) {
     assert data.isReadOnly();
 
+    if (batcher.isPresent()) {
+      return SendEvent.start().record(batcher.get().add(data, cmk), cmk.getId(), data.capacity());
+    }
+
+    return sendIndividually(data, cmk).thenAccept(message -> { });
+  }
+
+  /**
+   * Publishes the messages sent by this producer as a reactive stream processor. Upstream plaintexts are sent (as by
+   * send, but bypassing any linger batching) with at most processorMaxInFlight sends in flight, and the delivered
+   * messages are published in upstream order.
+   *
+   * @param cmk KMS CMK used to generate data keys
+   * @return processor
+   */
+  public DataProducerProcessor processor(final CMK cmk) {
+    return processor(cmk, config.processorMaxInFlight());
+  }
+
+  /**
+   * As processor(cmk), but with an explicit in flight limit.
+   *
+   * @param cmk KMS CMK used to generate data keys
+   * @param maxInFlight maximum number of sent messages that are not yet published downstream
+   * @return processor
+   */
+  public DataProducerProcessor processor(final CMK cmk, final int maxInFlight) {
+    return new DataProducerProcessor(this, cmk, maxInFlight);
+  }
+
+  // Encrypts and delivers a single message, bypassing any linger batching, and resolves to the delivered message
+  CompletableFuture<Message> sendIndividually(final ByteBuffer data, final CMK cmk) {
+    assert data.isReadOnly();
+
+    final SendEvent event = SendEvent.start();
+    // Segmented payloads make a GCM invocation per segment, under a random 56 bit nonce prefix, and so are not counted
+    // correctly against the cached data key's invocation limit. Compression never lengthens a payload, so only
+    // payloads of at least the segmentation threshold can be segmented
+    final CompletableFuture<DataKeyLease> dataKey =
+      data.capacity() < segmentationThreshold
+        ? dataKeyCache.acquire(cmk, data.capacity())
+        : dataKeyCache.acquireDedicated(cmk);
+    final CompletableFuture<Message> result =
+      dataKey
+        .thenComposeAsync(lease -> {
+            try {
+              try {
+                final Message message = compressAndEncrypt(lease.dataKey(), data, cmk);
+
+                return
+                  DeliverEvent
+                    .start()
+                    .record(deliver.apply(message), cmk.getId(), data.capacity())
+                    .thenApply(ignored -> message);
+              } finally {
+                lease.close();
+              }
+            } catch (NoSuchAlgorithmException
+              | NoSuchPaddingException
+              | InvalidKeyException
+              | InvalidAlgorithmParameterException
+              | IllegalBlockSizeException
+              | BadPaddingException exn
+            ) {
+              return CompletableFuture.failedFuture(exn);
+            }
+          },
+          executionStrategy.cryptoExecutor(data.capacity())
+        );
+
+    return event.record(result, cmk.getId(), data.capacity());
+  }
+
+  /**
+   * Blocking form of send, intended for callers running on virtual threads (see ExecutionStrategy.virtualThreads).
+   *
+   * @param data plaintext message
+   * @param cmk KMS CMK used to generate the data key
+   * @throws InterruptedException if interrupted whilst waiting
+   * @throws ExecutionException if encryption or delivery fails
+   */
+  public void sendBlocking(final ByteBuffer data, final CMK cmk) throws InterruptedException, ExecutionException {
+    send(data, cmk).get();
+  }
+
+  final public CompletableFuture<Void> sendBatch(final List<ByteBuffer> data, final CMK cmk) {
+    assert data.stream().allMatch(ByteBuffer::isReadOnly);
+
+    final long bytes = data.stream().mapToLong(ByteBuffer::capacity).sum();
+
     return
-      kms
-        .generateDataKey(cmk)
-        .thenComposeAsync(dataKey -> {
+      dataKeyCache
+        .acquire(cmk, data.size(), bytes)
+        .thenComposeAsync(lease -> {
+            try {
+              try {
+                final DataKey dataKey = lease.dataKey();
+                final List<byte[]> encryptedData = new ArrayList<>(data.size());
+                final List<byte[]> ivs = new ArrayList<>(data.size());
+
+                for (final ByteBuffer message : data) {
+                  final Message encryptedMessage = encrypt(dataKey, message, cmk);
+                  encryptedData.add(encryptedMessage.getData());
+                  ivs.add(encryptedMessage.getIV());
+                }
+
+                return deliverBatch.apply(new MessageBatch(encryptedData, ivs, dataKey.encryptedKey(), cmk));
+              } finally {
+                lease.close();
+              }
+            } catch (NoSuchAlgorithmException
+              | NoSuchPaddingException
+              | InvalidKeyException
+              | InvalidAlgorithmParameterException
+              | IllegalBlockSizeException
+              | BadPaddingException exn
+            ) {
+              return CompletableFuture.failedFuture(exn);
+            }
+          },
+          executionStrategy.cryptoExecutor(bytes)
+        );
+  }
+
+  /**
+   * Encrypts a message directly into a caller supplied buffer, bypassing any linger batching. Plaintext is read from
+   * the remaining bytes of data, and ciphertext is written to output starting at its position - neither buffer's
+   * position is modified. The delivered message's data is a view over output, so output must not be reused until the
+   * returned future resolves.
+   *
+   * @param data plaintext message
+   * @param cmk KMS CMK used to generate the data key
+   * @param output buffer with at least encryptedSize(data.remaining()) bytes remaining
+   * @return future that resolves once the message has been encrypted and delivered
+   */
+  final public CompletableFuture<Void> send(final ByteBuffer data, final CMK cmk, final ByteBuffer output) {
+    final SendEvent event = SendEvent.start();
+    final CompletableFuture<Void> result =
+      dataKeyCache
+        .acquire(cmk, data.remaining())
+        .thenComposeAsync(lease -> {
             try {
-              final PlaintextDataKey plaintextKey = dataKey.plaintextKey();
               try {
-                final DataKeyEncryptor encryptor = new DataKeyEncryptor(plaintextKey);
-                 final byte[] encryptedData = encryptor.encrypt(data);
+                final DataKey dataKey = lease.dataKey();
+                final DataKeyEncryptor encryptor = new DataKeyEncryptor(dataKey.plaintextKey(), ivGenerator);
+                final ByteBuffer encryptedData = output.slice();
 
-                return deliver.apply(new Message(encryptedData, dataKey.encryptedKey(), encryptor.getIV(), cmk));
+                encryptor.encrypt(data.duplicate(), encryptedData);
+                encryptedData.flip();
+
+                final Message message =
+                  new Message(
+                    encryptedData,
+                    ByteBuffer.wrap(dataKey.encryptedKey()),
+                    ByteBuffer.wrap(encryptor.getIV()),
+                    cmk
+                  );
+
+                return DeliverEvent.start().record(deliver.apply(message), cmk.getId(), data.remaining());
               } finally {
-                plaintextKey.destroy();
+                lease.close();
               }
             } catch (NoSuchAlgorithmException
               | NoSuchPaddingException
@@ -67,12 +294,270 @@ final public class DataProducer {
               | InvalidAlgorithmParameterException
               | IllegalBlockSizeException
               | BadPaddingException
-              | DestroyFailedException exn
+              | ShortBufferException exn
             ) {
               return CompletableFuture.failedFuture(exn);
             }
           },
-          config.defaultExecutor()
+          executionStrategy.cryptoExecutor(data.remaining())
+        );
+
+    return event.record(result, cmk.getId(), data.remaining());
+  }
+
+  /**
+   * Size of the buffer needed to hold an encrypted message.
+   *
+   * @param plaintextLength plaintext message length in bytes
+   * @return ciphertext length in bytes
+   */
+  public static int encryptedSize(final int plaintextLength) {
+    return DataKeyEncryptor.encryptedLength(plaintextLength);
+  }
+
+  /**
+   * Encrypts a plaintext stream, of arbitrary length, under a single dedicated (i.e. uncached) data key. The encrypted
+   * stream (a header followed by individually authenticated segments) is written to the sink channel. Both channels
+   * are expected to be blocking.
+   *
+   * @param source plaintext channel
+   * @param sink channel that the encrypted stream is written to
+   * @param cmk KMS CMK used to generate the data key
+   * @return future that resolves once the whole stream has been encrypted and written
+   */
+  final public CompletableFuture<Void> sendStream(
+    final ReadableByteChannel source,
+    final WritableByteChannel sink,
+    final CMK cmk
+  ) {
+    // The stream length is unknown, so it can not be accounted against the cached data key's byte limit
+    return
+      dataKeyCache
+        .acquireDedicated(cmk)
+        .thenApplyAsync(lease -> {
+            try {
+              final DataKey dataKey = lease.dataKey();
+              final StreamHeader header =
+                new StreamHeader(
+                  config.streamSegmentSize(),
+                  SegmentCipher.generateNoncePrefix(),
+                  dataKey.encryptedKey(),
+                  cmk
+                );
+              final byte[] aad = header.toByteArray();
+              final SegmentCipher cipher = new SegmentCipher(dataKey.plaintextKey(), header.getNoncePrefix(), aad);
+
+              header.write(sink);
+              new StreamEncryptor(cipher, header.getSegmentSize()).encrypt(source, sink);
+
+              return null;
+            } catch (IOException exn) {
+              throw new UncheckedIOException(exn);
+            } finally {
+              lease.close();
+            }
+          },
+          executionStrategy.blockingExecutor()
+        );
+  }
+
+  final public CompletableFuture<Void> sendStream(final InputStream source, final OutputStream sink, final CMK cmk) {
+    return sendStream(Channels.newChannel(source), Channels.newChannel(sink), cmk);
+  }
+
+  /**
+   * Encrypts a file under a single dedicated (i.e. uncached) data key. The source file is memory mapped, and the
+   * encrypted stream (in the same format as sendStream) is written directly to the target file, so files larger than
+   * the heap may be encrypted.
+   *
+   * @param source plaintext file
+   * @param target file that the encrypted stream is written to (created or truncated)
+   * @param cmk KMS CMK used to generate the data key
+   * @return future that resolves once the whole file has been encrypted and written
+   */
+  final public CompletableFuture<Void> sendFile(final Path source, final Path target, final CMK cmk) {
+    // As with streams, files are typically far larger than the cached data key's byte limit
+    return
+      dataKeyCache
+        .acquireDedicated(cmk)
+        .thenApplyAsync(lease -> {
+            try (
+              FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+              FileChannel output =
+                FileChannel.open(
+                  target,
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.TRUNCATE_EXISTING,
+                  StandardOpenOption.WRITE
+                )
+            ) {
+              final DataKey dataKey = lease.dataKey();
+              final StreamHeader header =
+                new StreamHeader(
+                  config.streamSegmentSize(),
+                  SegmentCipher.generateNoncePrefix(),
+                  dataKey.encryptedKey(),
+                  cmk
+                );
+              final SegmentCipher cipher =
+                new SegmentCipher(dataKey.plaintextKey(), header.getNoncePrefix(), header.toByteArray());
+
+              header.write(output);
+              new MappedFileCipher(cipher, header.getSegmentSize()).encrypt(input, output);
+
+              return null;
+            } catch (IOException exn) {
+              throw new UncheckedIOException(exn);
+            } finally {
+              lease.close();
+            }
+          },
+          executionStrategy.blockingExecutor()
         );
   }
+
+  /**
+   * Sends any messages that are currently lingering, without waiting for their batch to fill.
+   */
+  public void flush() {
+    batcher.ifPresent(LingerBatcher::flush);
+  }
+
+  /**
+   * Sends any lingering messages, destroys cached data keys and releases this producer's (shared) KMS client. Sends
+   * should not be issued once the producer is closed.
+   */
+  @Override
+  public void close() {
+    flush();
+    dataKeyCache.invalidateAll();
+    kms.close();
+  }
+
+  private Message encrypt(
+    final DataKey dataKey,
+    final ByteBuffer data,
+    final CMK cmk
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException {
+    final PlaintextDataKey plaintextKey = dataKey.plaintextKey();
+    final DataKeyEncryptor encryptor = new DataKeyEncryptor(plaintextKey, ivGenerator);
+    final byte[] encryptedData = encryptor.encrypt(data);
+
+    return new Message(encryptedData, dataKey.encryptedKey(), encryptor.getIV(), cmk);
+  }
+
+  // Compressed plaintext is only used if it is smaller than the original plaintext
+  private Message compressAndEncrypt(
+    final DataKey dataKey,
+    final ByteBuffer data,
+    final CMK cmk
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException {
+    final int length = data.capacity();
+    if (compressionCodec.isEmpty() || length < compressionThreshold || length == 0) {
+      return segmentAndEncrypt(dataKey, data, cmk, (byte) 0, 0);
+    }
+
+    final CompressionCodec codec = compressionCodec.get();
+    final byte[] compressed = new byte[length - 1];
+    try {
+      final int compressedLength = codec.compress(data.duplicate().clear(), ByteBuffer.wrap(compressed));
+      if (compressedLength < 0) {
+        return segmentAndEncrypt(dataKey, data, cmk, (byte) 0, 0);
+      }
+
+      final ByteBuffer compressedData = ByteBuffer.wrap(compressed, 0, compressedLength).slice().asReadOnlyBuffer();
+
+      return segmentAndEncrypt(dataKey, compressedData, cmk, codec.id(), length);
+    } finally {
+      Arrays.fill(compressed, (byte) 0);
+    }
+  }
+
+  // Large (possibly compressed) plaintexts are encrypted as segments, in parallel, on the segment pool. Segmented
+  // plaintexts must be encrypted under a dedicated data key
+  private Message segmentAndEncrypt(
+    final DataKey dataKey,
+    final ByteBuffer data,
+    final CMK cmk,
+    final byte compressionCodec,
+    final int uncompressedLength
+  ) throws
+    NoSuchAlgorithmException,
+    NoSuchPaddingException,
+    InvalidKeyException,
+    InvalidAlgorithmParameterException,
+    IllegalBlockSizeException,
+    BadPaddingException {
+    final ByteBuffer plaintextData = data.duplicate().clear();
+    final int length = plaintextData.remaining();
+
+    if (length < segmentationThreshold) {
+      final Message message = encrypt(dataKey, data, cmk);
+
+      return
+        compressionCodec == 0
+          ? message
+          : new Message(
+            message.getDataBuffer(),
+            message.getDataKeyBuffer(),
+            message.getIVBuffer(),
+            cmk,
+            compressionCodec,
+            uncompressedLength
+          );
+    }
+
+    final ParallelSegmentCipher cipher =
+      new ParallelSegmentCipher(
+        dataKey.plaintextKey(),
+        SegmentCipher.generateNoncePrefix(),
+        segmentSize,
+        segmentPool
+      );
+    final byte[] encryptedData = new byte[ParallelSegmentCipher.encryptedLength(length, segmentSize)];
+
+    try {
+      cipher.encrypt(plaintextData, ByteBuffer.wrap(encryptedData));
+    } catch (ShortBufferException exn) {
+      // Output is sized using encryptedLength, so this should never happen
+      throw new IllegalStateException(exn);
+    }
+
+    return
+      new Message(
+        ByteBuffer.wrap(encryptedData),
+        ByteBuffer.wrap(dataKey.encryptedKey()),
+        ByteBuffer.wrap(cipher.getNoncePrefix()),
+        cmk,
+        compressionCodec,
+        uncompressedLength,
+        segmentSize
+      );
+  }
+
+  private static CompletableFuture<Void> deliverEach(
+    final Function<Message, CompletableFuture<Void>> deliver,
+    final MessageBatch batch
+  ) {
+    return
+      CompletableFuture.allOf(
+        batch
+          .getMessages()
+          .stream()
+          .map(deliver)
+          .toArray(CompletableFuture<?>[]::new)
+      );
+  }
 }
@@ -0,0 +1,261 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.producer;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import uk.acmelabs.datasecurity.api.CMK;
+import uk.acmelabs.datasecurity.api.Message;
+
+/**
+ * Reactive streams adapter for a DataProducer. Plaintexts received from upstream are sent (encrypted and delivered),
+ * and the delivered messages are published downstream in the order that their plaintexts were received.
+ *
+ * At most maxInFlight plaintexts are requested from upstream before their messages are published, so a slow KMS,
+ * deliver function or downstream subscriber slows the rate that plaintexts are requested. A failed send is published as
+ * an onError signal (in order, once every preceding message has been published), and cancels upstream. Upstream errors
+ * are published once every in flight message has been published. A processor supports a single downstream subscriber.
+ */
+public final class DataProducerProcessor implements Flow.Processor<ByteBuffer, Message> {
+
+  private final DataProducer producer;
+  private final CMK cmk;
+  private final int maxInFlight;
+  private final Queue<CompletableFuture<Message>> inFlight = new ConcurrentLinkedQueue<>();
+  private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+
+  private volatile Flow.Subscriber<? super Message> downstream;
+  private volatile boolean upstreamDone;
+  private volatile Throwable upstreamError;
+  private volatile Throwable failure;
+  private volatile boolean cancelled;
+  // Only accessed whilst draining
+  private boolean terminated;
+
+  DataProducerProcessor(final DataProducer producer, final CMK cmk, final int maxInFlight) {
+    assert maxInFlight > 0;
+
+    this.producer = producer;
+    this.cmk = cmk;
+    this.maxInFlight = maxInFlight;
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super Message> subscriber) {
+    Objects.requireNonNull(subscriber);
+
+    if (!subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(final long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      subscriber.onError(new IllegalStateException("DataProducerProcessor supports a single subscriber"));
+      return;
+    }
+
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(final long n) {
+        if (n <= 0) {
+          failure = new IllegalArgumentException(String.format("Non-positive subscription request %d", n));
+          cancelUpstream();
+        } else {
+          demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+        }
+        drain();
+      }
+
+      @Override
+      public void cancel() {
+        cancelled = true;
+        cancelUpstream();
+        drain();
+      }
+    });
+    downstream = subscriber;
+    start();
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    Objects.requireNonNull(subscription);
+
+    if (cancelled || !upstream.compareAndSet(null, subscription)) {
+      subscription.cancel();
+      return;
+    }
+    start();
+  }
+
+  @Override
+  public void onNext(final ByteBuffer item) {
+    Objects.requireNonNull(item);
+
+    if (cancelled) {
+      return;
+    }
+
+    CompletableFuture<Message> result;
+    try {
+      result = producer.sendIndividually(item.asReadOnlyBuffer(), cmk);
+    } catch (RuntimeException exn) {
+      result = CompletableFuture.failedFuture(exn);
+    }
+    // Queued before a drain is triggered, so that sends that have already completed are published
+    inFlight.add(result);
+    result.whenComplete((message, exn) -> drain());
+  }
+
+  @Override
+  public void onError(final Throwable throwable) {
+    Objects.requireNonNull(throwable);
+
+    upstreamError = throwable;
+    upstreamDone = true;
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    upstreamDone = true;
+    drain();
+  }
+
+  // Upstream is only requested from once both subscriptions exist
+  private void start() {
+    final Flow.Subscription subscription = upstream.get();
+
+    if (subscription != null && downstream != null && started.compareAndSet(false, true)) {
+      subscription.request(maxInFlight);
+    }
+  }
+
+  private void cancelUpstream() {
+    final Flow.Subscription subscription = upstream.get();
+
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+
+  // Signals downstream from at most one thread at a time - callers that find a drain in progress leave it to re-check
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    do {
+      final Flow.Subscriber<? super Message> subscriber = downstream;
+      if (subscriber != null && !terminated) {
+        drain(subscriber);
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void drain(final Flow.Subscriber<? super Message> subscriber) {
+    if (cancelled) {
+      terminated = true;
+      inFlight.clear();
+      return;
+    }
+    if (failure != null) {
+      terminate(subscriber, failure);
+      return;
+    }
+
+    final long requested = demand.get();
+    long published = 0;
+
+    while (true) {
+      final CompletableFuture<Message> head = inFlight.peek();
+      if (head == null || !head.isDone()) {
+        break;
+      }
+      if (head.isCompletedExceptionally()) {
+        cancelUpstream();
+        terminate(subscriber, cause(head));
+        return;
+      }
+      if (published == requested) {
+        break;
+      }
+
+      inFlight.poll();
+      subscriber.onNext(head.join());
+      published++;
+
+      if (cancelled) {
+        terminated = true;
+        inFlight.clear();
+        return;
+      }
+    }
+
+    if (published > 0) {
+      if (requested != Long.MAX_VALUE) {
+        demand.addAndGet(-published);
+      }
+      if (!upstreamDone) {
+        upstream.get().request(published);
+      }
+    }
+    if (upstreamDone && inFlight.isEmpty()) {
+      terminate(subscriber, upstreamError);
+    }
+  }
+
+  private void terminate(final Flow.Subscriber<? super Message> subscriber, final Throwable error) {
+    terminated = true;
+    inFlight.clear();
+
+    if (error == null) {
+      subscriber.onComplete();
+    } else {
+      subscriber.onError(error);
+    }
+  }
+
+  private static Throwable cause(final CompletableFuture<Message> result) {
+    try {
+      result.join();
+      throw new IllegalStateException("Send did not fail");
+    } catch (CompletionException exn) {
+      return exn.getCause() != null ? exn.getCause() : exn;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.producer;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import uk.acmelabs.datasecurity.api.CMK;
+
+/**
+ * Gathers individually sent messages into per-CMK batches. A batch is sent once it holds a maximum number of
+ * messages, or once its first message has lingered for the configured time.
+ */
+final class LingerBatcher {
+
+  private final BiFunction<List<ByteBuffer>, CMK, CompletableFuture<Void>> sendBatch;
+  private final Executor lingerExecutor;
+  private final int maxMessages;
+  private final Map<String, Batch> pending;
+
+  LingerBatcher(
+    final BiFunction<List<ByteBuffer>, CMK, CompletableFuture<Void>> sendBatch,
+    final Duration lingerTime,
+    final int maxMessages,
+    final Executor executor
+  ) {
+    assert maxMessages > 0;
+
+    this.sendBatch = sendBatch;
+    this.lingerExecutor = CompletableFuture.delayedExecutor(lingerTime.toNanos(), TimeUnit.NANOSECONDS, executor);
+    this.maxMessages = maxMessages;
+    this.pending = new HashMap<>();
+  }
+
+  CompletableFuture<Void> add(final ByteBuffer data, final CMK cmk) {
+    final CompletableFuture<Void> result = new CompletableFuture<>();
+    final Batch batch;
+    final boolean isFirst;
+    final boolean isFull;
+
+    synchronized (pending) {
+      batch = pending.computeIfAbsent(cmk.getId(), id -> new Batch(cmk));
+      batch.add(data, result);
+      isFirst = batch.size() == 1;
+      isFull = batch.size() >= maxMessages;
+      if (isFull) {
+        pending.remove(cmk.getId());
+      }
+    }
+
+    if (isFull) {
+      send(batch);
+    } else if (isFirst) {
+      lingerExecutor.execute(() -> expire(batch));
+    }
+
+    return result;
+  }
+
+  void flush() {
+    final List<Batch> batches;
+
+    synchronized (pending) {
+      batches = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    batches.forEach(this::send);
+  }
+
+  private void expire(final Batch batch) {
+    synchronized (pending) {
+      if (!pending.remove(batch.cmk.getId(), batch)) {
+        return;
+      }
+    }
+    send(batch);
+  }
+
+  private void send(final Batch batch) {
+    CompletableFuture<Void> response;
+    try {
+      response = sendBatch.apply(batch.data, batch.cmk);
+    } catch (RuntimeException exn) {
+      // Batches are sent from flush and the linger executor, so a synchronous failure must still fail every message
+      response = CompletableFuture.failedFuture(exn);
+    }
+
+    response
+      .whenComplete((value, exn) -> batch.results.forEach(result -> {
+        if (exn == null) {
+          result.complete(value);
+        } else {
+          result.completeExceptionally(exn);
+        }
+      }));
+  }
+
+  private static final class Batch {
+    private final CMK cmk;
+    private final List<ByteBuffer> data;
+    private final List<CompletableFuture<Void>> results;
+
+    Batch(final CMK cmk) {
+      this.cmk = cmk;
+      this.data = new ArrayList<>();
+      this.results = new ArrayList<>();
+    }
+
+    // Guarded by the pending map lock until the batch is removed from the pending map
+    void add(final ByteBuffer message, final CompletableFuture<Void> result) {
+      data.add(message);
+      results.add(result);
+    }
+
+    int size() {
+      return data.size();
+    }
+  }
+}
@@ -15,9 +15,131 @@
  */
 package uk.acmelabs.datasecurity.producer;
 
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
 import software.amazon.awssdk.services.iam.model.Role;
 import uk.acmelabs.datasecurity.AwsConfig;
+import uk.acmelabs.datasecurity.aws.api.crypto.IvGenerator;
+import uk.acmelabs.datasecurity.aws.api.crypto.RandomIvGenerator;
+import uk.acmelabs.datasecurity.compression.CompressionCodec;
 
 public abstract class ProducerConfig extends AwsConfig {
   public abstract Role encryptRole();
+
+  /**
+   * Maximum number of messages that a cached data key may encrypt before it is retired. By default, each data key is
+   * used to encrypt a single message.
+   *
+   * @return maximum number of messages encrypted per data key
+   */
+  public long dataKeyMaxMessages() {
+    return 1;
+  }
+
+  /**
+   * Maximum number of plaintext bytes that a cached data key may encrypt before it is retired.
+   *
+   * @return maximum number of bytes encrypted per data key
+   */
+  public long dataKeyMaxBytes() {
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Maximum age of a cached data key before it is retired.
+   *
+   * @return maximum data key age
+   */
+  public Duration dataKeyMaxAge() {
+    return Duration.of(5, ChronoUnit.MINUTES);
+  }
+
+  /**
+   * Time that individually sent messages may linger, waiting to be encrypted and delivered as part of a batch. By
+   * default, linger is disabled and each message is sent on its own.
+   *
+   * @return maximum time a message waits for a batch to fill
+   */
+  public Duration lingerTime() {
+    return Duration.ZERO;
+  }
+
+  /**
+   * Maximum number of lingering messages that are gathered into a single batch.
+   *
+   * @return maximum number of messages per batch
+   */
+  public int lingerMaxMessages() {
+    return 100;
+  }
+
+  /**
+   * Plaintext segment size used when encrypting streams. Each segment is individually authenticated, and bounds the
+   * memory used to encrypt or decrypt a stream.
+   *
+   * @return stream segment size in bytes
+   */
+  public int streamSegmentSize() {
+    return 64 * 1024;
+  }
+
+  /**
+   * Generator for message IVs. By default, 96-bit IVs are drawn from a per-thread DRBG. When data keys encrypt many
+   * messages (see dataKeyMaxMessages), a CounterIvGenerator guarantees that IVs are never reused.
+   *
+   * @return message IV generator
+   */
+  public IvGenerator ivGenerator() {
+    return new RandomIvGenerator();
+  }
+
+  /**
+   * Codec used to compress individually sent messages (see DataProducer.send) before they are encrypted. By default,
+   * messages are not compressed. Messages that do not shrink when compressed are sent uncompressed.
+   *
+   * @return compression codec
+   */
+  public Optional<CompressionCodec> compressionCodec() {
+    return Optional.empty();
+  }
+
+  /**
+   * Smallest message that is compressed (when a compressionCodec is configured).
+   *
+   * @return compression threshold in bytes
+   */
+  public int compressionThreshold() {
+    return 1024;
+  }
+
+  /**
+   * Smallest (possibly compressed) message that is encrypted as independently authenticated segments, which are
+   * encrypted in parallel on the segment pool. By default, messages are never segmented.
+   *
+   * @return segmentation threshold in bytes
+   */
+  public long segmentationThreshold() {
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Plaintext size of each segment of a segmented message.
+   *
+   * @return segment size in bytes
+   */
+  public int segmentSize() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * Maximum number of messages, sent via a DataProducer.processor, that may be in flight (i.e. requested from upstream,
+   * but not yet published downstream).
+   *
+   * @return processor in flight limit
+   */
+  public int processorMaxInFlight() {
+    return 16;
+  }
 }
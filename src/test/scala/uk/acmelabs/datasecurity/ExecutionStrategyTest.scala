@@ -0,0 +1,79 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity
+
+import java.util.concurrent.{CompletableFuture, Executor}
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ExecutionStrategyTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  def runsOn(executor: Executor): Thread =
+    CompletableFuture.supplyAsync(() => Thread.currentThread(), executor).join()
+
+  "pooled strategies run every stage on the given executor" in {
+    val pool = ExecutionStrategy.cryptoPool(1)
+    try {
+      val strategy = ExecutionStrategy.pooled(pool)
+
+      strategy.continuationExecutor() shouldBe theSameInstanceAs(pool)
+      strategy.cryptoExecutor(0) shouldBe theSameInstanceAs(pool)
+      strategy.cryptoExecutor(Long.MaxValue) shouldBe theSameInstanceAs(pool)
+      strategy.blockingExecutor() shouldBe theSameInstanceAs(pool)
+    } finally {
+      pool.shutdown()
+    }
+  }
+
+  "inline strategies only hop threads for large payloads" in {
+    val pool = ExecutionStrategy.cryptoPool(1)
+    try {
+      val strategy = ExecutionStrategy.inline(1024, pool)
+
+      runsOn(strategy.continuationExecutor()) shouldBe Thread.currentThread()
+      runsOn(strategy.cryptoExecutor(1024)) shouldBe Thread.currentThread()
+      runsOn(strategy.cryptoExecutor(1025)).getName should startWith("data-security-crypto-")
+      strategy.blockingExecutor() shouldBe theSameInstanceAs(pool)
+    } finally {
+      pool.shutdown()
+    }
+  }
+
+  "crypto pools use daemon threads" in {
+    val pool = ExecutionStrategy.cryptoPool(2)
+    try {
+      runsOn(pool).isDaemon shouldBe true
+    } finally {
+      pool.shutdown()
+    }
+  }
+
+  "dedicated crypto pools are shared by every strategy with the same number of threads" in {
+    val blocking: Executor = (task: Runnable) => task.run()
+    val strategies = (0 until 3).map(_ => ExecutionStrategy.dedicatedCryptoPool(0, 3, blocking))
+    val pool = strategies.head.cryptoExecutor(1)
+
+    strategies.foreach(_.cryptoExecutor(1) shouldBe theSameInstanceAs(pool))
+    ExecutionStrategy.dedicatedCryptoPool(0, 4, blocking).cryptoExecutor(1) should not be theSameInstanceAs(pool)
+    runsOn(pool).isDaemon shouldBe true
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.api
+
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+
+import org.junit.runner.RunWith
+import org.scalacheck.{Arbitrary, Gen}
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+@RunWith(classOf[JUnitRunner])
+class MessageCodecTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+  import CMKGen._
+
+  val genIV: Gen[Array[Byte]] = Gen.listOfN(12, Arbitrary.arbByte.arbitrary).map(_.toArray)
+
+  val genCompression: Gen[(Byte, Int)] =
+    Gen.frequency(
+      1 -> Gen.const((0.toByte, 0)),
+      1 -> Gen.zip(Gen.choose[Byte](1, 15), Gen.choose(0, Int.MaxValue))
+    )
+
+  val genSegmentSize: Gen[Int] =
+    Gen.frequency(
+      1 -> Gen.const(0),
+      1 -> Gen.choose(1, Int.MaxValue)
+    )
+
+  val genMessage: Gen[Message] =
+    for {
+      data <- genByteArray
+      dataKey <- genByteArray
+      iv <- genIV
+      cmk <- genCMK
+      (compressionCodec, uncompressedLength) <- genCompression
+      segmentSize <- genSegmentSize
+    } yield
+      new Message(
+        ByteBuffer.wrap(data),
+        ByteBuffer.wrap(dataKey),
+        ByteBuffer.wrap(iv),
+        cmk,
+        compressionCodec,
+        uncompressedLength,
+        segmentSize
+      )
+
+  def sameMessage(actual: Message, expected: Message): Unit = {
+    actual.getData shouldEqual expected.getData
+    actual.getDataKey shouldEqual expected.getDataKey
+    actual.getIV shouldEqual expected.getIV
+    actual.getCMK.getId shouldEqual expected.getCMK.getId
+    actual.getCMK.getArn shouldEqual expected.getCMK.getArn
+    actual.getCompressionCodec shouldEqual expected.getCompressionCodec
+    actual.getUncompressedLength shouldEqual expected.getUncompressedLength
+    actual.getSegmentSize shouldEqual expected.getSegmentSize
+  }
+
+  "encoded messages decode to the original message" in {
+    forAll(genMessage) { message =>
+      val encoded = MessageCodec.encode(message)
+
+      encoded.remaining() shouldEqual MessageCodec.encodedLength(message)
+      sameMessage(MessageCodec.decode(encoded), message)
+      encoded.hasRemaining shouldBe false
+    }
+  }
+
+  "gathered encoding matches contiguous encoding" in {
+    forAll(genMessage) { message =>
+      val output = new ByteArrayOutputStream()
+      val channel = Channels.newChannel(output)
+
+      MessageCodec.encodeGather(message).foreach(buffer => while (buffer.hasRemaining) channel.write(buffer))
+
+      ByteBuffer.wrap(output.toByteArray) shouldEqual MessageCodec.encode(message)
+    }
+  }
+
+  "sequentially encoded messages decode in order" in {
+    forAll(Gen.nonEmptyListOf(genMessage)) { messages =>
+      val buffer = ByteBuffer.allocate(messages.map(MessageCodec.encodedLength).sum)
+      messages.foreach(MessageCodec.encode(_, buffer))
+      buffer.flip()
+
+      messages.foreach(sameMessage(MessageCodec.decode(buffer), _))
+      buffer.hasRemaining shouldBe false
+    }
+  }
+
+  "truncated messages are rejected" in {
+    forAll(genMessage) { message =>
+      val encoded = MessageCodec.encode(message)
+      forAll(Gen.choose(0, encoded.remaining() - 1)) { length =>
+        val truncated = encoded.duplicate()
+        truncated.limit(length)
+
+        assertThrows[MessageFormatException] {
+          MessageCodec.decode(truncated)
+        }
+      }
+    }
+  }
+
+  "unknown versions are rejected" in {
+    forAll(genMessage) { message =>
+      val encoded = MessageCodec.encode(message)
+      encoded.put(0, (MessageCodec.VERSION + 1).toByte)
+
+      assertThrows[MessageFormatException] {
+        MessageCodec.decode(encoded)
+      }
+    }
+  }
+
+  "reserved flags are rejected" in {
+    forAll(genMessage, Gen.choose(1, 7)) { (message, reserved) =>
+      val encoded = MessageCodec.encode(message)
+      encoded.put(1, (encoded.get(1) | (reserved << 5)).toByte)
+
+      assertThrows[MessageFormatException] {
+        MessageCodec.decode(encoded)
+      }
+    }
+  }
+
+  "non-positive segment sizes are rejected" in {
+    forAll(genMessage.filter(_.isSegmented), Gen.choose(Int.MinValue, 0)) { (message, segmentSize) =>
+      val encoded = MessageCodec.encode(message)
+      val segmentSizeOffset =
+        MessageCodec.HEADER_LENGTH + (if (message.isCompressed) MessageCodec.COMPRESSION_HEADER_LENGTH else 0)
+      encoded.putInt(segmentSizeOffset, segmentSize)
+
+      assertThrows[MessageFormatException] {
+        MessageCodec.decode(encoded)
+      }
+    }
+  }
+}
@@ -33,6 +33,6 @@ object MessageGen {
     } yield {
       val encryptor = new DataKeyEncryptor(dataKey.plaintextKey())
 
-      (new Message(encryptor.encrypt(text), dataKey.encryptedKey(), encryptor.getIV, cmk), text)
+      (new Message(encryptor.encrypt(text.asReadOnlyBuffer()), dataKey.encryptedKey(), encryptor.getIV, cmk), text)
     }
 }
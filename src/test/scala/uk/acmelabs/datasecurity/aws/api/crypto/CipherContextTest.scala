@@ -0,0 +1,108 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto
+
+import java.nio.ByteBuffer
+import java.security.InvalidKeyException
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+import javax.crypto.Cipher
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import uk.acmelabs.datasecurity.api.ByteBufferGen
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKeyGen
+
+@RunWith(classOf[JUnitRunner])
+class CipherContextTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+  import PlaintextDataKeyGen._
+
+  "a plaintext data key has a single cipher context" in {
+    forAll(genAESPlaintextDataKey) { plaintextKey =>
+      plaintextKey.cipherContext() should be theSameInstanceAs plaintextKey.cipherContext()
+    }
+  }
+
+  "encrypted data decrypts using pooled ciphers" in {
+    forAll(genAESPlaintextDataKey, genByteArray) { case (plaintextKey, data) =>
+      val encryptor = new DataKeyEncryptor(plaintextKey)
+      val encryptedData = encryptor.encrypt(ByteBuffer.wrap(data).asReadOnlyBuffer())
+      val plaintextData = ByteBuffer.allocate(data.length)
+
+      new DataKeyEncryptor(plaintextKey, encryptor.getIV).decrypt(encryptedData, plaintextData)
+
+      plaintextData.array() shouldEqual data
+    }
+  }
+
+  "a cipher context may be shared between threads" in {
+    forAll(genAESPlaintextDataKey) { plaintextKey =>
+      val executor = Executors.newFixedThreadPool(4)
+      try {
+        val tasks = (0 until 64).map { index =>
+          new Callable[Boolean] {
+            override def call(): Boolean = {
+              val data = Array.fill[Byte](index)(index.toByte)
+              val encryptor = new DataKeyEncryptor(plaintextKey)
+              val encryptedData = encryptor.encrypt(ByteBuffer.wrap(data).asReadOnlyBuffer())
+              val plaintextData = ByteBuffer.allocate(data.length)
+
+              new DataKeyEncryptor(plaintextKey, encryptor.getIV).decrypt(encryptedData, plaintextData)
+
+              plaintextData.array().sameElements(data)
+            }
+          }
+        }
+
+        executor.invokeAll(tasks.asJava).asScala.map(_.get) should contain only true
+      } finally {
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+      }
+    }
+  }
+
+  "destroying a plaintext data key destroys its cipher context" in {
+    forAll(genAESPlaintextDataKey) { plaintextKey =>
+      val context = plaintextKey.cipherContext()
+      context.release(context.acquire(Cipher.ENCRYPT_MODE, new Array[Byte](12)))
+
+      plaintextKey.destroy()
+
+      context.isDestroyed shouldBe true
+      assertThrows[InvalidKeyException] {
+        context.acquire(Cipher.ENCRYPT_MODE, new Array[Byte](12))
+      }
+    }
+  }
+
+  "cipher contexts created after destruction are destroyed" in {
+    forAll(genAESPlaintextDataKey) { plaintextKey =>
+      plaintextKey.destroy()
+
+      plaintextKey.cipherContext().isDestroyed shouldBe true
+    }
+  }
+}
@@ -15,6 +15,9 @@
  */
 package uk.acmelabs.datasecurity.aws.api.crypto
 
+import java.nio.ByteBuffer
+import javax.crypto.ShortBufferException
+
 import org.junit.runner.RunWith
 import org.scalatest.freespec.AnyFreeSpec
 import org.scalatest.matchers.should.Matchers
@@ -51,4 +54,34 @@ class DataKeyEncryptorTest
       }
     }
   }
+
+  "direct buffers encrypt and decrypt in place of byte arrays" in {
+    forAll(genAESPlaintextDataKey, genByteArray) { case (plaintextKey, data) =>
+      val plaintextData = ByteBuffer.allocateDirect(data.length).put(data).flip()
+      val encryptedData = ByteBuffer.allocateDirect(DataKeyEncryptor.encryptedLength(data.length))
+      val decryptedData = ByteBuffer.allocateDirect(DataKeyEncryptor.plaintextLength(encryptedData.capacity()))
+      val encryptor = new DataKeyEncryptor(plaintextKey)
+
+      encryptor.encrypt(plaintextData, encryptedData) shouldEqual encryptedData.capacity()
+      encryptedData.flip()
+      val encryptedBytes = new Array[Byte](encryptedData.remaining())
+      encryptedData.duplicate().get(encryptedBytes)
+      val plaintextBytes = ByteBuffer.allocate(data.length)
+      new DataKeyEncryptor(plaintextKey, encryptor.getIV).decrypt(encryptedBytes, plaintextBytes)
+      plaintextBytes.array() shouldEqual data
+
+      new DataKeyEncryptor(plaintextKey, encryptor.getIV).decrypt(encryptedData, decryptedData) shouldEqual data.length
+      decryptedData.flip() shouldEqual ByteBuffer.wrap(data)
+    }
+  }
+
+  "undersized output buffers are rejected" in {
+    forAll(genAESPlaintextDataKey, genByteArray) { case (plaintextKey, data) =>
+      val encryptedData = ByteBuffer.allocate(DataKeyEncryptor.encryptedLength(data.length) - 1)
+
+      assertThrows[ShortBufferException] {
+        new DataKeyEncryptor(plaintextKey).encrypt(ByteBuffer.wrap(data), encryptedData)
+      }
+    }
+  }
 }
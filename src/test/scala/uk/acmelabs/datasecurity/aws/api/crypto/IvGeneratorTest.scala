@@ -0,0 +1,97 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKeyGen
+
+@RunWith(classOf[JUnitRunner])
+class IvGeneratorTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import PlaintextDataKeyGen._
+
+  "random IVs have the configured length" in {
+    forAll(genAESPlaintextDataKey, Gen.choose(12, 64)) { case (plaintextKey, ivLength) =>
+      val generator = new RandomIvGenerator(ivLength)
+
+      generator.ivLength() shouldEqual ivLength
+      generator.generate(plaintextKey).length shouldEqual ivLength
+    }
+  }
+
+  "random IVs shorter than 96 bits are rejected" in {
+    forAll(Gen.choose(0, 11)) { ivLength =>
+      assertThrows[IllegalArgumentException] {
+        new RandomIvGenerator(ivLength)
+      }
+    }
+  }
+
+  "counter IVs are a fixed field followed by the key's invocation count" in {
+    forAll(genAESPlaintextDataKey, Gen.posNum[Int]) { case (plaintextKey, fixedField) =>
+      val generator = new CounterIvGenerator(fixedField)
+
+      (0L until 10L).foreach { invocation =>
+        val iv = ByteBuffer.wrap(generator.generate(plaintextKey))
+
+        iv.remaining() shouldEqual CounterIvGenerator.IV_LENGTH
+        iv.getInt shouldEqual fixedField
+        iv.getLong shouldEqual invocation
+      }
+    }
+  }
+
+  "counter IVs are unique per key across threads and generators" in {
+    forAll(genAESPlaintextDataKey) { plaintextKey =>
+      val generators = Seq(new CounterIvGenerator(0), new CounterIvGenerator(0))
+      val executor = Executors.newFixedThreadPool(4)
+      try {
+        val tasks = (0 until 1000).map { index =>
+          new Callable[Seq[Byte]] {
+            override def call(): Seq[Byte] = generators(index % 2).generate(plaintextKey).toSeq
+          }
+        }
+        val ivs = executor.invokeAll(tasks.asJava).asScala.map(_.get)
+
+        ivs.distinct.size shouldEqual ivs.size
+      } finally {
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+      }
+    }
+  }
+
+  "encryptors use the generated IV" in {
+    forAll(genAESPlaintextDataKey) { plaintextKey =>
+      val encryptor = new DataKeyEncryptor(plaintextKey, new CounterIvGenerator(42))
+
+      ByteBuffer.wrap(encryptor.getIV).getInt shouldEqual 42
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto
+
+import java.io.{ByteArrayInputStream, IOException}
+import java.nio.channels.{Channels, FileChannel}
+import java.nio.file.{Files, Path, StandardOpenOption}
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, CMKGen, StreamHeader}
+import uk.acmelabs.datasecurity.aws.api.model.{PlaintextDataKey, PlaintextDataKeyGen}
+
+@RunWith(classOf[JUnitRunner])
+class MappedFileCipherTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+  import CMKGen._
+  import PlaintextDataKeyGen._
+
+  val genHeader: Gen[StreamHeader] =
+    for {
+      segmentSize <- Gen.choose(1, 64)
+      cmk <- genCMK
+    } yield new StreamHeader(segmentSize, SegmentCipher.generateNoncePrefix(), Array[Byte](1, 2, 3), cmk)
+
+  def encrypt(plaintextKey: PlaintextDataKey, header: StreamHeader, source: Path, target: Path): Unit = {
+    val input = FileChannel.open(source, StandardOpenOption.READ)
+    val output = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+    val cipher = new SegmentCipher(plaintextKey, header.getNoncePrefix, header.toByteArray)
+
+    try {
+      header.write(output)
+      new MappedFileCipher(cipher, header.getSegmentSize).encrypt(input, output)
+    } finally {
+      input.close()
+      output.close()
+    }
+  }
+
+  def decrypt(plaintextKey: PlaintextDataKey, source: Path, target: Path): Unit = {
+    val input = FileChannel.open(source, StandardOpenOption.READ)
+    val output = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+
+    try {
+      val header = StreamHeader.read(input)
+      val cipher = new SegmentCipher(plaintextKey, header.getNoncePrefix, header.toByteArray)
+
+      new MappedFileCipher(cipher, header.getSegmentSize).decrypt(input, header.toByteArray.length, output)
+    } finally {
+      input.close()
+      output.close()
+    }
+  }
+
+  def withFiles(test: (Path, Path, Path) => Unit): Unit = {
+    val files = (0 until 3).map(_ => Files.createTempFile("data-security", ".bin"))
+
+    try {
+      test(files(0), files(1), files(2))
+    } finally {
+      files.foreach(Files.deleteIfExists)
+    }
+  }
+
+  "decrypt(encrypt(file)) == file" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray) { case (plaintextKey, header, data) =>
+      withFiles { (plaintext, encrypted, decrypted) =>
+        Files.write(plaintext, data)
+
+        encrypt(plaintextKey, header, plaintext, encrypted)
+        decrypt(plaintextKey, encrypted, decrypted)
+
+        Files.readAllBytes(decrypted) shouldEqual data
+      }
+    }
+  }
+
+  "encrypted files may be decrypted as streams" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray) { case (plaintextKey, header, data) =>
+      withFiles { (plaintext, encrypted, _) =>
+        Files.write(plaintext, data)
+
+        encrypt(plaintextKey, header, plaintext, encrypted)
+
+        val source = Channels.newChannel(new ByteArrayInputStream(Files.readAllBytes(encrypted)))
+        val decodedHeader = StreamHeader.read(source)
+        val cipher = new SegmentCipher(plaintextKey, decodedHeader.getNoncePrefix, decodedHeader.toByteArray)
+        val channel = new DecryptingChannel(cipher, decodedHeader.getSegmentSize, source, () => ())
+
+        Channels.newInputStream(channel).readAllBytes() shouldEqual data
+      }
+    }
+  }
+
+  "truncated files are rejected" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray.suchThat(_.nonEmpty)) { case (plaintextKey, header, data) =>
+      withFiles { (plaintext, encrypted, decrypted) =>
+        Files.write(plaintext, data)
+        encrypt(plaintextKey, header, plaintext, encrypted)
+
+        val encryptedData = Files.readAllBytes(encrypted)
+        Files.write(encrypted, encryptedData.take(encryptedData.length - 1))
+
+        assertThrows[IOException] {
+          decrypt(plaintextKey, encrypted, decrypted)
+        }
+      }
+    }
+  }
+}
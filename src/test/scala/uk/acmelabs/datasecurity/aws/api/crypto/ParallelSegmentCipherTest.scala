@@ -0,0 +1,219 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto
+
+import java.nio.ByteBuffer
+import java.security.GeneralSecurityException
+import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, ForkJoinPool}
+import javax.crypto.AEADBadTagException
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.services.iam.model.Role
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, Message, MessageCodec}
+import uk.acmelabs.datasecurity.aws.api.model.{PlaintextDataKey, PlaintextDataKeyGen}
+import uk.acmelabs.datasecurity.aws.client.{KeyManagementService, LocalKMS}
+import uk.acmelabs.datasecurity.consumer.{ConsumerConfig, DataConsumer}
+import uk.acmelabs.datasecurity.producer.{DataProducer, ProducerConfig}
+
+@RunWith(classOf[JUnitRunner])
+class ParallelSegmentCipherTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+  import PlaintextDataKeyGen._
+
+  val genSegmentSize: Gen[Int] = Gen.choose(1, 64)
+
+  def cipher(plaintextKey: PlaintextDataKey, segmentSize: Int): ParallelSegmentCipher =
+    new ParallelSegmentCipher(plaintextKey, SegmentCipher.generateNoncePrefix(), segmentSize, ForkJoinPool.commonPool())
+
+  def encrypt(cipher: ParallelSegmentCipher, segmentSize: Int, data: Array[Byte]): Array[Byte] = {
+    val encrypted = new Array[Byte](ParallelSegmentCipher.encryptedLength(data.length, segmentSize))
+    cipher.encrypt(ByteBuffer.wrap(data), ByteBuffer.wrap(encrypted)) shouldEqual encrypted.length
+    encrypted
+  }
+
+  def decrypt(cipher: ParallelSegmentCipher, segmentSize: Int, encrypted: Array[Byte]): Array[Byte] = {
+    val plaintext = ByteBuffer.allocate(ParallelSegmentCipher.plaintextLength(encrypted.length, segmentSize))
+    cipher.decrypt(ByteBuffer.wrap(encrypted), plaintext)
+    plaintext.array()
+  }
+
+  "decrypt(encrypt(data)) == data" in {
+    forAll(genAESPlaintextDataKey, genSegmentSize, genByteArray) { case (plaintextKey, segmentSize, data) =>
+      val segmentCipher = cipher(plaintextKey, segmentSize)
+      val encrypted = encrypt(segmentCipher, segmentSize, data)
+
+      ParallelSegmentCipher.plaintextLength(encrypted.length, segmentSize) shouldEqual data.length
+      decrypt(segmentCipher, segmentSize, encrypted) shouldEqual data
+    }
+  }
+
+  "buffer positions are advanced" in {
+    forAll(genAESPlaintextDataKey, genSegmentSize, genByteBuffer) { case (plaintextKey, segmentSize, data) =>
+      val segmentCipher = cipher(plaintextKey, segmentSize)
+      val encryptedLength = ParallelSegmentCipher.encryptedLength(data.remaining(), segmentSize)
+      val encrypted = ByteBuffer.allocate(encryptedLength + 2).position(1)
+      val plaintext = ByteBuffer.allocate(data.remaining() + 2).position(1)
+
+      segmentCipher.encrypt(data.duplicate(), encrypted)
+      encrypted.position() shouldEqual encryptedLength + 1
+      segmentCipher.decrypt(encrypted.flip().position(1), plaintext)
+
+      plaintext.position() shouldEqual data.remaining() + 1
+      plaintext.flip().position(1) shouldEqual data
+    }
+  }
+
+  "truncated payloads are rejected" in {
+    forAll(genAESPlaintextDataKey, genSegmentSize, genByteArray.suchThat(_.nonEmpty)) {
+      case (plaintextKey, segmentSize, data) =>
+        val segmentCipher = cipher(plaintextKey, segmentSize)
+        val encrypted = encrypt(segmentCipher, segmentSize, data)
+
+        forAll(Gen.choose(0, encrypted.length - 1)) { length =>
+          assertThrows[GeneralSecurityException] {
+            decrypt(segmentCipher, segmentSize, encrypted.take(length))
+          }
+        }
+    }
+  }
+
+  "tampered segments are rejected" in {
+    forAll(genAESPlaintextDataKey, genSegmentSize, genByteArray) { case (plaintextKey, segmentSize, data) =>
+      val segmentCipher = cipher(plaintextKey, segmentSize)
+      val encrypted = encrypt(segmentCipher, segmentSize, data)
+
+      forAll(Gen.choose(0, encrypted.length - 1)) { index =>
+        val tampered = encrypted.clone()
+        tampered(index) = (tampered(index) ^ 1).toByte
+
+        assertThrows[AEADBadTagException] {
+          decrypt(segmentCipher, segmentSize, tampered)
+        }
+      }
+    }
+  }
+
+  "payloads are bound to their segment size" in {
+    forAll(genAESPlaintextDataKey, genSegmentSize, genByteArray.suchThat(_.nonEmpty)) {
+      case (plaintextKey, segmentSize, data) =>
+        val segmentCipher = cipher(plaintextKey, segmentSize)
+        val encrypted = encrypt(segmentCipher, segmentSize, data)
+        val resized =
+          new ParallelSegmentCipher(
+            plaintextKey,
+            segmentCipher.getNoncePrefix,
+            segmentSize + 1,
+            ForkJoinPool.commonPool()
+          )
+
+        a[GeneralSecurityException] should be thrownBy decrypt(resized, segmentSize + 1, encrypted)
+    }
+  }
+
+  "segmented messages are transparently decrypted by consumers" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool())
+    val cmk = kms.createCMK().join()
+    val role = Role.builder().roleName("segmentation").build()
+    val sent = new ConcurrentLinkedQueue[Message]()
+    val received = new ConcurrentLinkedQueue[Array[Byte]]()
+    val producer =
+      new DataProducer(
+        (message: Message) => {
+          sent.add(MessageCodec.decode(MessageCodec.encode(message)))
+          CompletableFuture.completedFuture[Void](null)
+        },
+        new ProducerConfig {
+          override def encryptRole(): Role = role
+
+          override def keyManagementService(role: Role): KeyManagementService = kms
+
+          override def segmentationThreshold(): Long = 64
+
+          override def segmentSize(): Int = 16
+        }
+      )
+    val consumer =
+      new DataConsumer(
+        (plaintext: ByteBuffer) => {
+          val data = new Array[Byte](plaintext.remaining())
+          plaintext.get(data)
+          received.add(data)
+          CompletableFuture.completedFuture[Void](null)
+        },
+        new ConsumerConfig {
+          override def decryptRole(): Role = role
+
+          override def keyManagementService(role: Role): KeyManagementService = kms
+        }
+      )
+
+    forAll(genByteArray) { data =>
+      sent.clear()
+      received.clear()
+
+      producer.send(ByteBuffer.wrap(data).asReadOnlyBuffer(), cmk).join()
+      val message = sent.asScala.head
+      consumer.receive(message).join()
+
+      received.asScala.head shouldEqual data
+      message.isSegmented shouldBe data.length >= 64
+      DataConsumer.plaintextSize(message) shouldEqual data.length
+    }
+  }
+
+  "segmented messages are encrypted under dedicated data keys" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool())
+    val cmk = kms.createCMK().join()
+    val sent = new ConcurrentLinkedQueue[Message]()
+    val producer =
+      new DataProducer(
+        (message: Message) => {
+          sent.add(message)
+          CompletableFuture.completedFuture[Void](null)
+        },
+        new ProducerConfig {
+          override def encryptRole(): Role = Role.builder().roleName("segmentation").build()
+
+          override def keyManagementService(role: Role): KeyManagementService = kms
+
+          override def dataKeyMaxMessages(): Long = 100
+
+          override def segmentationThreshold(): Long = 64
+
+          override def segmentSize(): Int = 16
+        }
+      )
+
+    (0 until 3).foreach(_ => producer.send(ByteBuffer.allocate(63).asReadOnlyBuffer(), cmk).join())
+    (0 until 3).foreach(_ => producer.send(ByteBuffer.allocate(64).asReadOnlyBuffer(), cmk).join())
+
+    val (segmented, unsegmented) = sent.asScala.toList.partition(_.isSegmented)
+    segmented should have size 3
+    unsegmented.map(_.getDataKey.toSeq).distinct should have size 1
+    (segmented ++ unsegmented.take(1)).map(_.getDataKey.toSeq).distinct should have size 4
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.crypto
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, IOException}
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, CMKGen, StreamHeader}
+import uk.acmelabs.datasecurity.aws.api.model.{PlaintextDataKey, PlaintextDataKeyGen}
+
+@RunWith(classOf[JUnitRunner])
+class StreamEncryptorTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+  import CMKGen._
+  import PlaintextDataKeyGen._
+
+  val genSegmentSize: Gen[Int] = Gen.choose(1, 64)
+
+  val genHeader: Gen[StreamHeader] =
+    for {
+      segmentSize <- genSegmentSize
+      dataKey <- genByteArray
+      cmk <- genCMK
+    } yield new StreamHeader(segmentSize, SegmentCipher.generateNoncePrefix(), dataKey, cmk)
+
+  def encrypt(plaintextKey: PlaintextDataKey, header: StreamHeader, data: Array[Byte]): Array[Byte] = {
+    val output = new ByteArrayOutputStream()
+    val sink = Channels.newChannel(output)
+    val cipher = new SegmentCipher(plaintextKey, header.getNoncePrefix, header.toByteArray)
+
+    header.write(sink)
+    new StreamEncryptor(cipher, header.getSegmentSize)
+      .encrypt(Channels.newChannel(new ByteArrayInputStream(data)), sink)
+
+    output.toByteArray
+  }
+
+  def decrypt(plaintextKey: PlaintextDataKey, encryptedData: Array[Byte]): Array[Byte] = {
+    val source = Channels.newChannel(new ByteArrayInputStream(encryptedData))
+    val header = StreamHeader.read(source)
+    val cipher = new SegmentCipher(plaintextKey, header.getNoncePrefix, header.toByteArray)
+    val channel = new DecryptingChannel(cipher, header.getSegmentSize, source, () => ())
+
+    try {
+      Channels.newInputStream(channel).readAllBytes()
+    } finally {
+      channel.close()
+    }
+  }
+
+  "stream headers roundtrip" in {
+    forAll(genHeader) { header =>
+      val decoded = StreamHeader.read(Channels.newChannel(new ByteArrayInputStream(header.toByteArray)))
+
+      decoded.toByteArray shouldEqual header.toByteArray
+      decoded.getCMK.getId shouldEqual header.getCMK.getId
+      decoded.getCMK.getArn shouldEqual header.getCMK.getArn
+    }
+  }
+
+  "decrypt(encrypt(data)) == data" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray) { case (plaintextKey, header, data) =>
+      decrypt(plaintextKey, encrypt(plaintextKey, header, data)) shouldEqual data
+    }
+  }
+
+  "empty streams signal end of stream on their first read" in {
+    forAll(genAESPlaintextDataKey, genHeader) { case (plaintextKey, header) =>
+      val source = Channels.newChannel(new ByteArrayInputStream(encrypt(plaintextKey, header, Array.emptyByteArray)))
+      val decodedHeader = StreamHeader.read(source)
+      val cipher = new SegmentCipher(plaintextKey, decodedHeader.getNoncePrefix, decodedHeader.toByteArray)
+      val channel = new DecryptingChannel(cipher, decodedHeader.getSegmentSize, source, () => ())
+
+      try {
+        Channels.newInputStream(channel).read(new Array[Byte](16)) shouldEqual -1
+        channel.read(ByteBuffer.allocate(16)) shouldEqual -1
+      } finally {
+        channel.close()
+      }
+    }
+  }
+
+  "encrypted streams have one authenticated segment per started plaintext segment" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray) { case (plaintextKey, header, data) =>
+      val segments = math.max(1, (data.length + header.getSegmentSize - 1) / header.getSegmentSize)
+
+      encrypt(plaintextKey, header, data).length shouldEqual header.toByteArray.length + data.length + 16 * segments
+    }
+  }
+
+  "truncated streams are rejected" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray.suchThat(_.nonEmpty)) { case (plaintextKey, header, data) =>
+      val encryptedData = encrypt(plaintextKey, header, data)
+      val segmentEnd = header.toByteArray.length + header.getSegmentSize + 16
+
+      whenever(encryptedData.length > segmentEnd) {
+        assertThrows[IOException] {
+          decrypt(plaintextKey, encryptedData.take(segmentEnd))
+        }
+      }
+      assertThrows[IOException] {
+        decrypt(plaintextKey, encryptedData.take(header.toByteArray.length))
+      }
+    }
+  }
+
+  "tampered streams are rejected" in {
+    forAll(genAESPlaintextDataKey, genHeader, genByteArray, Gen.choose(0, Int.MaxValue)) {
+      case (plaintextKey, header, data, position) =>
+        val encryptedData = encrypt(plaintextKey, header, data)
+        val index = header.toByteArray.length + position % (encryptedData.length - header.toByteArray.length)
+
+        encryptedData(index) = (encryptedData(index) ^ 1).toByte
+
+        assertThrows[IOException] {
+          decrypt(plaintextKey, encryptedData)
+        }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.api.model
+
+import org.junit.runner.RunWith
+import org.scalacheck.{Arbitrary, Gen}
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+@RunWith(classOf[JUnitRunner])
+class KeySlabAllocatorTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  val genKey: Gen[Array[Byte]] =
+    Gen.listOfN(KeySlabAllocator.SLOT_SIZE, Arbitrary.arbByte.arbitrary).map(_.toArray)
+
+  def contents(slot: KeySlabAllocator.Slot): Array[Byte] = {
+    val result = new Array[Byte](slot.buffer().capacity())
+    slot.buffer().duplicate().get(result)
+    result
+  }
+
+  "allocated slots are zeroed and do not overlap" in {
+    forAll(Gen.listOf(genKey)) { keys =>
+      val allocator = new KeySlabAllocator()
+      val slots = keys.map { key =>
+        val slot = allocator.allocate(key.length)
+        contents(slot) shouldEqual new Array[Byte](key.length)
+        slot.buffer().duplicate().put(key)
+        slot
+      }
+
+      slots.zip(keys).foreach { case (slot, key) =>
+        contents(slot) shouldEqual key
+      }
+      allocator.getAllocatedSlots shouldEqual keys.size
+    }
+  }
+
+  "released slots are zeroed and reused" in {
+    forAll(genKey) { key =>
+      val allocator = new KeySlabAllocator()
+      val slot = allocator.allocate(key.length)
+      slot.buffer().duplicate().put(key)
+
+      allocator.release(slot)
+
+      contents(slot) shouldEqual new Array[Byte](key.length)
+      allocator.getAllocatedSlots shouldEqual 0
+      allocator.allocate(key.length)
+      allocator.getSlabs shouldEqual 1
+    }
+  }
+
+  "slabs are added as slots are exhausted" in {
+    val allocator = new KeySlabAllocator()
+
+    (0 to KeySlabAllocator.SLOTS_PER_SLAB).foreach(_ => allocator.allocate(KeySlabAllocator.SLOT_SIZE))
+
+    allocator.getSlabs shouldEqual 2
+  }
+
+  "keys that do not fit a slot are allocated outside of the slabs" in {
+    forAll(Gen.choose(0, 64).suchThat(_ != KeySlabAllocator.SLOT_SIZE)) { length =>
+      val allocator = new KeySlabAllocator()
+      val slot = allocator.allocate(length)
+
+      slot.buffer().capacity() shouldEqual length
+      allocator.getSlabs shouldEqual 0
+      allocator.release(slot)
+    }
+  }
+
+  "slots released by their cleaner are zeroed and reported as leaks unless destroyed" in {
+    forAll(genKey, Gen.oneOf(true, false)) { (key, destroyed) =>
+      val allocator = new KeySlabAllocator()
+      val slot = allocator.allocate(key.length)
+      val release = new KeySlabAllocator.Release(allocator, slot)
+      slot.buffer().duplicate().put(key)
+
+      if (destroyed) {
+        release.destroy()
+      }
+      release.run()
+
+      contents(slot) shouldEqual new Array[Byte](key.length)
+      allocator.getAllocatedSlots shouldEqual 0
+      allocator.getLeaks shouldEqual (if (destroyed) 0 else 1)
+    }
+  }
+}
@@ -23,4 +23,9 @@ object PlaintextDataKeyGen {
     for {
       key <- Gen.listOf(Arbitrary.arbByte.arbitrary).map(bytes => SdkBytes.fromByteArray(bytes.toArray))
     } yield new PlaintextDataKey(key)
+
+  val genAESPlaintextDataKey: Gen[PlaintextDataKey] =
+    for {
+      key <- Gen.listOfN(32, Arbitrary.arbByte.arbitrary).map(bytes => SdkBytes.fromByteArray(bytes.toArray))
+    } yield new PlaintextDataKey(key)
 }
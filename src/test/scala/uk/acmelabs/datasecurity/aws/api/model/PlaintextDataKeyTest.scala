@@ -33,7 +33,7 @@ class PlaintextDataKeyTest
     forAll(genPlaintextDataKey) { key =>
       key.getFormat shouldEqual "RAW"
       key.getAlgorithm shouldEqual "AES/GCM/NoPadding"
-      key.ivLength() shouldEqual 16
+      key.ivLength() shouldEqual 12
       key.tagLength() shouldEqual 128
     }
   }
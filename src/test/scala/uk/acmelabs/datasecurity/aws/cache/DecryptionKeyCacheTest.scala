@@ -0,0 +1,146 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.cache
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.collection.mutable
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.core.SdkBytes
+import uk.acmelabs.datasecurity.api.{CMK, CMKGen}
+import uk.acmelabs.datasecurity.aws.api.model.DataKey
+
+@RunWith(classOf[JUnitRunner])
+class DecryptionKeyCacheTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import CMKGen._
+
+  val genEncryptedKey: Gen[Array[Byte]] = Gen.listOfN(16, Gen.choose(Byte.MinValue, Byte.MaxValue)).map(_.toArray)
+
+  final class DataKeyDecryptor {
+    val dataKeys: mutable.ListBuffer[DataKey] = mutable.ListBuffer.empty[DataKey]
+    val calls = new AtomicInteger(0)
+
+    def decrypt(cmk: CMK, encryptedKey: Array[Byte]): CompletableFuture[DataKey] = {
+      calls.incrementAndGet()
+      val dataKey = new DataKey(SdkBytes.fromByteArray(encryptedKey), SdkBytes.fromByteArray(Array.fill[Byte](32)(1)))
+      dataKeys += dataKey
+      CompletableFuture.completedFuture(dataKey)
+    }
+
+    def cache(maxEntries: Int, ttl: Duration): DecryptionKeyCache =
+      new DecryptionKeyCache((cmk: CMK, encryptedKey: Array[Byte]) => decrypt(cmk, encryptedKey), maxEntries, ttl)
+  }
+
+  def receive(cache: DecryptionKeyCache, cmk: CMK, encryptedKey: Array[Byte]): Unit = {
+    cache.acquire(cmk, encryptedKey).get().close()
+  }
+
+  "repeated encrypted data keys are decrypted once" in {
+    forAll(genCMK, genEncryptedKey, Gen.choose(1, 20)) { case (cmk, encryptedKey, receives) =>
+      val decryptor = new DataKeyDecryptor
+      val cache = decryptor.cache(10, Duration.ofMinutes(5))
+
+      (0 until receives).foreach(_ => receive(cache, cmk, encryptedKey.clone()))
+
+      decryptor.calls.get() shouldEqual 1
+      cache.getMisses shouldEqual 1
+      cache.getHits shouldEqual receives - 1
+    }
+  }
+
+  "encrypted data keys are cached per CMK" in {
+    forAll(genCMK, genCMK, genEncryptedKey) { case (cmk1, cmk2, encryptedKey) =>
+      val decryptor = new DataKeyDecryptor
+      val cache = decryptor.cache(10, Duration.ofMinutes(5))
+
+      receive(cache, cmk1, encryptedKey)
+      receive(cache, cmk2, encryptedKey)
+
+      decryptor.calls.get() shouldEqual 2
+    }
+  }
+
+  "least recently used data keys are evicted and destroyed" in {
+    forAll(genCMK, Gen.listOfN(3, genEncryptedKey)) { case (cmk, encryptedKeys) =>
+      val decryptor = new DataKeyDecryptor
+      val cache = decryptor.cache(2, Duration.ofMinutes(5))
+
+      receive(cache, cmk, encryptedKeys(0))
+      receive(cache, cmk, encryptedKeys(1))
+      receive(cache, cmk, encryptedKeys(0))
+      receive(cache, cmk, encryptedKeys(2))
+
+      cache.size() shouldEqual 2
+      cache.getEvictions shouldEqual 1
+      decryptor.dataKeys.map(_.plaintextKey().isDestroyed) shouldEqual Seq(false, true, false)
+
+      receive(cache, cmk, encryptedKeys(0))
+
+      decryptor.calls.get() shouldEqual 3
+    }
+  }
+
+  "expired data keys are decrypted again" in {
+    forAll(genCMK, genEncryptedKey, Gen.choose(1, 10)) { case (cmk, encryptedKey, receives) =>
+      val decryptor = new DataKeyDecryptor
+      val cache = decryptor.cache(10, Duration.ZERO)
+
+      (0 until receives).foreach(_ => receive(cache, cmk, encryptedKey))
+
+      decryptor.calls.get() shouldEqual receives
+      decryptor.dataKeys.init.foreach(_.plaintextKey().isDestroyed should be(true))
+    }
+  }
+
+  "expired data keys are evicted and destroyed when other data keys are inserted" in {
+    forAll(genCMK, Gen.listOfN(3, genEncryptedKey)) { case (cmk, encryptedKeys) =>
+      val decryptor = new DataKeyDecryptor
+      val cache = decryptor.cache(10, Duration.ZERO)
+
+      encryptedKeys.foreach(encryptedKey => receive(cache, cmk, encryptedKey))
+
+      cache.size() shouldEqual 1
+      cache.getEvictions shouldEqual 2
+      decryptor.dataKeys.map(_.plaintextKey().isDestroyed) shouldEqual Seq(true, true, false)
+    }
+  }
+
+  "disabled cache destroys data keys once released" in {
+    forAll(genCMK, genEncryptedKey) { case (cmk, encryptedKey) =>
+      val decryptor = new DataKeyDecryptor
+      val cache = decryptor.cache(0, Duration.ofMinutes(5))
+
+      val lease = cache.acquire(cmk, encryptedKey).get()
+
+      lease.dataKey().plaintextKey().isDestroyed should be(false)
+      lease.close()
+      lease.dataKey().plaintextKey().isDestroyed should be(true)
+      cache.size() shouldEqual 0
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.cache
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.collection.mutable
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.core.SdkBytes
+import uk.acmelabs.datasecurity.api.{CMK, CMKGen}
+import uk.acmelabs.datasecurity.aws.api.model.DataKey
+
+@RunWith(classOf[JUnitRunner])
+class EncryptionKeyCacheTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import CMKGen._
+
+  final class DataKeyGenerator {
+    val dataKeys: mutable.ListBuffer[DataKey] = mutable.ListBuffer.empty[DataKey]
+    val calls = new AtomicInteger(0)
+
+    def generate(cmk: CMK): CompletableFuture[DataKey] = {
+      calls.incrementAndGet()
+      val dataKey =
+        new DataKey(SdkBytes.fromByteArray(Array[Byte](1, 2, 3)), SdkBytes.fromByteArray(Array.fill[Byte](32)(1)))
+      dataKeys += dataKey
+      CompletableFuture.completedFuture(dataKey)
+    }
+
+    def cache(maxMessages: Long, maxBytes: Long, maxAge: Duration): EncryptionKeyCache =
+      new EncryptionKeyCache((cmk: CMK) => generate(cmk), maxMessages, maxBytes, maxAge)
+  }
+
+  def send(cache: EncryptionKeyCache, cmk: CMK, bytes: Long): Unit = {
+    cache.acquire(cmk, bytes).get().close()
+  }
+
+  "data keys are reused until the message limit is reached" in {
+    forAll(genCMK, Gen.choose(1L, 10L), Gen.choose(1, 50)) { case (cmk, maxMessages, sends) =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(maxMessages, Long.MaxValue, Duration.ofMinutes(5))
+
+      (0 until sends).foreach(_ => send(cache, cmk, 1))
+
+      val expectedMisses = (sends + maxMessages - 1) / maxMessages
+      generator.calls.get() shouldEqual expectedMisses
+      cache.getMisses shouldEqual expectedMisses
+      cache.getHits shouldEqual sends - expectedMisses
+    }
+  }
+
+  "data keys are reused until the byte limit is reached" in {
+    forAll(genCMK) { cmk =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(Long.MaxValue, 100, Duration.ofMinutes(5))
+
+      send(cache, cmk, 60)
+      send(cache, cmk, 40)
+      send(cache, cmk, 1)
+      send(cache, cmk, 1000)
+
+      generator.calls.get() shouldEqual 3
+      cache.getHits shouldEqual 1
+    }
+  }
+
+  "data keys are not reused once they have expired" in {
+    forAll(genCMK, Gen.choose(1, 10)) { case (cmk, sends) =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(Long.MaxValue, Long.MaxValue, Duration.ZERO)
+
+      (0 until sends).foreach(_ => send(cache, cmk, 1))
+
+      generator.calls.get() shouldEqual sends
+      cache.getHits shouldEqual 0
+    }
+  }
+
+  "data keys are cached per CMK" in {
+    forAll(genCMK, genCMK) { case (cmk1, cmk2) =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(Long.MaxValue, Long.MaxValue, Duration.ofMinutes(5))
+
+      send(cache, cmk1, 1)
+      send(cache, cmk2, 1)
+      send(cache, cmk1, 1)
+      send(cache, cmk2, 1)
+
+      generator.calls.get() shouldEqual 2
+      cache.getHits shouldEqual 2
+    }
+  }
+
+  "evicted data keys are destroyed once all leases are released" in {
+    forAll(genCMK) { cmk =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(2, Long.MaxValue, Duration.ofMinutes(5))
+
+      val lease1 = cache.acquire(cmk, 1).get()
+      val lease2 = cache.acquire(cmk, 1).get()
+      val plaintextKey = lease1.dataKey().plaintextKey()
+
+      plaintextKey.isDestroyed should be(false)
+      lease1.close()
+      plaintextKey.isDestroyed should be(false)
+      lease2.close()
+      plaintextKey.isDestroyed should be(true)
+    }
+  }
+
+  "invalidated data keys are destroyed" in {
+    forAll(genCMK) { cmk =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(Long.MaxValue, Long.MaxValue, Duration.ofMinutes(5))
+
+      send(cache, cmk, 1)
+      cache.invalidateAll()
+
+      generator.dataKeys.map(_.plaintextKey().isDestroyed) shouldEqual Seq(true)
+      cache.getEvictions shouldEqual 1
+    }
+  }
+
+  "dedicated data keys are never shared, and are destroyed once their lease is released" in {
+    forAll(genCMK) { cmk =>
+      val generator = new DataKeyGenerator
+      val cache = generator.cache(Long.MaxValue, 100, Duration.ofMinutes(5))
+
+      send(cache, cmk, 1)
+      val lease = cache.acquireDedicated(cmk).get()
+      send(cache, cmk, 1)
+
+      generator.calls.get() shouldEqual 2
+      cache.getHits shouldEqual 1
+      cache.getMisses shouldEqual 1
+      lease.dataKey() should not be theSameInstanceAs(generator.dataKeys.head)
+      lease.dataKey().plaintextKey().isDestroyed should be(false)
+      lease.close()
+      lease.dataKey().plaintextKey().isDestroyed should be(true)
+      generator.dataKeys.head.plaintextKey().isDestroyed should be(false)
+    }
+  }
+
+  "failed data key generation is not cached" in {
+    forAll(genCMK) { cmk =>
+      val calls = new AtomicInteger(0)
+      val cache =
+        new EncryptionKeyCache(
+          (_: CMK) => {
+            calls.incrementAndGet()
+            CompletableFuture.failedFuture[DataKey](new RuntimeException("KMS failure"))
+          },
+          Long.MaxValue,
+          Long.MaxValue,
+          Duration.ofMinutes(5)
+        )
+
+      assertThrows[Exception](cache.acquire(cmk, 1).get())
+      assertThrows[Exception](cache.acquire(cmk, 1).get())
+
+      calls.get() shouldEqual 2
+    }
+  }
+}
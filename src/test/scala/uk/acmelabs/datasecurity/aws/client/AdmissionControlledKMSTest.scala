@@ -0,0 +1,127 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import java.time.Duration
+import java.util.concurrent.{CompletableFuture, CompletionException, ForkJoinPool, TimeoutException}
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import software.amazon.awssdk.services.kms.model.KmsException
+import uk.acmelabs.datasecurity.api.CMK
+import uk.acmelabs.datasecurity.aws.api.model.DataKey
+
+@RunWith(classOf[JUnitRunner])
+class AdmissionControlledKMSTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  // Calls only complete when the test completes them
+  class PendingKMS extends KeyManagementService {
+    val pending = new java.util.concurrent.ConcurrentLinkedQueue[CompletableFuture[DataKey]]()
+
+    override def createCMK(): CompletableFuture[CMK] = new CompletableFuture[CMK]()
+
+    override def generateDataKey(cmk: CMK): CompletableFuture[DataKey] = {
+      val result = new CompletableFuture[DataKey]()
+      pending.add(result)
+      result
+    }
+
+    override def decryptDataKey(cmk: CMK, dataKey: Array[Byte]): CompletableFuture[DataKey] = generateDataKey(cmk)
+  }
+
+  val cmk = new CMK("id", "arn:aws:kms:local:000000000000:key/id")
+
+  def failure(future: CompletableFuture[_]): Throwable =
+    intercept[CompletionException](future.join()).getCause
+
+  "calls beyond the concurrency limit fail fast" in {
+    val kms = new AdmissionControlledKMS(new PendingKMS, new GradientLimiter(2, 1, 10), Duration.ofSeconds(10))
+
+    kms.generateDataKey(cmk)
+    kms.decryptDataKey(cmk, Array[Byte](1, 2, 3))
+
+    failure(kms.generateDataKey(cmk)) shouldBe an[AdmissionRejectedException]
+    kms.getRejected shouldEqual 1
+    kms.getInflight shouldEqual 2
+    kms.getLimit shouldEqual 2
+  }
+
+  "calls that exceed their deadline time out, but hold their slot until they complete" in {
+    val underlying = new PendingKMS
+    val kms = new AdmissionControlledKMS(underlying, new GradientLimiter(2, 1, 10), Duration.ofSeconds(10))
+    val call = kms.generateDataKey(cmk, Duration.ofMillis(10))
+
+    failure(call) shouldBe a[TimeoutException]
+    kms.getTimeouts shouldEqual 1
+    kms.getInflight shouldEqual 1
+
+    underlying.pending.poll().completeExceptionally(new IllegalStateException("late"))
+    kms.getInflight shouldEqual 0
+  }
+
+  "data keys that arrive after their deadline are destroyed and release their slot" in {
+    val local = new LocalKMS(ForkJoinPool.commonPool())
+    val localCMK = local.createCMK().join()
+    val underlying = new PendingKMS
+    val kms = new AdmissionControlledKMS(underlying, new GradientLimiter(2, 1, 10), Duration.ofSeconds(10))
+
+    val admitted = kms.generateDataKey(cmk, Duration.ofMillis(10))
+    val unadmitted = underlying.generateDataKey(cmk, Duration.ofMillis(10))
+
+    failure(admitted) shouldBe a[TimeoutException]
+    failure(unadmitted) shouldBe a[TimeoutException]
+    kms.getInflight shouldEqual 1
+
+    val lateKeys = Seq(local.generateDataKey(localCMK).join(), local.generateDataKey(localCMK).join())
+    underlying.pending.poll().complete(lateKeys(0))
+    underlying.pending.poll().complete(lateKeys(1))
+
+    lateKeys.foreach(_.plaintextKey().isDestroyed shouldBe true)
+    kms.getInflight shouldEqual 0
+    kms.getTimeouts shouldEqual 1
+  }
+
+  "throttled calls shrink the concurrency limit" in {
+    val local = new LocalKMS(ForkJoinPool.commonPool(), LocalKMS.Latency.none(), 1, 0)
+    val kms = new AdmissionControlledKMS(local, new GradientLimiter(16, 1, 100), Duration.ofSeconds(10))
+    val localCmk = local.createCMK().join()
+
+    for (_ <- 1 to 10) {
+      kms.generateDataKey(localCmk).handle[Unit]((_, _) => ()).join()
+    }
+
+    failure(kms.generateDataKey(localCmk)) shouldBe a[KmsException]
+    kms.getThrottled should be > 0L
+    kms.getLimit should be < 16
+    kms.getInflight shouldEqual 0
+  }
+
+  "successful calls complete normally and release their slot" in {
+    val local = new LocalKMS(ForkJoinPool.commonPool())
+    val kms = new AdmissionControlledKMS(local, new GradientLimiter(4, 1, 10), Duration.ofSeconds(10))
+    val localCmk = kms.createCMK().join()
+    val dataKey = kms.generateDataKey(localCmk).join()
+
+    kms.decryptDataKey(localCmk, dataKey.encryptedKey()).join().plaintextKey().getEncoded shouldEqual
+      dataKey.plaintextKey().getEncoded
+    kms.getInflight shouldEqual 0
+    kms.getRejected shouldEqual 0
+  }
+}
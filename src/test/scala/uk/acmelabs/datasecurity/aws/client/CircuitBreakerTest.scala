@@ -0,0 +1,98 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails
+import software.amazon.awssdk.services.kms.model.KmsException
+
+@RunWith(classOf[JUnitRunner])
+class CircuitBreakerTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  def kmsError(code: String, status: Int): KmsException =
+    KmsException
+      .builder()
+      .message(code)
+      .statusCode(status)
+      .awsErrorDetails(AwsErrorDetails.builder().errorCode(code).build())
+      .build()
+
+  def fail(breaker: CircuitBreaker, exn: Throwable): Unit = {
+    breaker.allowRequest() shouldBe true
+    breaker.record(CompletableFuture.failedFuture[Unit](exn))
+  }
+
+  "the breaker opens after consecutive failures" in {
+    val breaker = new CircuitBreaker(3, Duration.ofSeconds(10))
+
+    fail(breaker, kmsError("KMSInternalException", 500))
+    fail(breaker, kmsError("ThrottlingException", 400))
+    breaker.getState shouldEqual CircuitBreaker.State.CLOSED
+    fail(breaker, new RuntimeException("connection reset"))
+
+    breaker.getState shouldEqual CircuitBreaker.State.OPEN
+    breaker.allowRequest() shouldBe false
+    breaker.getRejected shouldEqual 1
+    breaker.getOpened shouldEqual 1
+  }
+
+  "successes and client errors reset the failure count" in {
+    val breaker = new CircuitBreaker(2, Duration.ofSeconds(10))
+
+    fail(breaker, kmsError("KMSInternalException", 500))
+    fail(breaker, kmsError("InvalidCiphertextException", 400))
+    fail(breaker, kmsError("KMSInternalException", 500))
+    breaker.getState shouldEqual CircuitBreaker.State.CLOSED
+
+    breaker.record(CompletableFuture.completedFuture(()))
+    fail(breaker, kmsError("KMSInternalException", 500))
+    breaker.getState shouldEqual CircuitBreaker.State.CLOSED
+  }
+
+  "a single probe is allowed once the breaker has been open for its open duration" in {
+    val breaker = new CircuitBreaker(1, Duration.ofMillis(20))
+
+    fail(breaker, kmsError("KMSInternalException", 500))
+    Thread.sleep(30)
+
+    breaker.allowRequest() shouldBe true
+    breaker.getState shouldEqual CircuitBreaker.State.HALF_OPEN
+    breaker.allowRequest() shouldBe false
+
+    breaker.record(CompletableFuture.completedFuture(()))
+    breaker.getState shouldEqual CircuitBreaker.State.CLOSED
+    breaker.allowRequest() shouldBe true
+  }
+
+  "a failed probe re-opens the breaker" in {
+    val breaker = new CircuitBreaker(1, Duration.ofMillis(20))
+
+    fail(breaker, kmsError("KMSInternalException", 500))
+    Thread.sleep(30)
+    fail(breaker, kmsError("KMSInternalException", 500))
+
+    breaker.getState shouldEqual CircuitBreaker.State.OPEN
+    breaker.getOpened shouldEqual 2
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import java.net.URI
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import software.amazon.awssdk.metrics.MetricPublisher
+import software.amazon.awssdk.regions.Region
+import software.amazon.awssdk.services.iam.model.Role
+import software.amazon.awssdk.services.kms.KmsAsyncClient
+import uk.acmelabs.datasecurity.AwsConfig
+
+@RunWith(classOf[JUnitRunner])
+class ClientRegistryTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  class FakeClient extends KmsAsyncClient {
+    val closed = new AtomicInteger(0)
+
+    override def serviceName(): String = "kms"
+
+    override def close(): Unit = closed.incrementAndGet()
+  }
+
+  class FakeConfig(endpoint: String, region: Region) extends AwsConfig {
+    val created = new AtomicInteger(0)
+
+    override def kmsEndpoint(): URI = new URI(endpoint)
+
+    override def awsRegion(): Region = region
+
+    override def kmsClient(role: Role, connectionPoolMetrics: MetricPublisher): KmsAsyncClient = {
+      created.incrementAndGet()
+      new FakeClient
+    }
+  }
+
+  def role(name: String): Role =
+    Role.builder().roleName(name).arn(s"arn:aws:iam::000000000000:role/$name").build()
+
+  "clients are shared by role, endpoint and region" in {
+    val registry = new ClientRegistry()
+    val config = new FakeConfig("https://kms.eu-west-1.amazonaws.com", Region.EU_WEST_1)
+    val lease1 = registry.acquire(role("producer"), config)
+    val lease2 = registry.acquire(role("producer"), config)
+
+    lease1.client() shouldBe theSameInstanceAs(lease2.client())
+    lease1.statistics() shouldBe theSameInstanceAs(lease2.statistics())
+    config.created.get() shouldEqual 1
+    registry.size() shouldEqual 1
+
+    lease1.close()
+    lease2.close()
+  }
+
+  "clients with different roles, endpoints or regions are not shared" in {
+    val registry = new ClientRegistry()
+    val config = new FakeConfig("https://kms.eu-west-1.amazonaws.com", Region.EU_WEST_1)
+    val otherEndpoint = new FakeConfig("http://localhost:4566", Region.EU_WEST_1)
+    val otherRegion = new FakeConfig("https://kms.eu-west-1.amazonaws.com", Region.US_EAST_1)
+    val leases =
+      Seq(
+        registry.acquire(role("producer"), config),
+        registry.acquire(role("consumer"), config),
+        registry.acquire(role("producer"), otherEndpoint),
+        registry.acquire(role("producer"), otherRegion)
+      )
+
+    leases.map(_.client()).distinct should have size 4
+    registry.size() shouldEqual 4
+    registry.statistics() should have size 4
+
+    leases.foreach(_.close())
+    registry.size() shouldEqual 0
+  }
+
+  "clients are closed once the last lease is closed" in {
+    val registry = new ClientRegistry()
+    val config = new FakeConfig("https://kms.eu-west-1.amazonaws.com", Region.EU_WEST_1)
+    val lease1 = registry.acquire(role("producer"), config)
+    val lease2 = registry.acquire(role("producer"), config)
+    val client = lease1.client().asInstanceOf[FakeClient]
+
+    lease1.close()
+    client.closed.get() shouldEqual 0
+    registry.size() shouldEqual 1
+
+    lease2.close()
+    client.closed.get() shouldEqual 1
+    registry.size() shouldEqual 0
+  }
+
+  "closing a lease more than once only releases it once" in {
+    val registry = new ClientRegistry()
+    val config = new FakeConfig("https://kms.eu-west-1.amazonaws.com", Region.EU_WEST_1)
+    val lease1 = registry.acquire(role("producer"), config)
+    val lease2 = registry.acquire(role("producer"), config)
+    val client = lease1.client().asInstanceOf[FakeClient]
+
+    lease1.close()
+    lease1.close()
+    client.closed.get() shouldEqual 0
+
+    lease2.close()
+    client.closed.get() shouldEqual 1
+  }
+
+  "a client is rebuilt after it has been closed" in {
+    val registry = new ClientRegistry()
+    val config = new FakeConfig("https://kms.eu-west-1.amazonaws.com", Region.EU_WEST_1)
+
+    registry.acquire(role("producer"), config).close()
+    val lease = registry.acquire(role("producer"), config)
+
+    config.created.get() shouldEqual 2
+    lease.client().asInstanceOf[FakeClient].closed.get() shouldEqual 0
+
+    lease.close()
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class GradientLimiterTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  // Issues limit concurrent calls, all completing with the given latency
+  def saturate(limiter: GradientLimiter, rttNanos: Long, rounds: Int): Unit = {
+    for (_ <- 1 to rounds) {
+      val calls = limiter.getLimit
+      for (_ <- 1 to calls) {
+        limiter.tryAcquire() shouldBe true
+      }
+      for (_ <- 1 to calls) {
+        limiter.onSuccess(rttNanos)
+      }
+    }
+  }
+
+  "calls beyond the limit are rejected" in {
+    val limiter = new GradientLimiter(2, 1, 10)
+
+    limiter.tryAcquire() shouldBe true
+    limiter.tryAcquire() shouldBe true
+    limiter.tryAcquire() shouldBe false
+    limiter.getInflight shouldEqual 2
+
+    limiter.onIgnored()
+    limiter.tryAcquire() shouldBe true
+  }
+
+  "the limit grows whilst latency is stable and the limit is used" in {
+    val limiter = new GradientLimiter(10, 1, 100)
+
+    saturate(limiter, 1000000, 10)
+
+    limiter.getLimit should be > 10
+    limiter.getInflight shouldEqual 0
+  }
+
+  "the limit does not grow when it is not used" in {
+    val limiter = new GradientLimiter(10, 1, 100)
+
+    for (_ <- 1 to 100) {
+      limiter.tryAcquire() shouldBe true
+      limiter.onSuccess(1000000)
+    }
+
+    limiter.getLimit shouldEqual 10
+  }
+
+  "the limit shrinks as latency inflates" in {
+    val limiter = new GradientLimiter(50, 1, 100)
+
+    saturate(limiter, 1000000, 5)
+    val limit = limiter.getLimit
+    saturate(limiter, 10000000, 1)
+
+    limiter.getLimit should be < limit
+  }
+
+  "throttling halves the limit, down to the minimum" in {
+    val limiter = new GradientLimiter(20, 4, 100)
+
+    limiter.tryAcquire() shouldBe true
+    limiter.onThrottled()
+    limiter.getLimit shouldEqual 10
+
+    for (_ <- 1 to 10) {
+      limiter.tryAcquire() shouldBe true
+      limiter.onThrottled()
+    }
+    limiter.getLimit shouldEqual 4
+    limiter.getInflight shouldEqual 0
+  }
+
+  "the limit never exceeds the maximum" in {
+    val limiter = new GradientLimiter(10, 1, 20)
+
+    saturate(limiter, 1000000, 50)
+
+    limiter.getLimit shouldEqual 20
+  }
+}
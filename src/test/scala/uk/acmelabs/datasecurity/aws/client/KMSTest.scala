@@ -0,0 +1,135 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import java.net.URI
+import java.util.concurrent.{CompletableFuture, CompletionException, ConcurrentLinkedQueue, ForkJoinPool}
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.metrics.MetricPublisher
+import software.amazon.awssdk.regions.Region
+import software.amazon.awssdk.services.iam.model.Role
+import software.amazon.awssdk.services.kms.KmsAsyncClient
+import software.amazon.awssdk.services.kms.model.{DecryptRequest, DecryptResponse, KmsException}
+import uk.acmelabs.datasecurity.AwsConfig
+import uk.acmelabs.datasecurity.api.CMK
+import uk.acmelabs.datasecurity.aws.api.model.DataKey
+
+@RunWith(classOf[JUnitRunner])
+class KMSTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  // Decrypt requests only complete when the test completes them
+  class PendingClient extends KmsAsyncClient {
+    val pending = new ConcurrentLinkedQueue[CompletableFuture[DecryptResponse]]()
+
+    override def serviceName(): String = "kms"
+
+    override def close(): Unit = ()
+
+    override def decrypt(request: DecryptRequest): CompletableFuture[DecryptResponse] = {
+      val response = new CompletableFuture[DecryptResponse]()
+      pending.add(response)
+      response
+    }
+  }
+
+  class PendingConfig extends AwsConfig {
+    val client = new PendingClient
+
+    override def kmsEndpoint(): URI = new URI("http://localhost:4566")
+
+    override def awsRegion(): Region = Region.EU_WEST_1
+
+    override def clientRegistry(): ClientRegistry = new ClientRegistry()
+
+    override def kmsClient(role: Role, connectionPoolMetrics: MetricPublisher): KmsAsyncClient = client
+  }
+
+  val role: Role = Role.builder().roleName("consumer").arn("arn:aws:iam::000000000000:role/consumer").build()
+  val cmk = new CMK("id", "arn:aws:kms:local:000000000000:key/id")
+  val encryptedKey: Array[Byte] = Array[Byte](1, 2, 3)
+  val plaintextKey: Array[Byte] = Array.tabulate[Byte](32)(_.toByte)
+
+  def decrypted: DecryptResponse =
+    DecryptResponse.builder().keyId(cmk.getId).plaintext(SdkBytes.fromByteArray(plaintextKey)).build()
+
+  def decryptConcurrently(kms: KMS, callers: Int): Seq[CompletableFuture[DataKey]] =
+    (1 to callers)
+      .map(_ => CompletableFuture.supplyAsync(() => kms.decryptDataKey(cmk, encryptedKey), ForkJoinPool.commonPool()))
+      .map(_.join())
+
+  "concurrent decrypts of the same data key issue a single KMS Decrypt request" in {
+    val config = new PendingConfig
+    val kms = new KMS(role, config)
+    val results = decryptConcurrently(kms, 10)
+
+    config.client.pending.size() shouldEqual 1
+    kms.getCoalescedDecrypts shouldEqual 9
+
+    config.client.pending.poll().complete(decrypted)
+
+    results.map(_.join().plaintextKey().getEncoded.toSeq).distinct shouldEqual Seq(plaintextKey.toSeq)
+    kms.close()
+  }
+
+  "coalesced decrypts return independently destroyable plaintext keys" in {
+    val config = new PendingConfig
+    val kms = new KMS(role, config)
+    val results = decryptConcurrently(kms, 3)
+
+    config.client.pending.poll().complete(decrypted)
+
+    val dataKeys = results.map(_.join())
+    dataKeys.map(_.plaintextKey()).distinct should have size 3
+
+    dataKeys.head.plaintextKey().destroy()
+
+    dataKeys.head.plaintextKey().isDestroyed shouldBe true
+    dataKeys.tail.foreach { dataKey =>
+      dataKey.plaintextKey().isDestroyed shouldBe false
+      dataKey.plaintextKey().getEncoded shouldEqual plaintextKey
+    }
+    dataKeys.tail.foreach(_.plaintextKey().destroy())
+    kms.close()
+  }
+
+  "failed decrypts are not coalesced with later decrypts" in {
+    val config = new PendingConfig
+    val kms = new KMS(role, config)
+    val failed = decryptConcurrently(kms, 2)
+
+    config.client.pending.poll().completeExceptionally(KmsException.builder().message("failure").build())
+
+    failed.foreach(result => intercept[CompletionException](result.join()).getCause shouldBe a[KmsException])
+
+    val retried = kms.decryptDataKey(cmk, encryptedKey)
+
+    config.client.pending.size() shouldEqual 1
+    kms.getCoalescedDecrypts shouldEqual 1
+
+    config.client.pending.poll().complete(decrypted)
+
+    retried.join().plaintextKey().getEncoded shouldEqual plaintextKey
+    retried.join().plaintextKey().destroy()
+    kms.close()
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import java.time.Duration
+import java.util.concurrent.{CompletionException, ForkJoinPool}
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.services.kms.model.KmsException
+
+@RunWith(classOf[JUnitRunner])
+class LocalKMSTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  def kmsError(action: => Any): KmsException = {
+    val exn = intercept[CompletionException](action)
+    exn.getCause shouldBe a[KmsException]
+    exn.getCause.asInstanceOf[KmsException]
+  }
+
+  "generated data keys decrypt to the same plaintext key" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool())
+    val cmk = kms.createCMK().join()
+
+    forAll(Gen.const(())) { _ =>
+      val dataKey = kms.generateDataKey(cmk).join()
+      val decrypted = kms.decryptDataKey(cmk, dataKey.encryptedKey()).join()
+
+      decrypted.plaintextKey().getEncoded shouldEqual dataKey.plaintextKey().getEncoded
+      decrypted.encryptedKey() shouldEqual dataKey.encryptedKey()
+    }
+  }
+
+  "data keys do not decrypt under a different CMK" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool())
+    val cmk = kms.createCMK().join()
+    val other = kms.createCMK().join()
+    val dataKey = kms.generateDataKey(cmk).join()
+
+    kmsError(kms.decryptDataKey(other, dataKey.encryptedKey()).join())
+      .awsErrorDetails().errorCode() shouldEqual "IncorrectKeyException"
+  }
+
+  "modified data keys are rejected" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool())
+    val cmk = kms.createCMK().join()
+    val dataKey = kms.generateDataKey(cmk).join()
+
+    forAll(Gen.choose(0, dataKey.encryptedKey().length - 1)) { index =>
+      val encryptedKey = dataKey.encryptedKey()
+      encryptedKey(index) = (encryptedKey(index) ^ 1).toByte
+
+      kmsError(kms.decryptDataKey(cmk, encryptedKey).join()).awsErrorDetails().errorCode() should (
+        equal("InvalidCiphertextException") or equal("IncorrectKeyException")
+      )
+    }
+  }
+
+  "requests beyond the maximum rate are throttled" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool(), LocalKMS.Latency.none(), 1, 0)
+    val cmk = kms.createCMK().join()
+
+    kmsError(kms.generateDataKey(cmk).join()).isThrottlingException shouldBe true
+    kms.getThrottled shouldEqual 1
+  }
+
+  "injected errors fail requests" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool(), LocalKMS.Latency.none(), Double.PositiveInfinity, 1)
+
+    kmsError(kms.createCMK().join()).statusCode() shouldEqual 500
+    kms.getInjectedErrors shouldEqual 1
+  }
+
+  "responses are delayed by the latency distribution" in {
+    val latency = Duration.ofMillis(50)
+    val kms = new LocalKMS(ForkJoinPool.commonPool(), LocalKMS.Latency.constant(latency), Double.PositiveInfinity, 0)
+    val start = System.nanoTime()
+
+    kms.createCMK().join()
+
+    System.nanoTime() - start should be >= latency.toNanos
+  }
+
+  "sampled latencies lie within their distribution's bounds" in {
+    forAll(Gen.choose(0L, 1000L), Gen.choose(0L, 1000L)) { case (a, b) =>
+      val min = Duration.ofMillis(math.min(a, b))
+      val max = Duration.ofMillis(math.max(a, b))
+      val sample = LocalKMS.Latency.uniform(min, max).sample()
+
+      sample.compareTo(min) should be >= 0
+      sample.compareTo(max) should be <= 0
+    }
+  }
+}
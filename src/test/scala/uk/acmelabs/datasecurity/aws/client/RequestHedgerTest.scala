@@ -0,0 +1,112 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.client
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CompletableFuture, CompletionException, ForkJoinPool}
+
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class RequestHedgerTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  def hedger(budget: Double): RequestHedger = {
+    val result = new RequestHedger(new HedgePolicy(0.9, budget, Duration.ofMillis(1)), ForkJoinPool.commonPool())
+    // Establish a latency percentile
+    for (_ <- 1 to 64) {
+      result.call(() => CompletableFuture.completedFuture(0)).join()
+    }
+    result
+  }
+
+  "requests are not hedged until a latency percentile is known" in {
+    val requestHedger = new RequestHedger(new HedgePolicy(0.9, 1, Duration.ofMillis(1)), ForkJoinPool.commonPool())
+    val attempts = new AtomicInteger(0)
+    val pending = new CompletableFuture[Integer]()
+    val result = requestHedger.call { () => attempts.incrementAndGet(); pending }
+
+    Thread.sleep(50)
+    attempts.get() shouldEqual 1
+    pending.complete(1)
+    result.join() shouldEqual 1
+  }
+
+  "slow requests are hedged, and the first response wins" in {
+    val requestHedger = hedger(1)
+    val attempts = new AtomicInteger(0)
+    val slow = new CompletableFuture[Integer]()
+    val result =
+      requestHedger.call { () =>
+        if (attempts.incrementAndGet() == 1) slow else CompletableFuture.completedFuture[Integer](2)
+      }
+
+    result.join() shouldEqual 2
+    attempts.get() shouldEqual 2
+    requestHedger.getHedged shouldEqual 1
+    requestHedger.getHedgeWins shouldEqual 1
+
+    slow.complete(1)
+    result.join() shouldEqual 2
+  }
+
+  "a failed attempt waits for the outstanding attempt" in {
+    val requestHedger = hedger(1)
+    val attempts = new AtomicInteger(0)
+    val slow = new CompletableFuture[Integer]()
+    val result =
+      requestHedger.call { () =>
+        if (attempts.incrementAndGet() == 1) slow else CompletableFuture.failedFuture[Integer](new IllegalStateException)
+      }
+
+    Thread.sleep(50)
+    result.isDone shouldBe false
+    slow.complete(1)
+    result.join() shouldEqual 1
+  }
+
+  "requests fail once every attempt has failed" in {
+    val requestHedger = hedger(1)
+    val slow = new CompletableFuture[Integer]()
+    val attempts = new AtomicInteger(0)
+    val result =
+      requestHedger.call { () =>
+        if (attempts.incrementAndGet() == 1) slow else CompletableFuture.failedFuture[Integer](new IllegalStateException)
+      }
+
+    Thread.sleep(50)
+    slow.completeExceptionally(new IllegalArgumentException)
+    intercept[CompletionException](result.join()).getCause shouldBe an[IllegalArgumentException]
+  }
+
+  "hedging is limited by its budget" in {
+    val requestHedger = hedger(0.1)
+    val calls = 200
+
+    for (_ <- 1 to calls) {
+      requestHedger.call(() => new CompletableFuture[Integer]())
+    }
+    Thread.sleep(200)
+
+    requestHedger.getHedged should be <= (10 + (64 + calls) / 10).toLong
+    requestHedger.getSuppressed should be > 0L
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics
+
+import java.lang.management.ManagementFactory
+import java.time.Duration
+import java.util.UUID
+
+import javax.management.ObjectName
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import software.amazon.awssdk.core.metrics.CoreMetric
+import software.amazon.awssdk.metrics.{MetricCollection, MetricCollector}
+
+@RunWith(classOf[JUnitRunner])
+class AggregatingMetricPublisherTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  def apiCall(operation: String, duration: Duration, successful: Boolean, retries: Int): MetricCollection = {
+    val collector = MetricCollector.create("ApiCall")
+    collector.reportMetric(CoreMetric.SERVICE_ID, "KMS")
+    collector.reportMetric(CoreMetric.OPERATION_NAME, operation)
+    collector.reportMetric(CoreMetric.API_CALL_DURATION, duration)
+    collector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, java.lang.Boolean.valueOf(successful))
+    collector.reportMetric(CoreMetric.RETRY_COUNT, Integer.valueOf(retries))
+    collector.collect()
+  }
+
+  def publisher(): AggregatingMetricPublisher =
+    AggregatingMetricPublisher.create(UUID.randomUUID().toString, Duration.ofHours(1), false)
+
+  "API calls are counted per API" in {
+    val metrics = publisher()
+    try {
+      metrics.publish(apiCall("Decrypt", Duration.ofMillis(5), successful = true, 0))
+      metrics.publish(apiCall("Decrypt", Duration.ofMillis(7), successful = false, 2))
+      metrics.publish(apiCall("GenerateDataKey", Duration.ofMillis(9), successful = true, 1))
+
+      metrics.getApiCalls.get("KMS.Decrypt") shouldEqual 2
+      metrics.getApiCalls.get("KMS.GenerateDataKey") shouldEqual 1
+      metrics.getApiCallFailures.get("KMS.Decrypt") shouldEqual 1
+      metrics.getApiCallRetries.get("KMS.Decrypt") shouldEqual 2
+    } finally {
+      metrics.close()
+    }
+  }
+
+  "snapshots summarise latencies recorded since the previous snapshot" in {
+    val metrics = publisher()
+    try {
+      for (_ <- 1 to 100) {
+        metrics.publish(apiCall("Decrypt", Duration.ofMillis(10), successful = true, 0))
+      }
+      metrics.recordCmkCall("cmk", "Decrypt", Duration.ofMillis(20).toNanos, true)
+      metrics.getApiCallLatencies shouldBe empty
+
+      metrics.snapshot()
+      val summary = metrics.getApiCallLatencies.get("KMS.Decrypt")
+      summary.getCount shouldEqual 100
+      summary.getP99 shouldEqual 10000.0 +- 320.0
+      metrics.getCmkCallLatencies.get("cmk.Decrypt").getMax shouldEqual 20000.0 +- 640.0
+
+      metrics.snapshot()
+      metrics.getApiCallLatencies.get("KMS.Decrypt").getCount shouldEqual 0
+      metrics.getApiCalls.get("KMS.Decrypt") shouldEqual 100
+    } finally {
+      metrics.close()
+    }
+  }
+
+  "publishers are registered with JMX until closed" in {
+    val name = UUID.randomUUID().toString
+    val objectName =
+      new ObjectName(s"uk.acmelabs.datasecurity:type=AggregatingMetricPublisher,name=${ObjectName.quote(name)}")
+    val metrics = AggregatingMetricPublisher.create(name, Duration.ofHours(1), false)
+
+    ManagementFactory.getPlatformMBeanServer.isRegistered(objectName) shouldBe true
+    metrics.close()
+    ManagementFactory.getPlatformMBeanServer.isRegistered(objectName) shouldBe false
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.aws.metrics
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+@RunWith(classOf[JUnitRunner])
+class LatencyHistogramTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  "bucket values are within 3% of recorded values" in {
+    forAll(Gen.choose(0L, Long.MaxValue / 2)) { value =>
+      val bucketValue = LatencyHistogram.value(LatencyHistogram.bucket(value))
+
+      math.abs(bucketValue - value).toDouble should be <= math.max(1.0, value * 0.032)
+    }
+  }
+
+  "percentiles are within 3% of exact percentiles" in {
+    forAll(Gen.nonEmptyListOf(Gen.choose(1000L, 10000000000L)), Gen.oneOf(0.5, 0.9, 0.99, 0.999)) {
+      (values, percentile) =>
+        val histogram = new LatencyHistogram()
+        values.foreach(value => histogram.record(value))
+
+        val sorted = values.sorted
+        val exact = sorted(math.max(0, math.ceil(percentile * sorted.length).toInt - 1))
+
+        math.abs(histogram.getValueAtPercentile(percentile) - exact).toDouble should be <= exact * 0.032
+    }
+  }
+
+  "counts, means and maxima are exact" in {
+    forAll(Gen.nonEmptyListOf(Gen.choose(0L, 1000000000L))) { values =>
+      val histogram = new LatencyHistogram()
+      values.foreach(value => histogram.record(value))
+
+      histogram.getCount shouldEqual values.length
+      histogram.getMax shouldEqual values.max
+      histogram.getMean shouldEqual (values.map(BigDecimal(_)).sum / values.length).toDouble +- 1.0
+    }
+  }
+
+  "empty histograms report zero" in {
+    val histogram = new LatencyHistogram()
+
+    histogram.getCount shouldEqual 0
+    histogram.getValueAtPercentile(0.99) shouldEqual 0
+    histogram.summary().getP99 shouldEqual 0.0
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.compression
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.Optional
+import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, ForkJoinPool}
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.services.iam.model.Role
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, Message, MessageCodec, MessageFormatException}
+import uk.acmelabs.datasecurity.aws.client.{KeyManagementService, LocalKMS}
+import uk.acmelabs.datasecurity.consumer.{ConsumerConfig, DataConsumer}
+import uk.acmelabs.datasecurity.producer.{DataProducer, ProducerConfig}
+
+@RunWith(classOf[JUnitRunner])
+class CompressionTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+
+  val codec = new DeflateCodec()
+
+  val genRedundantData: Gen[Array[Byte]] =
+    for {
+      count <- Gen.choose(100, 1000)
+      field <- Gen.identifier
+    } yield
+      (0 until count)
+        .map(index => s"""{"id":$index,"$field":"value"}""")
+        .mkString("[", ",", "]")
+        .getBytes(StandardCharsets.UTF_8)
+
+  def compress(data: Array[Byte], capacity: Int): Option[ByteBuffer] = {
+    val target = ByteBuffer.allocate(capacity)
+    val length = codec.compress(ByteBuffer.wrap(data), target)
+
+    if (length < 0) None else Some(target.flip())
+  }
+
+  "DeflateCodec" - {
+    "compressed data decompresses to the original data" in {
+      forAll(genByteArray) { data =>
+        val compressed = compress(data, data.length + 64).get
+        val decompressed = ByteBuffer.allocate(data.length)
+
+        codec.decompress(compressed, decompressed) shouldEqual data.length
+        decompressed.array() shouldEqual data
+      }
+    }
+
+    "redundant data compresses" in {
+      forAll(genRedundantData) { data =>
+        compress(data, data.length / 4) shouldBe defined
+      }
+    }
+
+    "compression is abandoned when compressed data does not fit" in {
+      forAll(genByteArray.suchThat(_.length > 16)) { data =>
+        compress(data, 1) shouldBe empty
+      }
+    }
+
+    "truncated compressed data is rejected" in {
+      forAll(genRedundantData) { data =>
+        val compressed = compress(data, data.length).get
+        compressed.limit(compressed.limit() / 2)
+
+        assertThrows[MessageFormatException] {
+          codec.decompress(compressed, ByteBuffer.allocate(data.length))
+        }
+      }
+    }
+
+    "decompressed data larger than the target is rejected" in {
+      forAll(genRedundantData) { data =>
+        val compressed = compress(data, data.length).get
+
+        assertThrows[MessageFormatException] {
+          codec.decompress(compressed, ByteBuffer.allocate(data.length - 1))
+        }
+      }
+    }
+  }
+
+  "CompressionCodecs" - {
+    "deflate is registered" in {
+      CompressionCodecs.forId(DeflateCodec.ID) shouldBe a[DeflateCodec]
+    }
+
+    "unknown codecs are rejected" in {
+      forAll(Gen.oneOf(0, 2, 15, 16, -1)) { id =>
+        assertThrows[MessageFormatException] {
+          CompressionCodecs.forId(id.toByte)
+        }
+      }
+    }
+  }
+
+  "compressed messages are transparently decompressed by consumers" in {
+    val kms = new LocalKMS(ForkJoinPool.commonPool())
+    val cmk = kms.createCMK().join()
+    val role = Role.builder().roleName("compression").build()
+    val sent = new ConcurrentLinkedQueue[Message]()
+    val received = new ConcurrentLinkedQueue[Array[Byte]]()
+    val producer =
+      new DataProducer(
+        (message: Message) => {
+          sent.add(MessageCodec.decode(MessageCodec.encode(message)))
+          CompletableFuture.completedFuture[Void](null)
+        },
+        new ProducerConfig {
+          override def encryptRole(): Role = role
+
+          override def keyManagementService(role: Role): KeyManagementService = kms
+
+          override def compressionCodec(): Optional[CompressionCodec] = Optional.of(codec)
+        }
+      )
+    val consumer =
+      new DataConsumer(
+        (plaintext: ByteBuffer) => {
+          val data = new Array[Byte](plaintext.remaining())
+          plaintext.get(data)
+          received.add(data)
+          CompletableFuture.completedFuture[Void](null)
+        },
+        new ConsumerConfig {
+          override def decryptRole(): Role = role
+
+          override def keyManagementService(role: Role): KeyManagementService = kms
+        }
+      )
+
+    forAll(Gen.oneOf(genRedundantData, genByteArray)) { data =>
+      sent.clear()
+      received.clear()
+
+      producer.send(ByteBuffer.wrap(data).asReadOnlyBuffer(), cmk).join()
+      val message = sent.asScala.head
+      consumer.receive(message).join()
+
+      received.asScala.head shouldEqual data
+      if (message.isCompressed) {
+        message.getCompressionCodec shouldEqual DeflateCodec.ID
+        message.getUncompressedLength shouldEqual data.length
+        DataConsumer.plaintextSize(message) shouldEqual data.length
+        message.getDataBuffer.remaining() should be < data.length
+      }
+    }
+  }
+}
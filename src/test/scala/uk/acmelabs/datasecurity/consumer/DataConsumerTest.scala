@@ -0,0 +1,120 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.consumer
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, ForkJoinPool}
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.services.iam.model.Role
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, Message, MessageGen}
+import uk.acmelabs.datasecurity.aws.client.{KeyManagementService, LocalKMS}
+
+@RunWith(classOf[JUnitRunner])
+class DataConsumerTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+
+  val kms = new LocalKMS(ForkJoinPool.commonPool())
+  val kmsMap =
+    Seq
+      .fill(3)(kms.createCMK().join())
+      .map(cmk => cmk -> Seq.fill(2)(kms.generateDataKey(cmk).join()))
+      .toMap
+  val genMessages: Gen[List[(Message, ByteBuffer)]] = Gen.listOf(MessageGen.genMessage(kmsMap))
+
+  def consumer(processed: ConcurrentLinkedQueue[ByteBuffer]): DataConsumer =
+    new DataConsumer(
+      (plaintext: ByteBuffer) => {
+        processed.add(ByteBuffer.allocate(plaintext.remaining()).put(plaintext).flip())
+        CompletableFuture.completedFuture[Void](null)
+      },
+      new ConsumerConfig {
+        override def decryptRole(): Role = Role.builder().roleName("consumer").build()
+
+        override def keyManagementService(role: Role): KeyManagementService = kms
+      }
+    )
+
+  "receiveAll" - {
+    "processes every message, decrypting each distinct data key once" in {
+      forAll(genMessages) { messages =>
+        val processed = new ConcurrentLinkedQueue[ByteBuffer]()
+        val requests = kms.getRequests
+        val results = consumer(processed).receiveAll(messages.map(_._1).asJava).join().asScala
+
+        results.map(_.getMessage) shouldEqual messages.map(_._1)
+        results.forall(_.isSuccessful) shouldBe true
+        processed.asScala.toSeq should contain theSameElementsAs messages.map(_._2)
+        kms.getRequests - requests shouldEqual messages.map(_._1.getDataKey.toSeq).distinct.size
+      }
+    }
+
+    "reports failures per message" in {
+      forAll(genMessages.suchThat(_.nonEmpty), genByteArray) { (messages, data) =>
+        val processed = new ConcurrentLinkedQueue[ByteBuffer]()
+        val (valid, _) = messages.head
+        val corrupt = new Message(data, valid.getDataKey, valid.getIV, valid.getCMK)
+        val results =
+          consumer(processed).receiveAll((corrupt :: messages.map(_._1)).asJava).join().asScala
+
+        results.head.isSuccessful shouldBe false
+        results.head.getError.isPresent shouldBe true
+        results.tail.forall(_.isSuccessful) shouldBe true
+        processed.size shouldEqual messages.size
+      }
+    }
+  }
+
+  "receive" - {
+    "processors are passed buffers whose capacity is the plaintext length" in {
+      val genLength = Gen.choose(1, 4096).suchThat(length => Integer.bitCount(length) != 1)
+
+      forAll(genLength) { length =>
+        val capacities = new ConcurrentLinkedQueue[Integer]()
+        val data = ByteBuffer.wrap(Array.tabulate[Byte](length)(_.toByte))
+        val (message, _) = MessageGen.genMessage(kmsMap, Some(data.asReadOnlyBuffer())).sample.get
+        val dataConsumer =
+          new DataConsumer(
+            (plaintext: ByteBuffer) => {
+              capacities.add(plaintext.capacity())
+              plaintext shouldEqual data
+              CompletableFuture.completedFuture[Void](null)
+            },
+            new ConsumerConfig {
+              override def decryptRole(): Role = Role.builder().roleName("consumer").build()
+
+              override def keyManagementService(role: Role): KeyManagementService = kms
+            }
+          )
+
+        dataConsumer.receive(message).join()
+
+        capacities.asScala.toList shouldEqual List(length)
+      }
+    }
+  }
+}
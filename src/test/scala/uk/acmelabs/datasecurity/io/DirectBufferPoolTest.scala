@@ -0,0 +1,112 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.io
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+@RunWith(classOf[JUnitRunner])
+class DirectBufferPoolTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  val maxBufferSize: Int = 64 * 1024
+
+  def pool(maxPooledBytes: Long = 1024 * 1024): DirectBufferPool =
+    new DirectBufferPool(maxBufferSize, maxPooledBytes)
+
+  "leased buffers are direct, zeroed and limited to the requested size" in {
+    forAll(Gen.choose(0, 2 * maxBufferSize)) { size =>
+      val lease = pool().acquire(size)
+
+      lease.buffer().isDirect shouldBe true
+      lease.buffer().position() shouldEqual 0
+      lease.buffer().limit() shouldEqual size
+      (0 until size).foreach(index => lease.buffer().get(index) shouldEqual 0.toByte)
+      lease.close()
+    }
+  }
+
+  "released buffers are zeroed and reused" in {
+    forAll(Gen.choose(0, maxBufferSize)) { size =>
+      val buffers = pool()
+      val first = buffers.acquire(size)
+      (0 until size).foreach(index => first.buffer().put(index, 42.toByte))
+      first.close()
+
+      buffers.getPooledBuffers shouldEqual 1
+      buffers.getLeasedBuffers shouldEqual 0
+
+      val second = buffers.acquire(size)
+      (0 until size).foreach(index => second.buffer().get(index) shouldEqual 0.toByte)
+      buffers.getHits shouldEqual 1
+      buffers.getMisses shouldEqual 1
+      buffers.getPooledBuffers shouldEqual 0
+      second.close()
+    }
+  }
+
+  "closing a lease more than once releases its buffer once" in {
+    val buffers = pool()
+    val lease = buffers.acquire(1024)
+
+    lease.close()
+    lease.close()
+
+    buffers.getPooledBuffers shouldEqual 1
+    buffers.getLeasedBuffers shouldEqual 0
+  }
+
+  "oversized buffers are not pooled" in {
+    forAll(Gen.choose(maxBufferSize + 1, 2 * maxBufferSize)) { size =>
+      val buffers = pool()
+      buffers.acquire(size).close()
+
+      buffers.getPooledBuffers shouldEqual 0
+      buffers.getMisses shouldEqual 1
+    }
+  }
+
+  "idle buffers are bounded by the maximum pooled bytes" in {
+    val buffers = pool(maxPooledBytes = 4096)
+    val leases = (0 until 8).map(_ => buffers.acquire(1024))
+
+    leases.foreach(_.close())
+
+    buffers.getPooledBytes shouldEqual 4096
+    buffers.getPooledBuffers shouldEqual 4
+  }
+
+  "unclosed leases are detected as leaks" in {
+    val buffers = pool()
+    buffers.acquire(1024)
+
+    val deadline = System.nanoTime() + 10L * 1000 * 1000 * 1000
+    while (buffers.getLeaks == 0 && System.nanoTime() < deadline) {
+      System.gc()
+      Thread.sleep(10)
+    }
+
+    buffers.getLeaks shouldEqual 1
+    buffers.getLeasedBuffers shouldEqual 0
+    buffers.getPooledBuffers shouldEqual 0
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.jfr
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.concurrent.CompletableFuture
+
+import scala.collection.JavaConverters._
+
+import jdk.jfr.Recording
+import jdk.jfr.consumer.{RecordedEvent, RecordingFile}
+import org.junit.runner.RunWith
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import uk.acmelabs.datasecurity.aws.api.crypto.DataKeyEncryptor
+import uk.acmelabs.datasecurity.aws.api.model.PlaintextDataKeyGen
+
+@RunWith(classOf[JUnitRunner])
+class PipelineEventsTest
+  extends AnyFreeSpec
+    with Matchers {
+
+  def recorded(eventNames: String*)(action: => Unit): Seq[RecordedEvent] =
+    recordedWith(eventNames, Seq.empty)(action)
+
+  def recordedWith(enabled: Seq[String], disabled: Seq[String])(action: => Unit): Seq[RecordedEvent] = {
+    val recording = new Recording()
+    enabled.foreach(name => recording.enable(s"uk.acmelabs.datasecurity.$name").withoutThreshold())
+    disabled.foreach(name => recording.disable(s"uk.acmelabs.datasecurity.$name"))
+    val file = Files.createTempFile("pipeline-events", ".jfr")
+
+    try {
+      recording.start()
+      action
+      recording.stop()
+      recording.dump(file)
+
+      RecordingFile
+        .readAllEvents(file)
+        .asScala
+        .toSeq
+        .filter(_.getEventType.getName.startsWith("uk.acmelabs.datasecurity."))
+    } finally {
+      recording.close()
+      Files.deleteIfExists(file)
+    }
+  }
+
+  "encryption and decryption record cipher init and crypto events" in {
+    val plaintextKey = PlaintextDataKeyGen.genAESPlaintextDataKey.sample.get
+    val data = ByteBuffer.wrap(new Array[Byte](1024))
+
+    val events =
+      recorded("CipherInit", "Crypto") {
+        val encryptor = new DataKeyEncryptor(plaintextKey)
+        val encryptedData = ByteBuffer.allocate(DataKeyEncryptor.encryptedLength(data.remaining()))
+
+        encryptor.encrypt(data, encryptedData)
+        encryptedData.flip()
+        new DataKeyEncryptor(plaintextKey, encryptor.getIV).decrypt(encryptedData, ByteBuffer.allocate(1024))
+      }
+
+    events.filter(_.getEventType.getName.endsWith("CipherInit")).map(_.getString("mode")) shouldEqual
+      Seq("encrypt", "decrypt")
+    events
+      .filter(_.getEventType.getName.endsWith("Crypto"))
+      .map(event => (event.getString("operation"), event.getLong("payloadSize"))) shouldEqual
+      Seq(("encrypt", 1024L), ("decrypt", 1024L))
+  }
+
+  "asynchronous events are committed once their stage completes" in {
+    val stage = new CompletableFuture[Void]()
+
+    val events =
+      recorded("Deliver") {
+        DeliverEvent.start().record(stage, "cmk", 42)
+        stage.completeExceptionally(new IllegalStateException)
+      }
+
+    events should have size 1
+    events.head.getString("cmkId") shouldEqual "cmk"
+    events.head.getLong("payloadSize") shouldEqual 42
+    events.head.getBoolean("successful") shouldBe false
+  }
+
+  "asynchronous events are not committed when disabled" in {
+    val stage = CompletableFuture.completedFuture[Void](null)
+
+    recordedWith(Seq("Send"), Seq("Deliver")) {
+      DeliverEvent.start().record(stage, "cmk", 42)
+    } shouldBe empty
+  }
+}
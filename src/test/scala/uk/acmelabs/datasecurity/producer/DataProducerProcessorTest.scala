@@ -0,0 +1,206 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.producer
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, Flow, ForkJoinPool, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import software.amazon.awssdk.services.iam.model.Role
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, Message}
+import uk.acmelabs.datasecurity.aws.client.{KeyManagementService, LocalKMS}
+import uk.acmelabs.datasecurity.consumer.{ConsumerConfig, DataConsumer}
+
+@RunWith(classOf[JUnitRunner])
+class DataProducerProcessorTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+
+  val kms = new LocalKMS(ForkJoinPool.commonPool())
+  val cmk = kms.createCMK().join()
+  val role = Role.builder().roleName("processor").build()
+
+  val genMaxInFlight: Gen[Int] = Gen.choose(1, 8)
+
+  def producer(deliver: Message => CompletableFuture[Void]): DataProducer =
+    new DataProducer(
+      (message: Message) => deliver(message),
+      new ProducerConfig {
+        override def encryptRole(): Role = role
+
+        override def keyManagementService(role: Role): KeyManagementService = kms
+      }
+    )
+
+  // Delivers after a random delay, so that sends complete out of order
+  def delayedDeliver(message: Message): CompletableFuture[Void] =
+    CompletableFuture.runAsync(
+      () => (),
+      CompletableFuture.delayedExecutor(scala.util.Random.nextInt(3).toLong, TimeUnit.MILLISECONDS)
+    )
+
+  def decrypt(messages: Seq[Message]): Seq[Array[Byte]] = {
+    val received = new ConcurrentLinkedQueue[Array[Byte]]()
+    val consumer =
+      new DataConsumer(
+        (plaintext: ByteBuffer) => {
+          val data = new Array[Byte](plaintext.remaining())
+          plaintext.get(data)
+          received.add(data)
+          CompletableFuture.completedFuture[Void](null)
+        },
+        new ConsumerConfig {
+          override def decryptRole(): Role = role
+
+          override def keyManagementService(role: Role): KeyManagementService = kms
+        }
+      )
+
+    messages.foreach(consumer.receive(_).join())
+    received.asScala.toList
+  }
+
+  class TestUpstream extends Flow.Subscription {
+    val requested = new AtomicLong()
+    @volatile var cancelled = false
+
+    override def request(n: Long): Unit = requested.addAndGet(n)
+
+    override def cancel(): Unit = cancelled = true
+  }
+
+  class TestSubscriber extends Flow.Subscriber[Message] {
+    val received = new ConcurrentLinkedQueue[Message]()
+    val terminated = new CompletableFuture[Option[Throwable]]()
+    @volatile var subscription: Flow.Subscription = _
+
+    override def onSubscribe(subscription: Flow.Subscription): Unit = this.subscription = subscription
+
+    override def onNext(message: Message): Unit = received.add(message)
+
+    override def onError(throwable: Throwable): Unit = terminated.complete(Some(throwable))
+
+    override def onComplete(): Unit = terminated.complete(None)
+  }
+
+  "messages are published in upstream order" in {
+    val dataProducer = producer(delayedDeliver)
+
+    forAll(genMaxInFlight, Gen.listOf(genByteArray)) { (maxInFlight, data) =>
+      val processor = dataProducer.processor(cmk, maxInFlight)
+      val upstream = new TestUpstream()
+      val subscriber = new TestSubscriber()
+
+      processor.subscribe(subscriber)
+      processor.onSubscribe(upstream)
+      subscriber.subscription.request(Long.MaxValue)
+      data.zipWithIndex.foreach { case (bytes, index) =>
+        while (upstream.requested.get() <= index) {
+          Thread.sleep(1)
+        }
+        processor.onNext(ByteBuffer.wrap(bytes))
+      }
+      processor.onComplete()
+
+      subscriber.terminated.get(10, TimeUnit.SECONDS) shouldBe None
+      decrypt(subscriber.received.asScala.toList) shouldEqual data
+    }
+  }
+
+  "upstream demand is bounded by maxInFlight" in {
+    val dataProducer = producer(_ => CompletableFuture.completedFuture(null))
+
+    forAll(genMaxInFlight) { maxInFlight =>
+      val processor = dataProducer.processor(cmk, maxInFlight)
+      val upstream = new TestUpstream()
+      val subscriber = new TestSubscriber()
+
+      processor.onSubscribe(upstream)
+      upstream.requested.get() shouldEqual 0
+      processor.subscribe(subscriber)
+      upstream.requested.get() shouldEqual maxInFlight
+
+      (0 until maxInFlight).foreach(_ => processor.onNext(ByteBuffer.allocate(16)))
+      Thread.sleep(10)
+      upstream.requested.get() shouldEqual maxInFlight
+
+      subscriber.subscription.request(1)
+      eventually(upstream.requested.get() == maxInFlight + 1)
+      subscriber.received.size() shouldEqual 1
+    }
+  }
+
+  "failed sends are published as errors and cancel upstream" in {
+    val error = new IllegalStateException("delivery failed")
+    val dataProducer = producer(_ => CompletableFuture.failedFuture(error))
+    val processor = dataProducer.processor(cmk, 4)
+    val upstream = new TestUpstream()
+    val subscriber = new TestSubscriber()
+
+    processor.subscribe(subscriber)
+    processor.onSubscribe(upstream)
+    processor.onNext(ByteBuffer.allocate(16))
+
+    subscriber.terminated.get(10, TimeUnit.SECONDS) shouldBe Some(error)
+    upstream.cancelled shouldBe true
+  }
+
+  "upstream errors are published once in flight messages are published" in {
+    val error = new IllegalStateException("upstream failed")
+    val processor = producer(delayedDeliver).processor(cmk, 4)
+    val upstream = new TestUpstream()
+    val subscriber = new TestSubscriber()
+
+    processor.subscribe(subscriber)
+    processor.onSubscribe(upstream)
+    subscriber.subscription.request(Long.MaxValue)
+    (0 until 4).foreach(_ => processor.onNext(ByteBuffer.allocate(16)))
+    processor.onError(error)
+
+    subscriber.terminated.get(10, TimeUnit.SECONDS) shouldBe Some(error)
+    subscriber.received.size() shouldEqual 4
+  }
+
+  "a second subscriber is rejected" in {
+    val processor = producer(delayedDeliver).processor(cmk, 4)
+    val subscriber = new TestSubscriber()
+
+    processor.subscribe(new TestSubscriber())
+    processor.subscribe(subscriber)
+
+    subscriber.terminated.get(10, TimeUnit.SECONDS).map(_.getClass) shouldBe Some(classOf[IllegalStateException])
+  }
+
+  def eventually(condition: => Boolean): Unit = {
+    val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+
+    while (!condition && System.nanoTime() < deadline) {
+      Thread.sleep(1)
+    }
+    condition shouldBe true
+  }
+}
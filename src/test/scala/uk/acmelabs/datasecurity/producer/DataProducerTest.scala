@@ -17,6 +17,8 @@ package uk.acmelabs.datasecurity.producer
 
 import java.util.concurrent.CompletableFuture
 
+import scala.collection.JavaConverters._
+
 import org.junit.runner.RunWith
 import org.scalacheck.Gen
 import org.scalatest.freespec.AnyFreeSpec
@@ -57,4 +59,16 @@ class DataProducerTest
       }
     }
   }
+
+  "sendBatch parameter validation" - {
+    "data ByteBuffers must be read-only" in {
+      forAll(genProducerConfig, Gen.nonEmptyListOf(genByteBuffer), genCMK) { case (config, data, cmk) =>
+        val producer = new DataProducer(_ => CompletableFuture.completedFuture(null), config)
+
+        assertThrows[AssertionError] {
+          producer.sendBatch(data.asJava, cmk)
+        }
+      }
+    }
+  }
 }
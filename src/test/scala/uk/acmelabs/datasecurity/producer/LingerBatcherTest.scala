@@ -0,0 +1,149 @@
+/**
+ * Copyright [2020] [Carl Pulley]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.acmelabs.datasecurity.producer
+
+import java.nio.ByteBuffer
+import java.time.Duration
+import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, ExecutionException, Executors, TimeUnit}
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+import uk.acmelabs.datasecurity.api.{ByteBufferGen, CMK, CMKGen}
+
+@RunWith(classOf[JUnitRunner])
+class LingerBatcherTest
+  extends AnyFreeSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  import ByteBufferGen._
+  import CMKGen._
+
+  private val executor = Executors.newSingleThreadExecutor()
+
+  final class BatchProbe {
+    val batches = new ConcurrentLinkedQueue[(Seq[ByteBuffer], CMK)]()
+
+    def batcher(lingerTime: Duration, maxMessages: Int): LingerBatcher =
+      new LingerBatcher(
+        (data: java.util.List[ByteBuffer], cmk: CMK) => {
+          batches.add((data.asScala.toList, cmk))
+          CompletableFuture.completedFuture[Void](null)
+        },
+        lingerTime,
+        maxMessages,
+        executor
+      )
+  }
+
+  "full batches are sent immediately" in {
+    forAll(genCMK, Gen.choose(1, 10), Gen.listOf(genByteBuffer)) { case (cmk, maxMessages, data) =>
+      val probe = new BatchProbe
+      val batcher = probe.batcher(Duration.ofHours(1), maxMessages)
+
+      val results = data.map(batcher.add(_, cmk))
+
+      probe.batches.asScala.map(_._1.length).toList shouldEqual List.fill(data.length / maxMessages)(maxMessages)
+      results.take(data.length - data.length % maxMessages).foreach(_.isDone should be(true))
+      results.drop(data.length - data.length % maxMessages).foreach(_.isDone should be(false))
+    }
+  }
+
+  "partial batches are sent once the linger time expires" in {
+    forAll(genCMK, Gen.nonEmptyListOf(genByteBuffer)) { case (cmk, data) =>
+      val probe = new BatchProbe
+      val batcher = probe.batcher(Duration.ofMillis(10), data.length + 1)
+
+      val results = data.map(batcher.add(_, cmk))
+
+      CompletableFuture.allOf(results: _*).get(1, TimeUnit.SECONDS)
+      probe.batches.asScala.toList shouldEqual List((data, cmk))
+    }
+  }
+
+  "messages are batched per CMK" in {
+    forAll(genCMK, genCMK, genByteBuffer, genByteBuffer) { case (cmk1, cmk2, data1, data2) =>
+      val probe = new BatchProbe
+      val batcher = probe.batcher(Duration.ofHours(1), 2)
+
+      batcher.add(data1, cmk1)
+      batcher.add(data2, cmk2)
+
+      probe.batches.isEmpty should be(true)
+
+      batcher.flush()
+
+      probe.batches.asScala.toSet shouldEqual Set((List(data1), cmk1), (List(data2), cmk2))
+    }
+  }
+
+  "batch send failures are reported to every message" in {
+    forAll(genCMK, Gen.choose(1, 10)) { case (cmk, maxMessages) =>
+      val batcher =
+        new LingerBatcher(
+          (_: java.util.List[ByteBuffer], _: CMK) =>
+            CompletableFuture.failedFuture[Void](new RuntimeException("send failure")),
+          Duration.ofHours(1),
+          maxMessages,
+          executor
+        )
+
+      val results = (0 until maxMessages).map(_ => batcher.add(ByteBuffer.allocate(0), cmk))
+
+      results.foreach(_.isCompletedExceptionally should be(true))
+    }
+  }
+
+  "batch sends that throw are reported to every message" in {
+    forAll(genCMK, genCMK, Gen.choose(3, 10)) { case (cmk1, cmk2, maxMessages) =>
+      whenever(cmk1.getId != cmk2.getId) {
+        val attempts = new ConcurrentLinkedQueue[CMK]()
+        def batcher(lingerTime: Duration): LingerBatcher =
+          new LingerBatcher(
+            (_: java.util.List[ByteBuffer], cmk: CMK) => {
+              attempts.add(cmk)
+              throw new IllegalStateException("send failure")
+            },
+            lingerTime,
+            maxMessages,
+            executor
+          )
+
+        val flushed = batcher(Duration.ofHours(1))
+        val full = (0 until maxMessages).map(_ => flushed.add(ByteBuffer.allocate(0), cmk1))
+        val partial = Seq(flushed.add(ByteBuffer.allocate(0), cmk1), flushed.add(ByteBuffer.allocate(0), cmk2))
+
+        full.foreach(_.isCompletedExceptionally should be(true))
+
+        flushed.flush()
+
+        partial.foreach(_.isCompletedExceptionally should be(true))
+        attempts.size() shouldEqual 3
+
+        val lingering = batcher(Duration.ofMillis(10)).add(ByteBuffer.allocate(0), cmk1)
+
+        intercept[ExecutionException](lingering.get(1, TimeUnit.SECONDS))
+          .getCause shouldBe an[IllegalStateException]
+      }
+    }
+  }
+}